@@ -0,0 +1,280 @@
+package it.nexbit.cuba.dynamiccolumns.bench;
+
+import com.google.common.collect.ImmutableMap;
+import com.haulmont.chile.core.datatypes.Datatype;
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.chile.core.model.Range;
+import com.haulmont.chile.core.model.impl.ClassRange;
+import com.haulmont.chile.core.model.impl.DatatypeRange;
+import com.haulmont.chile.core.model.impl.MetaClassImpl;
+import com.haulmont.chile.core.model.impl.MetaModelImpl;
+import com.haulmont.chile.core.model.impl.MetaPropertyImpl;
+import com.haulmont.chile.core.model.impl.SessionImpl;
+import com.haulmont.cuba.core.global.Configuration;
+import com.haulmont.cuba.core.global.Messages;
+import com.haulmont.cuba.core.global.MessageTools;
+import com.haulmont.cuba.core.global.Metadata;
+import com.haulmont.cuba.core.global.MetadataTools;
+import com.haulmont.cuba.core.global.Scripting;
+import com.haulmont.cuba.core.global.ViewRepository;
+import com.haulmont.cuba.core.sys.AppComponents;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.AppProperties;
+import com.haulmont.cuba.gui.UiComponents;
+import com.haulmont.cuba.gui.components.Frame;
+import com.haulmont.cuba.gui.components.Table;
+import com.haulmont.cuba.gui.data.CollectionDatasource;
+import com.haulmont.cuba.gui.data.Datasource;
+import com.haulmont.cuba.gui.executors.BackgroundWorker;
+import com.haulmont.cuba.gui.executors.UIAccessor;
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.Script;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.library.SharedColumnLibrary;
+import it.nexbit.cuba.dynamiccolumns.metrics.MetricsRegistryImpl;
+import it.nexbit.cuba.dynamiccolumns.scripting.CompiledScriptCacheImpl;
+import it.nexbit.cuba.dynamiccolumns.web.components.DynamicColumnsExecutor;
+import it.nexbit.cuba.dynamiccolumns.web.components.DynamicColumnsSettings;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A Spring context with the add-on beans and stubs of the platform beans they depend on, so that
+ * the benchmarks run without the CUBA middleware and UI.
+ *
+ * <p>
+ * The entity model is made of {@link BenchOrder} rows, referencing a {@link BenchCustomer}.
+ * </p>
+ */
+public class BenchContext {
+
+    public static final String SCREEN_ID = "bench$Order.browse";
+
+    public static final String TABLE_ID = "ordersTable";
+
+    protected AnnotationConfigApplicationContext applicationContext;
+
+    protected MetaClass orderClass;
+
+    protected MetaClass customerClass;
+
+    /**
+     * The user settings saved through the stub {@link DynamicColumnsSettings}.
+     */
+    protected Map<String, String> userSettings = new ConcurrentHashMap<>();
+
+    protected GroovyClassLoader groovyClassLoader = new GroovyClassLoader(BenchContext.class.getClassLoader());
+
+    /**
+     * The idle script instances of {@link #evaluateGroovy(String, Binding)}, by script text.
+     */
+    protected Map<String, Queue<Script>> scriptPool = new ConcurrentHashMap<>();
+
+    /**
+     * Create the context and make it the current application context.
+     *
+     * @param configOverrides  values of the {@link DynamicColumnsConfig} properties differing
+     *                         from the defaults, keyed by property name
+     */
+    public BenchContext(Map<String, Object> configOverrides) {
+        createMetaModel();
+
+        Map<String, Object> config = new HashMap<>();
+        // the render budget is reset by the UI at the end of each request, which never happens here
+        config.put("nxdcol.renderBudgetMs", 0);
+        // the scripts are compiled in memory, so that the results do not depend on previous runs
+        config.put("nxdcol.scriptCache.diskEnabled", false);
+        config.putAll(configOverrides);
+
+        applicationContext = new AnnotationConfigApplicationContext();
+        ConfigurableListableBeanFactory beanFactory = applicationContext.getBeanFactory();
+        beanFactory.registerSingleton(Configuration.NAME, createConfiguration(config));
+        beanFactory.registerSingleton(Scripting.NAME, Stubs.stub(Scripting.class, ImmutableMap.of(
+                "getClassLoader", args -> BenchContext.class.getClassLoader(),
+                "evaluateGroovy", args -> evaluateGroovy((String) args[0], (Binding) args[1]))));
+        beanFactory.registerSingleton(Metadata.NAME, Stubs.stub(Metadata.class, ImmutableMap.of(
+                "create", args -> new DynamicColumn())));
+        beanFactory.registerSingleton(MetadataTools.NAME, Stubs.stub(MetadataTools.class, ImmutableMap.of(
+                "copy", args -> copy((DynamicColumn) args[0]),
+                "isPersistent", args -> true)));
+        beanFactory.registerSingleton(Messages.NAME, Stubs.stub(Messages.class, ImmutableMap.of(
+                "getMainMessage", args -> args[0])));
+        beanFactory.registerSingleton(MessageTools.NAME, Stubs.stub(MessageTools.class, ImmutableMap.of(
+                "getPropertyCaption", args -> args[1])));
+        beanFactory.registerSingleton(ViewRepository.NAME, Stubs.stub(ViewRepository.class));
+        beanFactory.registerSingleton(UiComponents.NAME, Stubs.stub(UiComponents.class));
+        beanFactory.registerSingleton(BackgroundWorker.NAME, Stubs.stub(BackgroundWorker.class, ImmutableMap.of(
+                "getUIAccessor", args -> Stubs.stub(UIAccessor.class))));
+        beanFactory.registerSingleton(DynamicColumnsSettings.NAME, Stubs.stub(DynamicColumnsSettings.class, ImmutableMap.of(
+                "loadSetting", args -> userSettings.get((String) args[0]),
+                "saveSetting", args -> userSettings.put((String) args[0], (String) args[1]))));
+        beanFactory.registerSingleton(SharedColumnLibrary.NAME, Stubs.stub(SharedColumnLibrary.class));
+        applicationContext.register(CompiledScriptCacheImpl.class, MetricsRegistryImpl.class,
+                DynamicColumnsExecutor.class);
+
+        AppContext.Internals.setAppProperties(new AppProperties(new AppComponents("web")));
+        applicationContext.refresh();
+        AppContext.Internals.setApplicationContext(applicationContext);
+    }
+
+    public BenchContext() {
+        this(Collections.emptyMap());
+    }
+
+    public void close() {
+        applicationContext.close();
+        AppContext.Internals.setApplicationContext(null);
+    }
+
+    public MetaClass getOrderClass() {
+        return orderClass;
+    }
+
+    /**
+     * Create the rows of the bench table.
+     *
+     * @param count  the number of rows
+     * @return the rows, each with a different customer
+     */
+    public List<BenchOrder> createRows(int count) {
+        List<BenchOrder> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            BenchCustomer customer = new BenchCustomer();
+            customer.setName("Customer " + i);
+            BenchOrder order = new BenchOrder();
+            order.setNumber(String.format("ORD-%05d", i));
+            order.setPrice(BigDecimal.valueOf(1000 + i, 2));
+            order.setQuantity(1 + i % 10);
+            order.setCustomer(customer);
+            rows.add(order);
+        }
+        return rows;
+    }
+
+    /**
+     * Create a stub of the table showing the given rows, that accepts generated columns.
+     *
+     * @param rows  the table rows
+     * @return the table stub
+     */
+    @SuppressWarnings("unchecked")
+    public Table<BenchOrder> createTable(List<BenchOrder> rows) {
+        Frame frame = Stubs.stub(Frame.class, ImmutableMap.of("getId", args -> SCREEN_ID));
+        CollectionDatasource datasource = Stubs.stub(CollectionDatasource.class, ImmutableMap.of(
+                "getMetaClass", args -> orderClass,
+                "getState", args -> Datasource.State.VALID,
+                "getItems", args -> rows,
+                "size", args -> rows.size()));
+        return Stubs.stub(Table.class, ImmutableMap.of(
+                "getId", args -> TABLE_ID,
+                "getFrame", args -> frame,
+                "getDatasource", args -> datasource,
+                "getColumn", args -> new Table.Column(args[0])));
+    }
+
+    /**
+     * Create dynamic columns with scripts supported by the compiled expressions.
+     *
+     * @param count  the number of columns
+     * @return the columns
+     */
+    public List<DynamicColumn> createColumns(int count) {
+        List<DynamicColumn> columns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            DynamicColumn column = new DynamicColumn();
+            column.setName("Column " + i);
+            column.setGroovyScript("{E}.price * {E}.quantity + " + i);
+            columns.add(column);
+        }
+        return columns;
+    }
+
+    /**
+     * Evaluate a script as {@code Scripting.evaluateGroovy} does in the platform: the script class is
+     * compiled on first use and cached by script text, and its instances are pooled, so that a
+     * script instance is bound to a single evaluation at a time.
+     *
+     * @param text     the script text
+     * @param binding  the script variables
+     * @return the script result
+     */
+    protected Object evaluateGroovy(String text, Binding binding) {
+        Queue<Script> idle = scriptPool.computeIfAbsent(text, key -> new ConcurrentLinkedQueue<>());
+        Script script = idle.poll();
+        if (script == null) {
+            Class<?> scriptClass;
+            synchronized (groovyClassLoader) {
+                scriptClass = groovyClassLoader.parseClass(text);
+            }
+            script = InvokerHelper.createScript(scriptClass, new Binding());
+        }
+        try {
+            script.setBinding(binding);
+            return script.run();
+        } finally {
+            script.setBinding(new Binding());
+            idle.offer(script);
+        }
+    }
+
+    protected Configuration createConfiguration(Map<String, Object> config) {
+        DynamicColumnsConfig dynamicColumnsConfig = Stubs.config(DynamicColumnsConfig.class, config);
+        return Stubs.stub(Configuration.class, ImmutableMap.of(
+                "getConfig", args -> args[0] == DynamicColumnsConfig.class ? dynamicColumnsConfig : null));
+    }
+
+    protected void createMetaModel() {
+        MetaModelImpl model = new MetaModelImpl(new SessionImpl(), "bench");
+
+        customerClass = new MetaClassImpl(model, "bench$Customer");
+        ((MetaClassImpl) customerClass).setJavaClass(BenchCustomer.class);
+        addDatatypeProperty(customerClass, "name", String.class);
+
+        orderClass = new MetaClassImpl(model, "bench$Order");
+        ((MetaClassImpl) orderClass).setJavaClass(BenchOrder.class);
+        addDatatypeProperty(orderClass, "number", String.class);
+        addDatatypeProperty(orderClass, "price", BigDecimal.class);
+        addDatatypeProperty(orderClass, "quantity", Integer.class);
+
+        MetaPropertyImpl customer = new MetaPropertyImpl(orderClass, "customer");
+        ClassRange range = new ClassRange(customerClass);
+        range.setCardinality(Range.Cardinality.MANY_TO_ONE);
+        customer.setRange(range);
+        customer.setType(MetaProperty.Type.ASSOCIATION);
+        customer.setJavaType(BenchCustomer.class);
+        ((MetaClassImpl) orderClass).registerProperty(customer);
+    }
+
+    protected void addDatatypeProperty(MetaClass metaClass, String name, Class<?> javaType) {
+        MetaPropertyImpl property = new MetaPropertyImpl(metaClass, name);
+        property.setRange(new DatatypeRange(Stubs.stub(Datatype.class, ImmutableMap.of(
+                "getJavaClass", args -> javaType))));
+        property.setType(MetaProperty.Type.DATATYPE);
+        property.setJavaType(javaType);
+        ((MetaClassImpl) metaClass).registerProperty(property);
+    }
+
+    protected static DynamicColumn copy(DynamicColumn source) {
+        DynamicColumn copy = new DynamicColumn();
+        copy.setId(source.getId());
+        copy.setName(source.getName());
+        copy.setGroovyScript(source.getGroovyScript());
+        copy.setAsync(source.getAsync());
+        copy.setCompileStatic(source.getCompileStatic());
+        return copy;
+    }
+}
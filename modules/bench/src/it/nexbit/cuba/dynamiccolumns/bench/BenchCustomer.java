@@ -0,0 +1,17 @@
+package it.nexbit.cuba.dynamiccolumns.bench;
+
+import com.haulmont.cuba.core.entity.BaseUuidEntity;
+
+public class BenchCustomer extends BaseUuidEntity {
+    private static final long serialVersionUID = 1L;
+
+    protected String name;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
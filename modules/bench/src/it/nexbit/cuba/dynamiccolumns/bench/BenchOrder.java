@@ -0,0 +1,49 @@
+package it.nexbit.cuba.dynamiccolumns.bench;
+
+import com.haulmont.cuba.core.entity.BaseUuidEntity;
+
+import java.math.BigDecimal;
+
+public class BenchOrder extends BaseUuidEntity {
+    private static final long serialVersionUID = 1L;
+
+    protected String number;
+
+    protected BigDecimal price;
+
+    protected Integer quantity;
+
+    protected BenchCustomer customer;
+
+    public String getNumber() {
+        return number;
+    }
+
+    public void setNumber(String number) {
+        this.number = number;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public void setPrice(BigDecimal price) {
+        this.price = price;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+
+    public BenchCustomer getCustomer() {
+        return customer;
+    }
+
+    public void setCustomer(BenchCustomer customer) {
+        this.customer = customer;
+    }
+}
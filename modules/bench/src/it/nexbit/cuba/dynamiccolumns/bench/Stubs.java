@@ -0,0 +1,104 @@
+package it.nexbit.cuba.dynamiccolumns.bench;
+
+import com.haulmont.cuba.core.config.Config;
+import com.haulmont.cuba.core.config.Property;
+import com.haulmont.cuba.core.config.defaults.DefaultBoolean;
+import com.haulmont.cuba.core.config.defaults.DefaultInt;
+import com.haulmont.cuba.core.config.defaults.DefaultString;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Dynamic proxies standing in for the platform beans and components used by the benchmarks.
+ */
+public final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * Create a stub of an interface.
+     *
+     * @param type     the stubbed interface
+     * @param answers  the results of the stubbed methods, keyed by method name; the other
+     *                 methods return null, false or zero
+     * @return the stub
+     */
+    public static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        Object stub = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args != null ? args : new Object[0]);
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + " stub";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+        return type.cast(stub);
+    }
+
+    public static <T> T stub(Class<T> type) {
+        return stub(type, Collections.emptyMap());
+    }
+
+    /**
+     * Create a stub of a configuration interface, returning the declared default values.
+     *
+     * @param type       the configuration interface
+     * @param overrides  the values of the overridden properties, keyed by property name
+     * @return the stub
+     */
+    public static <T extends Config> T config(Class<T> type, Map<String, Object> overrides) {
+        Object stub = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Property property = method.getAnnotation(Property.class);
+            if (property == null) {
+                return defaultValue(method.getReturnType());
+            }
+            if (overrides.containsKey(property.value())) {
+                return overrides.get(property.value());
+            }
+            return configDefault(method);
+        });
+        return type.cast(stub);
+    }
+
+    private static Object configDefault(Method method) {
+        if (method.isAnnotationPresent(DefaultInt.class)) {
+            return method.getAnnotation(DefaultInt.class).value();
+        }
+        if (method.isAnnotationPresent(DefaultBoolean.class)) {
+            return method.getAnnotation(DefaultBoolean.class).value();
+        }
+        if (method.isAnnotationPresent(DefaultString.class)) {
+            return method.getAnnotation(DefaultString.class).value();
+        }
+        return defaultValue(method.getReturnType());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,96 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Scripting;
+import com.haulmont.cuba.gui.components.Table;
+import groovy.lang.Binding;
+import it.nexbit.cuba.dynamiccolumns.bench.BenchContext;
+import it.nexbit.cuba.dynamiccolumns.bench.BenchOrder;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a single dynamic column cell, for each way a script can be evaluated.
+ *
+ * <p>
+ * {@link #evaluate()} invalidates the row before generating the cell, so that the script is run
+ * every time; {@link #memoized()} measures the repaint of an unchanged row. {@link #baseline()}
+ * is the reference cost of evaluating the script through {@link Scripting#evaluateGroovy}, as done
+ * before the scripts were compiled once per column.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GenerateCellBenchmark {
+
+    /**
+     * groovy: dynamic Groovy, static: statically compiled Groovy, expression: compiled expression.
+     */
+    @Param({"groovy", "static", "expression"})
+    public String mode;
+
+    @Param({"{E}.price * {E}.quantity", "{E}.customer?.name ?: 'n/a'"})
+    public String script;
+
+    protected BenchContext context;
+
+    protected GroovyColumnGenerator generator;
+
+    protected BenchOrder row;
+
+    protected Scripting scripting;
+
+    @Setup
+    public void setup() {
+        context = new BenchContext();
+        List<BenchOrder> rows = context.createRows(1);
+        row = rows.get(0);
+        scripting = AppBeans.get(Scripting.NAME);
+        Table<BenchOrder> table = context.createTable(rows);
+
+        DynamicColumn column = new DynamicColumn();
+        column.setName("Bench");
+        column.setGroovyScript(script);
+        column.setCompileStatic("static".equals(mode));
+        generator = "expression".equals(mode)
+                ? new ExpressionColumnGenerator(column)
+                : new GroovyColumnGenerator(column);
+        generator.setupDynamicColumn(table);
+        if ("expression".equals(mode) && !((ExpressionColumnGenerator) generator).isCompiledExpression()) {
+            throw new IllegalStateException("Not a compiled expression: " + script);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object evaluate() {
+        generator.invalidate(row);
+        return generator.generateCell(row);
+    }
+
+    @Benchmark
+    public Object memoized() {
+        return generator.generateCell(row);
+    }
+
+    @Benchmark
+    public Object baseline() {
+        Binding binding = new Binding();
+        binding.setVariable(GroovyColumnGenerator.ENTITY_VARIABLE, (Entity) row);
+        Object result = scripting.evaluateGroovy(
+                script.replace("{E}", GroovyColumnGenerator.ENTITY_VARIABLE), binding);
+        return new Table.PlainTextCell(result == null ? "" : result.toString());
+    }
+}
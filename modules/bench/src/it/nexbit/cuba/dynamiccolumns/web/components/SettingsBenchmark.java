@@ -0,0 +1,52 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import it.nexbit.cuba.dynamiccolumns.bench.BenchContext;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and deserialization of the dynamic columns user setting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SettingsBenchmark {
+
+    @Param({"1", "20", "200"})
+    public int columnCount;
+
+    protected BenchContext context;
+
+    protected DynamicColumnsManagerImpl manager;
+
+    protected List<DynamicColumn> columns;
+
+    @Setup
+    public void setup() {
+        context = new BenchContext();
+        manager = new DynamicColumnsManagerImpl(context.createTable(context.createRows(1)));
+        columns = context.createColumns(columnCount);
+        manager.saveDynamicColumnsToUserSetting(columns);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void save() {
+        manager.saveDynamicColumnsToUserSetting(columns);
+    }
+
+    @Benchmark
+    public List<DynamicColumn> load() {
+        return manager.loadDynamicColumnsFromUserSetting();
+    }
+}
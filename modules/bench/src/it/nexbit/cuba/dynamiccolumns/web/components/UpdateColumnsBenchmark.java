@@ -0,0 +1,77 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.google.common.collect.ImmutableList;
+import it.nexbit.cuba.dynamiccolumns.bench.BenchContext;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Column churn on a table: each invocation of {@link #update()} applies a new set of dynamic
+ * columns where a part of the columns was changed, added or removed, as when the user edits the
+ * columns in the dialog.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpdateColumnsBenchmark {
+
+    @Param({"20"})
+    public int columnCount;
+
+    @Param({"0", "5"})
+    public int changedCount;
+
+    /**
+     * Number of table rows. The rows are precomputed only if they reach the batch threshold.
+     */
+    @Param({"20", "500"})
+    public int rowCount;
+
+    protected BenchContext context;
+
+    protected DynamicColumnsManagerImpl manager;
+
+    protected List<List<DynamicColumn>> versions = new ArrayList<>();
+
+    protected int next;
+
+    @Setup
+    public void setup() {
+        context = new BenchContext();
+        manager = new DynamicColumnsManagerImpl(context.createTable(context.createRows(rowCount)));
+
+        List<DynamicColumn> columns = context.createColumns(columnCount);
+        versions.add(columns);
+        List<DynamicColumn> changed = new ArrayList<>(columns.subList(changedCount, columnCount));
+        for (DynamicColumn column : columns.subList(0, changedCount)) {
+            DynamicColumn edited = new DynamicColumn();
+            edited.setId(column.getId());
+            edited.setName(column.getName());
+            edited.setGroovyScript(column.getGroovyScript() + " + 1");
+            changed.add(edited);
+        }
+        versions.add(changed);
+
+        manager.dynamicColumns = ImmutableList.copyOf(columns);
+        manager.updateTableDynamicColumns();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void update() {
+        next = (next + 1) % versions.size();
+        manager.dynamicColumns = ImmutableList.copyOf(versions.get(next));
+        manager.updateTableDynamicColumns();
+    }
+}
@@ -0,0 +1,57 @@
+package it.nexbit.cuba.dynamiccolumns.web.screens;
+
+import com.google.common.collect.ImmutableMap;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.MessageTools;
+import com.haulmont.cuba.core.global.MetadataTools;
+import com.haulmont.cuba.gui.components.autocomplete.AutoCompleteSupport;
+import com.haulmont.cuba.gui.components.autocomplete.Suggestion;
+import it.nexbit.cuba.dynamiccolumns.bench.BenchContext;
+import it.nexbit.cuba.dynamiccolumns.bench.Stubs;
+import it.nexbit.cuba.dynamiccolumns.web.components.DynamicColumnsManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Script editor suggestions, computed at each keystroke of the autocompletion.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SuggestionsBenchmark {
+
+    @Param({"{E}.", "{E}.customer."})
+    public String text;
+
+    protected BenchContext context;
+
+    protected DynamicColumnBrowse browse;
+
+    protected AutoCompleteSupport source;
+
+    @Setup
+    public void setup() {
+        context = new BenchContext();
+        browse = new DynamicColumnBrowse();
+        browse.metadataTools = AppBeans.get(MetadataTools.NAME);
+        browse.messageTools = AppBeans.get(MessageTools.NAME);
+        browse.dynamicColumnsManager = Stubs.stub(DynamicColumnsManager.class, ImmutableMap.of(
+                "getTarget", args -> context.createTable(context.createRows(1))));
+        source = Stubs.stub(AutoCompleteSupport.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Suggestion> getSuggestions() {
+        return browse.getSuggestions(source, text, text.length());
+    }
+}
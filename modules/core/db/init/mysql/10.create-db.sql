@@ -0,0 +1,32 @@
+-- begin NXDCOL_SHARED_DYNAMIC_COLUMN
+create table NXDCOL_SHARED_DYNAMIC_COLUMN (
+    ID varchar(32),
+    VERSION integer not null,
+    CREATE_TS datetime(3),
+    CREATED_BY varchar(50),
+    UPDATE_TS datetime(3),
+    UPDATED_BY varchar(50),
+    DELETE_TS datetime(3),
+    DELETED_BY varchar(50),
+    DELETE_TS_NN datetime(3) not null default '1000-01-01 00:00:00.000',
+    --
+    NAME varchar(255) not null,
+    DESCRIPTION varchar(1000),
+    ENTITY_NAME varchar(255),
+    GROOVY_SCRIPT longtext not null,
+    ASYNC boolean,
+    COMPILE_STATIC boolean,
+    --
+    primary key (ID)
+)^
+-- end NXDCOL_SHARED_DYNAMIC_COLUMN
+-- begin NXDCOL_SHARED_DYNAMIC_COLUMN
+create unique index IDX_NXDCOL_SHARED_DYNAMIC_COLUMN_UNIQ_NAME on NXDCOL_SHARED_DYNAMIC_COLUMN (NAME, DELETE_TS_NN)^
+-- end NXDCOL_SHARED_DYNAMIC_COLUMN
+-- begin NXDCOL_SHARED_DYNAMIC_COLUMN
+create trigger NXDCOL_SHARED_DYNAMIC_COLUMN_DELETE_TS_NN_TRIGGER before update on NXDCOL_SHARED_DYNAMIC_COLUMN
+for each row
+    if not(empty(new.DELETE_TS)) then
+        set new.DELETE_TS_NN = new.DELETE_TS;
+    end if^
+-- end NXDCOL_SHARED_DYNAMIC_COLUMN
@@ -0,0 +1,24 @@
+-- begin NXDCOL_SHARED_DYNAMIC_COLUMN
+create table NXDCOL_SHARED_DYNAMIC_COLUMN (
+    ID varchar(36),
+    VERSION integer not null,
+    CREATE_TS timestamp,
+    CREATED_BY varchar(50),
+    UPDATE_TS timestamp,
+    UPDATED_BY varchar(50),
+    DELETE_TS timestamp,
+    DELETED_BY varchar(50),
+    --
+    NAME varchar(255) not null,
+    DESCRIPTION varchar(1000),
+    ENTITY_NAME varchar(255),
+    GROOVY_SCRIPT longvarchar not null,
+    ASYNC boolean,
+    COMPILE_STATIC boolean,
+    --
+    primary key (ID)
+)^
+-- end NXDCOL_SHARED_DYNAMIC_COLUMN
+-- begin NXDCOL_SHARED_DYNAMIC_COLUMN
+create unique index IDX_NXDCOL_SHARED_DYNAMIC_COLUMN_UNIQ_NAME on NXDCOL_SHARED_DYNAMIC_COLUMN (NAME, DELETE_TS)^
+-- end NXDCOL_SHARED_DYNAMIC_COLUMN
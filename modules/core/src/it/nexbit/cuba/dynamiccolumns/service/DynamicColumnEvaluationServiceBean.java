@@ -0,0 +1,208 @@
+package it.nexbit.cuba.dynamiccolumns.service;
+
+import com.google.common.collect.Lists;
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.global.*;
+import com.haulmont.cuba.security.app.UserSettingService;
+import com.haulmont.cuba.security.entity.EntityOp;
+import com.haulmont.cuba.security.entity.PermissionType;
+import groovy.lang.Binding;
+import groovy.lang.Script;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.metrics.MetricsRegistry;
+import it.nexbit.cuba.dynamiccolumns.scripting.CompiledScriptCache;
+import it.nexbit.cuba.dynamiccolumns.scripting.ScriptPropertyPaths;
+import it.nexbit.cuba.dynamiccolumns.settings.DynamicColumnsSettingsFormat;
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+
+@Service(DynamicColumnEvaluationService.NAME)
+public class DynamicColumnEvaluationServiceBean implements DynamicColumnEvaluationService {
+
+    /**
+     * The maximum number of ids bound to a single query.
+     */
+    protected static final int MAX_IDS_PER_QUERY = 500;
+
+    @Inject
+    protected DataManager dataManager;
+
+    @Inject
+    protected Metadata metadata;
+
+    @Inject
+    protected MetadataTools metadataTools;
+
+    @Inject
+    protected ViewRepository viewRepository;
+
+    @Inject
+    protected Security security;
+
+    @Inject
+    protected CompiledScriptCache compiledScriptCache;
+
+    @Inject
+    protected MetricsRegistry metricsRegistry;
+
+    @Inject
+    protected UserSettingService userSettingService;
+
+    @Override
+    public Map<Object, Map<UUID, DynamicColumnResult>> evaluate(String entityName, Collection<?> entityIds,
+                                                                String settingName, Collection<UUID> columnIds) {
+        if (settingName == null || !settingName.startsWith(DynamicColumnsSettingsFormat.SETTING_PREFIX)) {
+            throw new IllegalArgumentException("Not a dynamic columns setting: " + settingName);
+        }
+        MetaClass metaClass = metadata.getClassNN(entityName);
+        if (!security.isEntityOpPermitted(metaClass, EntityOp.READ)) {
+            throw new AccessDeniedException(PermissionType.ENTITY_OP, EntityOp.READ, entityName);
+        }
+        Map<Object, Map<UUID, DynamicColumnResult>> results = new HashMap<>();
+        if (entityIds.isEmpty() || columnIds.isEmpty()) {
+            return results;
+        }
+        List<DynamicColumn> columns = loadColumns(settingName, columnIds);
+        if (columns.isEmpty()) {
+            return results;
+        }
+
+        Map<UUID, Class<? extends Script>> scriptClasses = new HashMap<>();
+        Map<UUID, DynamicColumnResult> compilationErrors = new HashMap<>();
+        for (DynamicColumn column : columns) {
+            try {
+                scriptClasses.put(column.getId(), getScriptClass(column, metaClass));
+            } catch (RuntimeException e) {
+                // CompilationFailedException
+                compilationErrors.put(column.getId(), DynamicColumnResult.error(e.getMessage()));
+            }
+        }
+
+        View view = createView(metaClass, columns);
+        String query = String.format("select e from %s e where e.%s in :ids",
+                entityName, metadataTools.getPrimaryKeyName(metaClass));
+        long start = System.nanoTime();
+        try {
+            for (List<?> ids : Lists.partition(new ArrayList<>(entityIds), MAX_IDS_PER_QUERY)) {
+                LoadContext<Entity> loadContext = new LoadContext<>(metaClass);
+                loadContext.setQueryString(query).setParameter("ids", ids);
+                loadContext.setView(view);
+                // secure: the rows are filtered by the constraints of the user, and the attributes
+                // the user cannot read are not loaded
+                for (Entity entity : dataManager.secure().loadList(loadContext)) {
+                    Map<UUID, DynamicColumnResult> row = new HashMap<>(compilationErrors);
+                    for (DynamicColumn column : columns) {
+                        if (scriptClasses.containsKey(column.getId())) {
+                            row.put(column.getId(),
+                                    evaluate(column, metaClass, entity, scriptClasses, compilationErrors));
+                        }
+                    }
+                    results.put(entity.getId(), row);
+                }
+            }
+        } finally {
+            metricsRegistry.timer("nxdcol.service.evaluation", "entity", entityName)
+                    .record(System.nanoTime() - start);
+        }
+        return results;
+    }
+
+    /**
+     * Read the definitions of the columns to evaluate from a setting of the current user, so that
+     * only the scripts the user saved, or the shared columns they reference, are run.
+     *
+     * @param settingName  the setting name
+     * @param columnIds    the ids of the columns to evaluate
+     * @return the columns found in the setting
+     */
+    protected List<DynamicColumn> loadColumns(String settingName, Collection<UUID> columnIds) {
+        String setting = userSettingService.loadSetting(ClientType.WEB, settingName);
+        if (StringUtils.isBlank(setting)) {
+            return Collections.emptyList();
+        }
+        Set<UUID> ids = new HashSet<>(columnIds);
+        List<DynamicColumn> columns = new ArrayList<>();
+        for (DynamicColumn column : new DynamicColumnsSettingsFormat().read(setting)) {
+            if (ids.contains(column.getId()) && StringUtils.isNotBlank(column.getGroovyScript())) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Create the view the rows are loaded with: the local attributes of the entity, and the
+     * property paths read by the scripts.
+     *
+     * @param metaClass  the meta class of the rows
+     * @param columns    the evaluated columns
+     * @return the view
+     */
+    protected View createView(MetaClass metaClass, Collection<DynamicColumn> columns) {
+        View view = View.copy(viewRepository.getView(metaClass, View.LOCAL));
+        for (DynamicColumn column : columns) {
+            for (String path : ScriptPropertyPaths.find(column.getGroovyScript())) {
+                List<MetaProperty> properties = ScriptPropertyPaths.resolve(metaClass, path);
+                ScriptPropertyPaths.extendView(view, properties, viewRepository);
+            }
+        }
+        return view;
+    }
+
+    protected Class<? extends Script> getScriptClass(DynamicColumn column, MetaClass metaClass) {
+        return compiledScriptCache.getScriptClass(column.getGroovyScript(),
+                Boolean.TRUE.equals(column.getCompileStatic()) ? metaClass.getJavaClass() : null);
+    }
+
+    /**
+     * Evaluate a column for a row. A script class loaded from disk that fails to link, because the
+     * classes it uses changed since it was compiled, is compiled again and replaced for the next
+     * rows.
+     */
+    protected DynamicColumnResult evaluate(DynamicColumn column, MetaClass metaClass, Entity entity,
+                                           Map<UUID, Class<? extends Script>> scriptClasses,
+                                           Map<UUID, DynamicColumnResult> compilationErrors) {
+        Class<? extends Script> scriptClass = scriptClasses.get(column.getId());
+        try {
+            return evaluate(scriptClass, entity);
+        } catch (LinkageError e) {
+            if (!compiledScriptCache.invalidateStale(scriptClass)) {
+                return DynamicColumnResult.error(e.toString());
+            }
+        }
+        try {
+            scriptClass = getScriptClass(column, metaClass);
+        } catch (RuntimeException e) {
+            scriptClasses.remove(column.getId());
+            compilationErrors.put(column.getId(), DynamicColumnResult.error(e.getMessage()));
+            return compilationErrors.get(column.getId());
+        }
+        scriptClasses.put(column.getId(), scriptClass);
+        try {
+            return evaluate(scriptClass, entity);
+        } catch (LinkageError e) {
+            return DynamicColumnResult.error(e.toString());
+        }
+    }
+
+    protected DynamicColumnResult evaluate(Class<? extends Script> scriptClass, Entity entity) {
+        Binding binding = new Binding();
+        binding.setVariable(CompiledScriptCache.ENTITY_VARIABLE, entity);
+        try {
+            return DynamicColumnResult.value(InvokerHelper.createScript(scriptClass, binding).run());
+        } catch (Exception e) {
+            // scripts may throw checked exceptions, like the TimeoutException of the cell budget
+            if (e instanceof TimeoutException) {
+                return DynamicColumnResult.timeout();
+            }
+            return DynamicColumnResult.error(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package it.nexbit.cuba.dynamiccolumns.service;
+
+import com.haulmont.cuba.core.global.DataManager;
+import com.haulmont.cuba.core.global.View;
+import com.haulmont.cuba.security.app.Authentication;
+import it.nexbit.cuba.dynamiccolumns.entity.SharedDynamicColumn;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.util.List;
+
+@Service(SharedColumnLibraryService.NAME)
+public class SharedColumnLibraryServiceBean implements SharedColumnLibraryService {
+
+    @Inject
+    protected DataManager dataManager;
+
+    @Inject
+    protected Authentication authentication;
+
+    @Override
+    public List<SharedDynamicColumn> loadColumns() {
+        return authentication.withSystemUser(() -> dataManager.load(SharedDynamicColumn.class)
+                .view(View.LOCAL)
+                .list());
+    }
+}
@@ -4,6 +4,8 @@
 import com.haulmont.cuba.core.config.Property;
 import com.haulmont.cuba.core.config.Source;
 import com.haulmont.cuba.core.config.SourceType;
+import com.haulmont.cuba.core.config.defaults.DefaultBoolean;
+import com.haulmont.cuba.core.config.defaults.DefaultInt;
 import com.haulmont.cuba.core.config.defaults.DefaultString;
 
 /**
@@ -14,4 +16,199 @@ public interface DynamicColumnsConfig extends Config {
     @Property("nxdcol.editActionShortcut")
     @DefaultString("CTRL-ALT-D")
     String getEditActionShortcut();
+
+    /**
+     * @return the maximum number of compiled scripts held by the application-wide script cache
+     */
+    @Property("nxdcol.scriptCache.maxSize")
+    @DefaultInt(1000)
+    int getScriptCacheMaxSize();
+
+    /**
+     * @return the number of seconds after which an unused compiled script is evicted from the cache
+     */
+    @Property("nxdcol.scriptCache.idleTtlSec")
+    @DefaultInt(3600)
+    int getScriptCacheIdleTtlSec();
+
+    /**
+     * @return the number of background threads evaluating the asynchronous dynamic columns
+     */
+    @Property("nxdcol.async.threads")
+    @DefaultInt(4)
+    int getAsyncThreads();
+
+    /**
+     * @return the maximum number of asynchronous evaluations queued by a single table
+     */
+    @Property("nxdcol.async.maxQueuedPerTable")
+    @DefaultInt(200)
+    int getAsyncMaxQueuedPerTable();
+
+    /**
+     * @return true to precompute the dynamic columns of all the rows when the table datasource is
+     * refreshed
+     */
+    @Property("nxdcol.batch.enabled")
+    @DefaultBoolean(true)
+    boolean getBatchEnabled();
+
+    /**
+     * @return the minimum number of rows for which the dynamic columns are precomputed in batch
+     */
+    @Property("nxdcol.batch.minRows")
+    @DefaultInt(50)
+    int getBatchMinRows();
+
+    /**
+     * @return the parallelism of the batch precomputation pool, or 0 to use all the available
+     * processors
+     */
+    @Property("nxdcol.batch.parallelism")
+    @DefaultInt(0)
+    int getBatchParallelism();
+
+    /**
+     * @return true to extend the view of the table datasource with the property paths read by
+     * the dynamic column scripts
+     */
+    @Property("nxdcol.extendView")
+    @DefaultBoolean(true)
+    boolean getExtendView();
+
+    /**
+     * @return true to load in batch the references read by the dynamic column scripts that were
+     * not fetched with the table rows
+     */
+    @Property("nxdcol.prefetchReferences")
+    @DefaultBoolean(true)
+    boolean getPrefetchReferences();
+
+    /**
+     * @return true to evaluate the simple dynamic column scripts (property paths, arithmetic,
+     * comparisons and conditionals) without Groovy
+     */
+    @Property("nxdcol.compiledExpressions")
+    @DefaultBoolean(true)
+    boolean getCompiledExpressions();
+
+    /**
+     * @return the time budget of a single cell evaluation in milliseconds, or 0 for no limit
+     */
+    @Property("nxdcol.cellBudgetMs")
+    @DefaultInt(2000)
+    int getCellBudgetMs();
+
+    /**
+     * @return the time budget of the cell evaluations of a table render in milliseconds, or 0 for
+     * no limit
+     */
+    @Property("nxdcol.renderBudgetMs")
+    @DefaultInt(10000)
+    int getRenderBudgetMs();
+
+    /**
+     * @return the length in seconds of the window over which the latency percentiles are computed
+     */
+    @Property("nxdcol.metrics.windowSec")
+    @DefaultInt(60)
+    int getMetricsWindowSec();
+
+    /**
+     * @return true to load the dynamic columns settings of a user when the user logs in, instead
+     * of when the first screen with dynamic columns is opened
+     */
+    @Property("nxdcol.settings.preloadOnLogin")
+    @DefaultBoolean(false)
+    boolean getSettingsPreloadOnLogin();
+
+    /**
+     * @return the delay in milliseconds after which the saved settings are written in background,
+     * or 0 to write them synchronously
+     */
+    @Property("nxdcol.settings.writeBehindDelayMs")
+    @DefaultInt(0)
+    int getSettingsWriteBehindDelayMs();
+
+    /**
+     * @return the number of retries of a failed settings write, in write-behind mode
+     */
+    @Property("nxdcol.settings.writeBehindRetries")
+    @DefaultInt(3)
+    int getSettingsWriteBehindRetries();
+
+    /**
+     * @return the interval in seconds after which the shared column library is reloaded, to pick
+     * up the definitions changed on other nodes
+     */
+    @Property("nxdcol.sharedColumns.refreshSec")
+    @DefaultInt(60)
+    int getSharedColumnsRefreshSec();
+
+    /**
+     * @return true to persist the compiled scripts to disk, so that they are loaded instead of
+     * recompiled after a restart
+     */
+    @Property("nxdcol.scriptCache.diskEnabled")
+    @DefaultBoolean(true)
+    boolean getScriptCacheDiskEnabled();
+
+    /**
+     * @return the directory of the compiled scripts persisted to disk, or null to use the
+     * {@code nxdcol/scripts} subdirectory of {@code cuba.tempDir}
+     */
+    @Property("nxdcol.scriptCache.dir")
+    String getScriptCacheDir();
+
+    /**
+     * @return true to compile the dynamic column scripts of a user in background when the user
+     * logs in, before the screens using them are opened
+     */
+    @Property("nxdcol.precompile.enabled")
+    @DefaultBoolean(true)
+    boolean getPrecompileEnabled();
+
+    /**
+     * @return the maximum number of users whose scripts are compiled at the same time
+     */
+    @Property("nxdcol.precompile.threads")
+    @DefaultInt(1)
+    int getPrecompileThreads();
+
+    /**
+     * @return true to evaluate the dynamic columns of persistent entities on the middleware, by
+     * the {@code nxdcol_DynamicColumnEvaluationService}
+     */
+    @Property("nxdcol.remoteEvaluation")
+    @DefaultBoolean(false)
+    boolean getRemoteEvaluation();
+
+    /**
+     * @return true to compute the compiled expressions translatable to JPQL by the database, in a
+     * single query for all the rows of a table
+     */
+    @Property("nxdcol.jpqlExpressions")
+    @DefaultBoolean(false)
+    boolean getJpqlExpressions();
+
+    /**
+     * @return true to sort the tables by the dynamic columns when their header is clicked
+     */
+    @Property("nxdcol.sortable")
+    @DefaultBoolean(true)
+    boolean getSortable();
+
+    /**
+     * @return the number of rows loaded and evaluated at a time by the table exports
+     */
+    @Property("nxdcol.export.pageSize")
+    @DefaultInt(1000)
+    int getExportPageSize();
+
+    /**
+     * @return the maximum duration of a table export, in seconds
+     */
+    @Property("nxdcol.export.timeoutSec")
+    @DefaultInt(3600)
+    int getExportTimeoutSec();
 }
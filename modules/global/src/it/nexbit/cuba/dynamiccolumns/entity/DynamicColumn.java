@@ -6,6 +6,8 @@
 import com.haulmont.cuba.core.entity.BaseUuidEntity;
 import com.haulmont.chile.core.annotations.NamePattern;
 
+import java.util.UUID;
+
 @NamePattern("%s|name")
 @MetaClass(name = "nxdcol$DynamicColumn")
 public class DynamicColumn extends BaseUuidEntity {
@@ -18,6 +20,32 @@ public class DynamicColumn extends BaseUuidEntity {
     @MetaProperty
     protected String groovyScript;
 
+    @MetaProperty
+    protected Boolean async = false;
+
+    @MetaProperty
+    protected Boolean compileStatic = false;
+
+    /**
+     * The id of the {@link SharedDynamicColumn} this column refers to, or null for a column
+     * defined by the user.
+     */
+    @MetaProperty
+    protected UUID sharedColumnId;
+
+    /**
+     * The aggregate shown in the table footer, or null for none.
+     */
+    @MetaProperty
+    protected String aggregation;
+
+    /**
+     * The type the values are converted to for the aggregation, or null to aggregate numbers
+     * (counting any value).
+     */
+    @MetaProperty
+    protected String resultType;
+
     public void setName(String name) {
         this.name = name;
     }
@@ -34,5 +62,45 @@ public String getGroovyScript() {
         return groovyScript;
     }
 
+    public void setAsync(Boolean async) {
+        this.async = async;
+    }
+
+    public Boolean getAsync() {
+        return async;
+    }
+
+    public void setCompileStatic(Boolean compileStatic) {
+        this.compileStatic = compileStatic;
+    }
+
+    public Boolean getCompileStatic() {
+        return compileStatic;
+    }
+
+    public void setSharedColumnId(UUID sharedColumnId) {
+        this.sharedColumnId = sharedColumnId;
+    }
+
+    public UUID getSharedColumnId() {
+        return sharedColumnId;
+    }
+
+    public void setAggregation(DynamicColumnAggregation aggregation) {
+        this.aggregation = aggregation == null ? null : aggregation.getId();
+    }
+
+    public DynamicColumnAggregation getAggregation() {
+        return aggregation == null ? null : DynamicColumnAggregation.fromId(aggregation);
+    }
+
+    public void setResultType(DynamicColumnResultType resultType) {
+        this.resultType = resultType == null ? null : resultType.getId();
+    }
+
+    public DynamicColumnResultType getResultType() {
+        return resultType == null ? null : DynamicColumnResultType.fromId(resultType);
+    }
+
 
 }
\ No newline at end of file
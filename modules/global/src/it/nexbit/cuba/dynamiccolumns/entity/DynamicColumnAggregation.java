@@ -0,0 +1,38 @@
+package it.nexbit.cuba.dynamiccolumns.entity;
+
+import com.haulmont.chile.core.datatypes.impl.EnumClass;
+
+import javax.annotation.Nullable;
+
+/**
+ * The aggregate of a dynamic column shown in the table footer.
+ */
+public enum DynamicColumnAggregation implements EnumClass<String> {
+
+    SUM("sum"),
+    AVG("avg"),
+    MIN("min"),
+    MAX("max"),
+    COUNT("count");
+
+    private String id;
+
+    DynamicColumnAggregation(String value) {
+        this.id = value;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Nullable
+    public static DynamicColumnAggregation fromId(String id) {
+        for (DynamicColumnAggregation at : DynamicColumnAggregation.values()) {
+            if (at.getId().equals(id)) {
+                return at;
+            }
+        }
+        return null;
+    }
+}
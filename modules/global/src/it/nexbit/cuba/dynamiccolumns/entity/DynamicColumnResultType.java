@@ -0,0 +1,36 @@
+package it.nexbit.cuba.dynamiccolumns.entity;
+
+import com.haulmont.chile.core.datatypes.impl.EnumClass;
+
+import javax.annotation.Nullable;
+
+/**
+ * The type of the values computed by a dynamic column script.
+ */
+public enum DynamicColumnResultType implements EnumClass<String> {
+
+    NUMBER("number"),
+    DATE("date"),
+    STRING("string");
+
+    private String id;
+
+    DynamicColumnResultType(String value) {
+        this.id = value;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Nullable
+    public static DynamicColumnResultType fromId(String id) {
+        for (DynamicColumnResultType at : DynamicColumnResultType.values()) {
+            if (at.getId().equals(id)) {
+                return at;
+            }
+        }
+        return null;
+    }
+}
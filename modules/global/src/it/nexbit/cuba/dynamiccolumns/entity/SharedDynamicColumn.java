@@ -0,0 +1,98 @@
+package it.nexbit.cuba.dynamiccolumns.entity;
+
+import com.haulmont.chile.core.annotations.NamePattern;
+import com.haulmont.cuba.core.entity.StandardEntity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+/**
+ * A dynamic column definition of the shared library, that users add to their tables by reference.
+ *
+ * <p>
+ * The {@link #getVersion() version} is incremented by each edit, and is used to invalidate the
+ * compilations of the previous script.
+ * </p>
+ */
+@NamePattern("%s|name")
+@Table(name = "NXDCOL_SHARED_DYNAMIC_COLUMN")
+@Entity(name = "nxdcol$SharedDynamicColumn")
+public class SharedDynamicColumn extends StandardEntity {
+    private static final long serialVersionUID = -3541622930488210413L;
+
+    @NotNull
+    @Column(name = "NAME", nullable = false)
+    protected String name;
+
+    @Column(name = "DESCRIPTION", length = 1000)
+    protected String description;
+
+    /**
+     * The name of the entity the script is written for, or null if the script can be used with
+     * any entity.
+     */
+    @Column(name = "ENTITY_NAME")
+    protected String entityName;
+
+    @NotNull
+    @Lob
+    @Column(name = "GROOVY_SCRIPT", nullable = false)
+    protected String groovyScript;
+
+    @Column(name = "ASYNC")
+    protected Boolean async = false;
+
+    @Column(name = "COMPILE_STATIC")
+    protected Boolean compileStatic = false;
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setEntityName(String entityName) {
+        this.entityName = entityName;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public void setGroovyScript(String groovyScript) {
+        this.groovyScript = groovyScript;
+    }
+
+    public String getGroovyScript() {
+        return groovyScript;
+    }
+
+    public void setAsync(Boolean async) {
+        this.async = async;
+    }
+
+    public Boolean getAsync() {
+        return async;
+    }
+
+    public void setCompileStatic(Boolean compileStatic) {
+        this.compileStatic = compileStatic;
+    }
+
+    public Boolean getCompileStatic() {
+        return compileStatic;
+    }
+}
@@ -0,0 +1,192 @@
+package it.nexbit.cuba.dynamiccolumns.expression;
+
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.cuba.core.entity.Entity;
+
+import java.util.List;
+
+/**
+ * A compiled dynamic column expression, evaluated without Groovy.
+ *
+ * <p>
+ * Expressions are trees of the node classes declared here, built by {@link ExpressionCompiler}.
+ * Evaluation follows the Groovy semantics of the supported operators, implemented by
+ * {@link Operators}.
+ * </p>
+ */
+public interface Expression {
+
+    /**
+     * Evaluate the expression for a row entity.
+     *
+     * @param entity  the row entity, referenced as {E} in the expression
+     * @return the expression value
+     */
+    Object evaluate(Entity entity);
+
+    /**
+     * A constant: number, string, boolean or null.
+     */
+    class Literal implements Expression {
+        protected final Object value;
+
+        public Literal(Object value) {
+            this.value = value;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object evaluate(Entity entity) {
+            return value;
+        }
+    }
+
+    /**
+     * A property path of the row entity, like {@code {E}.customer.name}, resolved against the
+     * entity meta class at compile time.
+     */
+    class PropertyPath implements Expression {
+        protected final List<MetaProperty> properties;
+        protected final boolean[] safe;
+        protected final String[] names;
+
+        /**
+         * @param properties  the resolved properties of the path
+         * @param safe        for each property, whether it is accessed with the safe navigation
+         *                    operator {@code ?.}
+         */
+        public PropertyPath(List<MetaProperty> properties, boolean[] safe) {
+            this.properties = properties;
+            this.safe = safe;
+            this.names = properties.stream().map(MetaProperty::getName).toArray(String[]::new);
+        }
+
+        public List<MetaProperty> getProperties() {
+            return properties;
+        }
+
+        @Override
+        public Object evaluate(Entity entity) {
+            Object current = entity;
+            for (int i = 0; i < names.length; i++) {
+                if (current == null) {
+                    if (safe[i]) {
+                        return null;
+                    }
+                    throw new NullPointerException("Cannot get property '" + names[i] + "' on null object");
+                }
+                current = ((Entity) current).getValue(names[i]);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * A unary operation: {@code -} or {@code !}.
+     */
+    class Unary implements Expression {
+        protected final String operator;
+        protected final Expression operand;
+
+        public Unary(String operator, Expression operand) {
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        public String getOperator() {
+            return operator;
+        }
+
+        public Expression getOperand() {
+            return operand;
+        }
+
+        @Override
+        public Object evaluate(Entity entity) {
+            Object value = operand.evaluate(entity);
+            return "!".equals(operator) ? !Operators.isTrue(value) : Operators.negate(value);
+        }
+    }
+
+    /**
+     * A binary operation: arithmetic, comparison or logical.
+     */
+    class Binary implements Expression {
+        protected final String operator;
+        protected final Expression left;
+        protected final Expression right;
+
+        public Binary(String operator, Expression left, Expression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        public String getOperator() {
+            return operator;
+        }
+
+        public Expression getLeft() {
+            return left;
+        }
+
+        public Expression getRight() {
+            return right;
+        }
+
+        @Override
+        public Object evaluate(Entity entity) {
+            switch (operator) {
+                case "&&":
+                    return Operators.isTrue(left.evaluate(entity)) && Operators.isTrue(right.evaluate(entity));
+                case "||":
+                    return Operators.isTrue(left.evaluate(entity)) || Operators.isTrue(right.evaluate(entity));
+                default:
+                    return Operators.apply(operator, left.evaluate(entity), right.evaluate(entity));
+            }
+        }
+    }
+
+    /**
+     * A conditional: {@code condition ? whenTrue : whenFalse}, or the Elvis operator
+     * {@code value ?: whenFalse} when the condition is null.
+     */
+    class Conditional implements Expression {
+        protected final Expression condition;
+        protected final Expression whenTrue;
+        protected final Expression whenFalse;
+
+        public Conditional(Expression condition, Expression whenTrue, Expression whenFalse) {
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        public Expression getCondition() {
+            return condition;
+        }
+
+        /**
+         * @return the value when the condition is true, or null for the Elvis operator
+         */
+        public Expression getWhenTrue() {
+            return whenTrue;
+        }
+
+        public Expression getWhenFalse() {
+            return whenFalse;
+        }
+
+        @Override
+        public Object evaluate(Entity entity) {
+            Object value = condition.evaluate(entity);
+            if (Operators.isTrue(value)) {
+                return whenTrue != null ? whenTrue.evaluate(entity) : value;
+            }
+            return whenFalse.evaluate(entity);
+        }
+    }
+}
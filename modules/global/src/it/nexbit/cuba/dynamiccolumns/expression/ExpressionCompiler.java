@@ -0,0 +1,411 @@
+package it.nexbit.cuba.dynamiccolumns.expression;
+
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.chile.core.model.Range;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles the simple dynamic column scripts into {@link Expression} trees, that are evaluated
+ * without Groovy.
+ *
+ * <p>
+ * The supported subset is a single expression made of:
+ * <ul>
+ *     <li>property paths of the row entity, like {@code {E}.customer.name} or
+ *     {@code {E}?.customer?.name}, where every segment is a meta property</li>
+ *     <li>number, single quoted string, boolean and null literals</li>
+ *     <li>arithmetic ({@code + - * / %}), string concatenation, comparisons
+ *     ({@code == != < <= > >=}), logical operators ({@code && || !}), conditionals
+ *     ({@code ? :}) and the Elvis operator ({@code ?:})</li>
+ * </ul>
+ * Operators are only supported for number and string operands (and for any operand, the logical
+ * ones and the comparisons with null), as declared by the property datatypes. Any other script,
+ * like one calling methods, declaring variables, using GStrings or applying operators to dates, is
+ * not compiled and has to be evaluated by Groovy.
+ * </p>
+ */
+public final class ExpressionCompiler {
+
+    private static final String ENTITY_PLACEHOLDER = "{E}";
+
+    private static final List<String> OPERATORS = Arrays.asList(
+            "?.", "?:", "==", "!=", "<=", ">=", "&&", "||",
+            "+", "-", "*", "/", "%", "<", ">", "!", "?", ":", "(", ")", ".");
+
+    private final MetaClass metaClass;
+    private final List<String> tokens;
+    private int position;
+
+    private ExpressionCompiler(MetaClass metaClass, List<String> tokens) {
+        this.metaClass = metaClass;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Compile a script, if it belongs to the supported subset.
+     *
+     * @param script     the script text, as entered by the user (with the {E} placeholder)
+     * @param metaClass  the meta class of the row entity
+     * @return the compiled expression, or null if the script is not supported
+     */
+    @Nullable
+    public static Expression compile(String script, MetaClass metaClass) {
+        if (script == null) {
+            return null;
+        }
+        try {
+            ExpressionCompiler compiler = new ExpressionCompiler(metaClass, tokenize(script.trim()));
+            Expression expression = compiler.parseExpression();
+            if (compiler.position != compiler.tokens.size()) {
+                return null;
+            }
+            checkType(expression);
+            return expression;
+        } catch (UnsupportedExpressionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check that the operators are only applied to the operand types whose Groovy semantics are
+     * implemented by {@link Operators}: numbers and strings, as declared by the datatypes of the
+     * properties. Scripts applying operators to other types, like the date arithmetic and
+     * comparisons, or the string multiplication of Groovy, are left to Groovy.
+     *
+     * @param expression  the parsed expression
+     * @return the static type of the expression
+     */
+    private static Type checkType(Expression expression) {
+        if (expression instanceof Expression.Literal) {
+            Object value = ((Expression.Literal) expression).getValue();
+            return value == null ? Type.NULL : Type.of(value.getClass());
+        }
+        if (expression instanceof Expression.PropertyPath) {
+            List<MetaProperty> properties = ((Expression.PropertyPath) expression).getProperties();
+            Range range = properties.get(properties.size() - 1).getRange();
+            return range.isDatatype() ? Type.of(range.asDatatype().getJavaClass()) : Type.OTHER;
+        }
+        if (expression instanceof Expression.Unary) {
+            Expression.Unary unary = (Expression.Unary) expression;
+            Type operand = checkType(unary.getOperand());
+            if ("!".equals(unary.getOperator())) {
+                return Type.BOOLEAN;
+            }
+            return require(operand == Type.NUMBER, Type.NUMBER);
+        }
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            Type left = checkType(binary.getLeft());
+            Type right = checkType(binary.getRight());
+            switch (binary.getOperator()) {
+                case "&&":
+                case "||":
+                    return Type.BOOLEAN;
+                case "+":
+                    if (left == Type.NUMBER && right == Type.NUMBER) {
+                        return Type.NUMBER;
+                    }
+                    // String.plus(Object), Number.plus(String) and null.plus(String)
+                    return require(left == Type.STRING && right != Type.OTHER
+                            || (left == Type.NUMBER || left == Type.NULL) && right == Type.STRING, Type.STRING);
+                case "-":
+                case "*":
+                case "/":
+                case "%":
+                    return require(left == Type.NUMBER && right == Type.NUMBER, Type.NUMBER);
+                case "==":
+                case "!=":
+                    return require(left != Type.OTHER && right != Type.OTHER
+                            || left == Type.NULL || right == Type.NULL, Type.BOOLEAN);
+                default:
+                    return require(left.isComparableTo(right), Type.BOOLEAN);
+            }
+        }
+        Expression.Conditional conditional = (Expression.Conditional) expression;
+        Type condition = checkType(conditional.getCondition());
+        Type whenTrue = conditional.getWhenTrue() != null ? checkType(conditional.getWhenTrue()) : condition;
+        return whenTrue.merge(checkType(conditional.getWhenFalse()));
+    }
+
+    private static Type require(boolean supported, Type type) {
+        if (!supported) {
+            throw new UnsupportedExpressionException();
+        }
+        return type;
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (text.startsWith(ENTITY_PLACEHOLDER, i)) {
+                tokens.add(ENTITY_PLACEHOLDER);
+                i += ENTITY_PLACEHOLDER.length();
+            } else if (c == '\'') {
+                StringBuilder value = new StringBuilder("'");
+                i++;
+                while (true) {
+                    if (i >= text.length()) {
+                        throw new UnsupportedExpressionException();
+                    }
+                    char ch = text.charAt(i++);
+                    if (ch == '\'') {
+                        break;
+                    }
+                    if (ch == '\\') {
+                        if (i >= text.length()) {
+                            throw new UnsupportedExpressionException();
+                        }
+                        char escaped = text.charAt(i++);
+                        switch (escaped) {
+                            case 'n': value.append('\n'); break;
+                            case 't': value.append('\t'); break;
+                            case '\\': value.append('\\'); break;
+                            case '\'': value.append('\''); break;
+                            case '"': value.append('"'); break;
+                            default: throw new UnsupportedExpressionException();
+                        }
+                    } else {
+                        value.append(ch);
+                    }
+                }
+                tokens.add(value.toString());
+            } else if (Character.isDigit(c)) {
+                int start = i;
+                while (i < text.length() && Character.isDigit(text.charAt(i))) {
+                    i++;
+                }
+                if (i + 1 < text.length() && text.charAt(i) == '.' && Character.isDigit(text.charAt(i + 1))) {
+                    i++;
+                    while (i < text.length() && Character.isDigit(text.charAt(i))) {
+                        i++;
+                    }
+                }
+                if (i < text.length() && Character.isLetter(text.charAt(i))) {
+                    // type suffixes and exponents are not supported
+                    throw new UnsupportedExpressionException();
+                }
+                tokens.add(text.substring(start, i));
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < text.length() && Character.isJavaIdentifierPart(text.charAt(i))) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i));
+            } else {
+                String operator = null;
+                for (String candidate : OPERATORS) {
+                    if (text.startsWith(candidate, i)) {
+                        operator = candidate;
+                        break;
+                    }
+                }
+                if (operator == null) {
+                    throw new UnsupportedExpressionException();
+                }
+                tokens.add(operator);
+                i += operator.length();
+            }
+        }
+        return tokens;
+    }
+
+    private Expression parseExpression() {
+        Expression condition = parseBinary(0);
+        if (accept("?:")) {
+            return new Expression.Conditional(condition, null, parseExpression());
+        }
+        if (accept("?")) {
+            Expression whenTrue = parseExpression();
+            expect(":");
+            return new Expression.Conditional(condition, whenTrue, parseExpression());
+        }
+        return condition;
+    }
+
+    private static final List<List<String>> PRECEDENCE = Arrays.asList(
+            Arrays.asList("||"),
+            Arrays.asList("&&"),
+            Arrays.asList("==", "!="),
+            Arrays.asList("<", "<=", ">", ">="),
+            Arrays.asList("+", "-"),
+            Arrays.asList("*", "/", "%"));
+
+    private Expression parseBinary(int level) {
+        if (level == PRECEDENCE.size()) {
+            return parseUnary();
+        }
+        Expression left = parseBinary(level + 1);
+        while (position < tokens.size() && PRECEDENCE.get(level).contains(peek())) {
+            String operator = tokens.get(position++);
+            left = new Expression.Binary(operator, left, parseBinary(level + 1));
+        }
+        return left;
+    }
+
+    private Expression parseUnary() {
+        if (accept("-")) {
+            return new Expression.Unary("-", parseUnary());
+        }
+        if (accept("!")) {
+            return new Expression.Unary("!", parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private Expression parsePrimary() {
+        String token = next();
+        if ("(".equals(token)) {
+            Expression expression = parseExpression();
+            expect(")");
+            return expression;
+        }
+        if (ENTITY_PLACEHOLDER.equals(token)) {
+            return parsePropertyPath();
+        }
+        if (token.startsWith("'")) {
+            return new Expression.Literal(token.substring(1));
+        }
+        if (Character.isDigit(token.charAt(0))) {
+            return new Expression.Literal(parseNumber(token));
+        }
+        switch (token) {
+            case "true":
+                return new Expression.Literal(Boolean.TRUE);
+            case "false":
+                return new Expression.Literal(Boolean.FALSE);
+            case "null":
+                return new Expression.Literal(null);
+            default:
+                throw new UnsupportedExpressionException();
+        }
+    }
+
+    private Expression parsePropertyPath() {
+        List<MetaProperty> properties = new ArrayList<>();
+        List<Boolean> safe = new ArrayList<>();
+        MetaClass current = metaClass;
+        while (".".equals(peek()) || "?.".equals(peek())) {
+            boolean safeNavigation = "?.".equals(next());
+            if (current == null) {
+                // property of a datatype value, or of a collection
+                throw new UnsupportedExpressionException();
+            }
+            MetaProperty property = current.getProperty(next());
+            if (property == null || "(".equals(peek())) {
+                throw new UnsupportedExpressionException();
+            }
+            properties.add(property);
+            safe.add(safeNavigation);
+            Range range = property.getRange();
+            current = range.isClass() && !range.getCardinality().isMany() ? range.asClass() : null;
+        }
+        if (properties.isEmpty()) {
+            throw new UnsupportedExpressionException();
+        }
+        boolean[] safeFlags = new boolean[safe.size()];
+        for (int i = 0; i < safeFlags.length; i++) {
+            safeFlags[i] = safe.get(i);
+        }
+        return new Expression.PropertyPath(properties, safeFlags);
+    }
+
+    /**
+     * Parses a number literal as Groovy does: integers as the smallest of Integer, Long and
+     * BigInteger, decimals as BigDecimal.
+     */
+    private static Number parseNumber(String token) {
+        if (token.contains(".")) {
+            return new BigDecimal(token);
+        }
+        BigInteger value = new BigInteger(token);
+        if (value.bitLength() < 32) {
+            return value.intValue();
+        }
+        if (value.bitLength() < 64) {
+            return value.longValue();
+        }
+        return value;
+    }
+
+    private String peek() {
+        return position < tokens.size() ? tokens.get(position) : null;
+    }
+
+    private String next() {
+        if (position >= tokens.size()) {
+            throw new UnsupportedExpressionException();
+        }
+        return tokens.get(position++);
+    }
+
+    private boolean accept(String token) {
+        if (token.equals(peek())) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw new UnsupportedExpressionException();
+        }
+    }
+
+    /**
+     * The static type of an expression.
+     */
+    private enum Type {
+        NUMBER, STRING, BOOLEAN, NULL, OTHER;
+
+        static Type of(Class<?> javaClass) {
+            if (Number.class.isAssignableFrom(javaClass)) {
+                return NUMBER;
+            }
+            if (javaClass == String.class) {
+                return STRING;
+            }
+            return javaClass == Boolean.class ? BOOLEAN : OTHER;
+        }
+
+        /**
+         * @return true if the relational operators compare the values of the two types as Groovy
+         * does: numbers with numbers, strings with strings, and null with both
+         */
+        boolean isComparableTo(Type other) {
+            if (this == NULL || other == NULL) {
+                return this != OTHER && this != BOOLEAN && other != OTHER && other != BOOLEAN;
+            }
+            return this == other && (this == NUMBER || this == STRING);
+        }
+
+        /**
+         * @return the type of a value that is of this type or of the other one
+         */
+        Type merge(Type other) {
+            if (this == other || other == NULL) {
+                return this;
+            }
+            return this == NULL ? other : OTHER;
+        }
+    }
+
+    private static class UnsupportedExpressionException extends RuntimeException {
+        private static final long serialVersionUID = 3517265071389357092L;
+
+        UnsupportedExpressionException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package it.nexbit.cuba.dynamiccolumns.expression;
+
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.chile.core.model.Range;
+import com.haulmont.cuba.core.global.MetadataTools;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates compiled {@link Expression}s into JPQL, so that the database computes them for a
+ * batch of rows in a single query:
+ * <pre>
+ * select e.id, e.price * e.quantity, concat(j0.name, ' (', j0.city, ')') from app_Order e left join e.customer j0 where e.id in :ids
+ * </pre>
+ *
+ * <p>
+ * The translated subset is made of the expressions whose JPQL value matches the Groovy one when
+ * it is not null: persistent property paths of string and integer or decimal types (navigated
+ * with left joins), string and number literals, {@code + - *} between numbers, {@code +} between
+ * strings, unary minus, and the Elvis operator. A null value may mean a different Groovy result,
+ * like a null pointer error or the concatenation with {@code "null"}: the callers have to evaluate
+ * such rows without the database.
+ * </p>
+ */
+public class JpqlTranslator {
+
+    public static final String ENTITY_ALIAS = "e";
+
+    /**
+     * The name of the selected id property, the expressions are named {@code c0, c1, ...}.
+     */
+    public static final String ID_PROPERTY = "rowId";
+
+    protected final MetaClass metaClass;
+
+    protected final MetadataTools metadataTools;
+
+    /**
+     * The aliases of the joined references, keyed by property path.
+     */
+    protected final Map<String, String> joins = new LinkedHashMap<>();
+
+    protected final List<String> selectItems = new ArrayList<>();
+
+    public JpqlTranslator(MetaClass metaClass, MetadataTools metadataTools) {
+        this.metaClass = metaClass;
+        this.metadataTools = metadataTools;
+    }
+
+    /**
+     * Check whether an expression can be translated into JPQL.
+     *
+     * @param expression     the compiled expression
+     * @param metaClass      the meta class of the row entity
+     * @param metadataTools  the metadata tools
+     * @return true if the expression is translatable
+     */
+    public static boolean isTranslatable(Expression expression, MetaClass metaClass, MetadataTools metadataTools) {
+        return new JpqlTranslator(metaClass, metadataTools).translate(expression) != null;
+    }
+
+    /**
+     * Add an expression to the select clause of the query.
+     *
+     * @param expression  the compiled expression
+     * @return the name of the selected property, or null if the expression is not translatable
+     */
+    @Nullable
+    public String add(Expression expression) {
+        String jpql = translate(expression);
+        if (jpql == null) {
+            return null;
+        }
+        selectItems.add(jpql);
+        return "c" + (selectItems.size() - 1);
+    }
+
+    /**
+     * Translate an expression, adding the joins it needs.
+     *
+     * @param expression  the compiled expression
+     * @return the JPQL expression, or null if the expression is not translatable
+     */
+    @Nullable
+    public String translate(Expression expression) {
+        Map<String, String> addedJoins = new LinkedHashMap<>();
+        Translation translation;
+        try {
+            translation = doTranslate(expression, addedJoins);
+        } catch (UnsupportedExpressionException e) {
+            return null;
+        }
+        joins.putAll(addedJoins);
+        return translation.jpql;
+    }
+
+    /**
+     * @return the names of the selected properties: {@link #ID_PROPERTY}, then the added expressions
+     */
+    public List<String> getProperties() {
+        List<String> properties = new ArrayList<>();
+        properties.add(ID_PROPERTY);
+        for (int i = 0; i < selectItems.size(); i++) {
+            properties.add("c" + i);
+        }
+        return properties;
+    }
+
+    /**
+     * @return the query selecting the id and the added expressions of the rows whose id is in the
+     * {@code ids} parameter
+     */
+    public String getQuery() {
+        StringBuilder query = new StringBuilder("select ")
+                .append(ENTITY_ALIAS).append('.').append(metadataTools.getPrimaryKeyName(metaClass));
+        for (String selectItem : selectItems) {
+            query.append(", ").append(selectItem);
+        }
+        query.append(" from ").append(metaClass.getName()).append(' ').append(ENTITY_ALIAS);
+        for (Map.Entry<String, String> join : joins.entrySet()) {
+            query.append(" left join ").append(join.getKey()).append(' ').append(join.getValue());
+        }
+        query.append(" where ").append(ENTITY_ALIAS).append('.').append(metadataTools.getPrimaryKeyName(metaClass))
+                .append(" in :ids");
+        return query.toString();
+    }
+
+    protected Translation doTranslate(Expression expression, Map<String, String> addedJoins) {
+        if (expression instanceof Expression.Literal) {
+            return translateLiteral(((Expression.Literal) expression).getValue());
+        }
+        if (expression instanceof Expression.PropertyPath) {
+            return translatePath(((Expression.PropertyPath) expression).getProperties(), addedJoins);
+        }
+        if (expression instanceof Expression.Unary) {
+            Expression.Unary unary = (Expression.Unary) expression;
+            Translation operand = doTranslate(unary.getOperand(), addedJoins);
+            if (!"-".equals(unary.getOperator()) || operand.type != Type.NUMBER) {
+                throw new UnsupportedExpressionException();
+            }
+            return new Translation("(-" + operand.jpql + ")", Type.NUMBER);
+        }
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            Translation left = doTranslate(binary.getLeft(), addedJoins);
+            Translation right = doTranslate(binary.getRight(), addedJoins);
+            if (left.type != right.type) {
+                throw new UnsupportedExpressionException();
+            }
+            switch (binary.getOperator()) {
+                case "+":
+                    return left.type == Type.STRING
+                            ? new Translation("concat(" + left.jpql + ", " + right.jpql + ")", Type.STRING)
+                            : new Translation("(" + left.jpql + " + " + right.jpql + ")", Type.NUMBER);
+                case "-":
+                case "*":
+                    // the Groovy division of integers is decimal, and the remainder follows Java
+                    if (left.type != Type.NUMBER) {
+                        throw new UnsupportedExpressionException();
+                    }
+                    return new Translation("(" + left.jpql + " " + binary.getOperator() + " " + right.jpql + ")",
+                            Type.NUMBER);
+                default:
+                    throw new UnsupportedExpressionException();
+            }
+        }
+        if (expression instanceof Expression.Conditional) {
+            Expression.Conditional conditional = (Expression.Conditional) expression;
+            if (conditional.getWhenTrue() != null) {
+                throw new UnsupportedExpressionException();
+            }
+            Translation value = doTranslate(conditional.getCondition(), addedJoins);
+            Translation whenFalse = doTranslate(conditional.getWhenFalse(), addedJoins);
+            if (value.type != whenFalse.type) {
+                throw new UnsupportedExpressionException();
+            }
+            // the empty string and zero are false for the Elvis operator
+            String falseValue = value.type == Type.STRING ? "''" : "0";
+            return new Translation("coalesce(nullif(" + value.jpql + ", " + falseValue + "), " + whenFalse.jpql + ")",
+                    value.type);
+        }
+        throw new UnsupportedExpressionException();
+    }
+
+    protected Translation translateLiteral(Object value) {
+        if (value instanceof String) {
+            return new Translation("'" + ((String) value).replace("'", "''") + "'", Type.STRING);
+        }
+        if (value instanceof Integer || value instanceof Long) {
+            return new Translation(value.toString(), Type.NUMBER);
+        }
+        if (value instanceof BigDecimal) {
+            return new Translation(((BigDecimal) value).toPlainString(), Type.NUMBER);
+        }
+        throw new UnsupportedExpressionException();
+    }
+
+    protected Translation translatePath(List<MetaProperty> properties, Map<String, String> addedJoins) {
+        String path = ENTITY_ALIAS;
+        for (int i = 0; i < properties.size(); i++) {
+            MetaProperty property = properties.get(i);
+            if (!metadataTools.isPersistent(property)) {
+                throw new UnsupportedExpressionException();
+            }
+            path = path + "." + property.getName();
+            Range range = property.getRange();
+            if (i == properties.size() - 1) {
+                if (!range.isDatatype()) {
+                    throw new UnsupportedExpressionException();
+                }
+                return new Translation(path, getType(range.asDatatype().getJavaClass()));
+            }
+            if (!range.isClass() || range.getCardinality().isMany()) {
+                throw new UnsupportedExpressionException();
+            }
+            if (!metadataTools.isEmbedded(property)) {
+                // a left join, as the path navigation would drop the rows with a null reference
+                String alias = joins.get(path);
+                if (alias == null) {
+                    alias = addedJoins.computeIfAbsent(path, key -> "j" + (joins.size() + addedJoins.size()));
+                }
+                path = alias;
+            }
+        }
+        throw new UnsupportedExpressionException();
+    }
+
+    protected Type getType(Class<?> javaClass) {
+        if (javaClass == String.class) {
+            return Type.STRING;
+        }
+        if (javaClass == Integer.class || javaClass == Long.class || javaClass == BigDecimal.class) {
+            return Type.NUMBER;
+        }
+        // dates, floating point numbers and booleans are rendered differently
+        throw new UnsupportedExpressionException();
+    }
+
+    protected enum Type {
+        STRING, NUMBER
+    }
+
+    protected static class Translation {
+        protected final String jpql;
+        protected final Type type;
+
+        protected Translation(String jpql, Type type) {
+            this.jpql = jpql;
+            this.type = type;
+        }
+    }
+
+    protected static class UnsupportedExpressionException extends RuntimeException {
+        private static final long serialVersionUID = -5206139834569315408L;
+
+        protected UnsupportedExpressionException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package it.nexbit.cuba.dynamiccolumns.expression;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The operators supported by compiled expressions, following the Groovy semantics for the
+ * common types: numbers are promoted as in Groovy (with {@code /} always producing a decimal for
+ * non floating point operands), {@code +} concatenates when one of the operands is a string,
+ * and conditions use the Groovy truth.
+ */
+public final class Operators {
+
+    private static final int DIVISION_EXTRA_PRECISION = 10;
+    private static final int DIVISION_MIN_SCALE = 10;
+
+    private Operators() {
+    }
+
+    /**
+     * Apply a binary operator, other than the logical ones.
+     */
+    public static Object apply(String operator, Object left, Object right) {
+        switch (operator) {
+            case "+":
+                if (left instanceof String || right instanceof String) {
+                    return String.valueOf(left) + right;
+                }
+                return arithmetic(operator, left, right);
+            case "-":
+            case "*":
+            case "/":
+            case "%":
+                return arithmetic(operator, left, right);
+            case "==":
+                return isEqual(left, right);
+            case "!=":
+                return !isEqual(left, right);
+            case "<":
+                return compare(operator, left, right) < 0;
+            case "<=":
+                return compare(operator, left, right) <= 0;
+            case ">":
+                return compare(operator, left, right) > 0;
+            case ">=":
+                return compare(operator, left, right) >= 0;
+            default:
+                throw new IllegalArgumentException("Unsupported operator " + operator);
+        }
+    }
+
+    /**
+     * @return the Groovy truth of a value
+     */
+    public static boolean isTrue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return value instanceof BigDecimal
+                    ? ((BigDecimal) value).signum() != 0
+                    : ((Number) value).doubleValue() != 0;
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() > 0;
+        }
+        if (value instanceof Collection) {
+            return !((Collection) value).isEmpty();
+        }
+        if (value instanceof Map) {
+            return !((Map) value).isEmpty();
+        }
+        return true;
+    }
+
+    public static Object negate(Object value) {
+        if (value instanceof Integer) {
+            return -(Integer) value;
+        }
+        if (value instanceof Long) {
+            return -(Long) value;
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).negate();
+        }
+        if (value instanceof BigInteger) {
+            return ((BigInteger) value).negate();
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return -((Number) value).doubleValue();
+        }
+        if (value instanceof Number) {
+            return -((Number) value).intValue();
+        }
+        throw unsupported("-", value, null);
+    }
+
+    private static Object arithmetic(String operator, Object left, Object right) {
+        if (!(left instanceof Number) || !(right instanceof Number)) {
+            throw unsupported(operator, left, right);
+        }
+        Number l = (Number) left;
+        Number r = (Number) right;
+        if (isFloatingPoint(l) || isFloatingPoint(r)) {
+            double a = l.doubleValue();
+            double b = r.doubleValue();
+            switch (operator) {
+                case "+": return a + b;
+                case "-": return a - b;
+                case "*": return a * b;
+                case "/": return a / b;
+                default: return a % b;
+            }
+        }
+        if (l instanceof BigDecimal || r instanceof BigDecimal || "/".equals(operator)) {
+            BigDecimal a = toBigDecimal(l);
+            BigDecimal b = toBigDecimal(r);
+            switch (operator) {
+                case "+": return a.add(b);
+                case "-": return a.subtract(b);
+                case "*": return a.multiply(b);
+                case "/": return divide(a, b);
+                default:
+                    if (l instanceof BigDecimal || r instanceof BigDecimal) {
+                        throw unsupported(operator, left, right);
+                    }
+                    return a.remainder(b);
+            }
+        }
+        if (l instanceof BigInteger || r instanceof BigInteger) {
+            BigInteger a = toBigInteger(l);
+            BigInteger b = toBigInteger(r);
+            switch (operator) {
+                case "+": return a.add(b);
+                case "-": return a.subtract(b);
+                case "*": return a.multiply(b);
+                default: return a.mod(b);
+            }
+        }
+        if (l instanceof Long || r instanceof Long) {
+            long a = l.longValue();
+            long b = r.longValue();
+            switch (operator) {
+                case "+": return a + b;
+                case "-": return a - b;
+                case "*": return a * b;
+                default: return a % b;
+            }
+        }
+        int a = l.intValue();
+        int b = r.intValue();
+        switch (operator) {
+            case "+": return a + b;
+            case "-": return a - b;
+            case "*": return a * b;
+            default: return a % b;
+        }
+    }
+
+    /**
+     * Divides as Groovy does: exactly when possible, otherwise with extra precision and a scale
+     * of at most {@value #DIVISION_MIN_SCALE} digits.
+     */
+    private static BigDecimal divide(BigDecimal a, BigDecimal b) {
+        try {
+            return a.divide(b);
+        } catch (ArithmeticException e) {
+            int precision = Math.max(a.precision(), b.precision()) + DIVISION_EXTRA_PRECISION;
+            BigDecimal result = a.divide(b, new MathContext(precision));
+            int scale = Math.max(Math.max(result.scale(), a.scale()), b.scale());
+            if (scale > DIVISION_MIN_SCALE) {
+                scale = DIVISION_MIN_SCALE;
+            }
+            return result.setScale(scale, RoundingMode.HALF_UP);
+        }
+    }
+
+    private static boolean isEqual(Object left, Object right) {
+        if (left == right) {
+            return true;
+        }
+        if (left == null || right == null) {
+            return false;
+        }
+        if (left instanceof Number && right instanceof Number) {
+            return compareNumbers((Number) left, (Number) right) == 0;
+        }
+        return left.equals(right);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(String operator, Object left, Object right) {
+        if (left == null || right == null) {
+            // null is lower than any value
+            return left == right ? 0 : (left == null ? -1 : 1);
+        }
+        if (left instanceof Number && right instanceof Number) {
+            return compareNumbers((Number) left, (Number) right);
+        }
+        if (left instanceof Comparable && left.getClass().isInstance(right)) {
+            return ((Comparable<Object>) left).compareTo(right);
+        }
+        throw unsupported(operator, left, right);
+    }
+
+    private static int compareNumbers(Number left, Number right) {
+        if (isFloatingPoint(left) || isFloatingPoint(right)) {
+            return Double.compare(left.doubleValue(), right.doubleValue());
+        }
+        return toBigDecimal(left).compareTo(toBigDecimal(right));
+    }
+
+    private static boolean isFloatingPoint(Number number) {
+        return number instanceof Double || number instanceof Float;
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    private static BigInteger toBigInteger(Number number) {
+        return number instanceof BigInteger ? (BigInteger) number : BigInteger.valueOf(number.longValue());
+    }
+
+    private static RuntimeException unsupported(String operator, Object left, Object right) {
+        return new IllegalArgumentException(String.format("Cannot apply operator %s to %s and %s",
+                operator, describe(left), describe(right)));
+    }
+
+    private static String describe(Object value) {
+        return value == null ? "null" : value.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,43 @@
+package it.nexbit.cuba.dynamiccolumns.library;
+
+import it.nexbit.cuba.dynamiccolumns.entity.SharedDynamicColumn;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Node-wide cache of the shared dynamic column definitions, referenced by id from the users'
+ * settings.
+ *
+ * <p>
+ * The library is reloaded after the interval configured by {@code nxdcol.sharedColumns.refreshSec},
+ * or when {@link #refresh()} is called. When a definition is changed or removed, the compilations
+ * of its previous script are removed from the {@link it.nexbit.cuba.dynamiccolumns.scripting.CompiledScriptCache}.
+ * </p>
+ */
+public interface SharedColumnLibrary {
+    String NAME = "nxdcol_SharedColumnLibrary";
+
+    /**
+     * Get a shared column definition.
+     *
+     * @param id  the id of the definition
+     * @return the definition, or null if it does not exist (anymore)
+     */
+    @Nullable
+    SharedDynamicColumn get(UUID id);
+
+    /**
+     * Get the shared column definitions usable with an entity.
+     *
+     * @param entityName  the entity name
+     * @return the definitions written for the entity, or for any entity, sorted by name
+     */
+    List<SharedDynamicColumn> getColumns(String entityName);
+
+    /**
+     * Reload the library, e.g. after a definition has been edited.
+     */
+    void refresh();
+}
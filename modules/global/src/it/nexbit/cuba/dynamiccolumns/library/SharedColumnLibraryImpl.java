@@ -0,0 +1,117 @@
+package it.nexbit.cuba.dynamiccolumns.library;
+
+import com.haulmont.cuba.core.global.Configuration;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
+import it.nexbit.cuba.dynamiccolumns.entity.SharedDynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.scripting.CompiledScriptCache;
+import it.nexbit.cuba.dynamiccolumns.service.SharedColumnLibraryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Component(SharedColumnLibrary.NAME)
+public class SharedColumnLibraryImpl implements SharedColumnLibrary {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedColumnLibraryImpl.class);
+
+    @Inject
+    protected SharedColumnLibraryService sharedColumnLibraryService;
+
+    @Inject
+    protected Configuration configuration;
+
+    @Inject
+    protected CompiledScriptCache compiledScriptCache;
+
+    /**
+     * The loaded definitions by id, replaced as a whole by each reload.
+     */
+    protected volatile Map<UUID, SharedDynamicColumn> columns;
+
+    protected volatile long loadedAt;
+
+    @Nullable
+    @Override
+    public SharedDynamicColumn get(UUID id) {
+        return getColumns().get(id);
+    }
+
+    @Override
+    public List<SharedDynamicColumn> getColumns(String entityName) {
+        return getColumns().values().stream()
+                .filter(column -> column.getEntityName() == null || column.getEntityName().equals(entityName))
+                .sorted(Comparator.comparing(SharedDynamicColumn::getName))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized void refresh() {
+        Map<UUID, SharedDynamicColumn> loaded;
+        try {
+            // loaded on the middleware with the system user, as the library is shared by all the users
+            loaded = sharedColumnLibraryService.loadColumns().stream()
+                    .collect(Collectors.toMap(SharedDynamicColumn::getId, column -> column));
+        } catch (RuntimeException e) {
+            log.warn("Unable to load the shared dynamic columns", e);
+            if (columns == null) {
+                columns = Collections.emptyMap();
+            }
+            // retry at the next refresh interval
+            loadedAt = System.currentTimeMillis();
+            return;
+        }
+        if (columns != null) {
+            invalidateChangedScripts(columns, loaded);
+        }
+        columns = Collections.unmodifiableMap(loaded);
+        loadedAt = System.currentTimeMillis();
+    }
+
+    protected Map<UUID, SharedDynamicColumn> getColumns() {
+        if (isStale()) {
+            synchronized (this) {
+                if (isStale()) {
+                    refresh();
+                }
+            }
+        }
+        return columns;
+    }
+
+    protected boolean isStale() {
+        if (columns == null) {
+            return true;
+        }
+        long refreshMs = configuration.getConfig(DynamicColumnsConfig.class).getSharedColumnsRefreshSec() * 1000L;
+        return refreshMs > 0 && System.currentTimeMillis() - loadedAt > refreshMs;
+    }
+
+    /**
+     * Remove from the script cache the compilations of the definitions changed or removed since
+     * the previous load, detected by their version.
+     *
+     * @param previous  the definitions of the previous load
+     * @param loaded    the definitions just loaded
+     */
+    protected void invalidateChangedScripts(Map<UUID, SharedDynamicColumn> previous,
+                                            Map<UUID, SharedDynamicColumn> loaded) {
+        Set<String> loadedScripts = loaded.values().stream()
+                .map(SharedDynamicColumn::getGroovyScript)
+                .collect(Collectors.toSet());
+        for (SharedDynamicColumn old : previous.values()) {
+            SharedDynamicColumn current = loaded.get(old.getId());
+            if (current != null && Objects.equals(current.getVersion(), old.getVersion())) {
+                continue;
+            }
+            // the same script may still be used by another definition
+            if (old.getGroovyScript() != null && !loadedScripts.contains(old.getGroovyScript())) {
+                compiledScriptCache.invalidate(old.getGroovyScript());
+            }
+        }
+    }
+}
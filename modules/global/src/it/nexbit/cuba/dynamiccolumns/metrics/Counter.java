@@ -0,0 +1,11 @@
+package it.nexbit.cuba.dynamiccolumns.metrics;
+
+/**
+ * A monotonically increasing count of events.
+ */
+public interface Counter extends Meter {
+
+    void increment();
+
+    long getCount();
+}
@@ -0,0 +1,166 @@
+package it.nexbit.cuba.dynamiccolumns.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Timer} recording the samples in a log-linear histogram.
+ *
+ * <p>
+ * Each power of two is split in {@value #SUB_BUCKETS} buckets, so percentiles are reported with a
+ * relative error below 25%, with a fixed memory footprint. Samples are kept for two windows of the
+ * given length: percentiles are computed over the current and the previous window.
+ * </p>
+ */
+public class HistogramTimer implements Timer {
+
+    protected static final int SUB_BUCKETS = 4;
+
+    protected static final int SUB_BUCKET_BITS = 2;
+
+    /**
+     * Samples below 2^MIN_EXPONENT nanoseconds (about 1 microsecond) share the first bucket.
+     */
+    protected static final int MIN_EXPONENT = 10;
+
+    protected static final int BUCKETS = (Long.SIZE - 1 - MIN_EXPONENT) * SUB_BUCKETS + 1;
+
+    protected final String name;
+
+    protected final Map<String, String> tags;
+
+    protected final long windowNanos;
+
+    protected final LongAdder count = new LongAdder();
+
+    protected final LongAdder totalTime = new LongAdder();
+
+    protected final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    protected volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+
+    protected volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+
+    protected volatile long windowStart = System.nanoTime();
+
+    public HistogramTimer(String name, Map<String, String> tags, long window, TimeUnit unit) {
+        this.name = name;
+        this.tags = tags;
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    @Override
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        count.increment();
+        totalTime.add(nanos);
+        max.accumulate(nanos);
+        rotate();
+        current.incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * Not atomic: samples recorded concurrently may be partially kept.
+     */
+    @Override
+    public synchronized void reset() {
+        count.reset();
+        totalTime.reset();
+        max.reset();
+        current = new AtomicLongArray(BUCKETS);
+        previous = new AtomicLongArray(BUCKETS);
+        windowStart = System.nanoTime();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getTotalTimeNanos() {
+        return totalTime.sum();
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    @Override
+    public long getPercentileNanos(double percentile) {
+        rotate();
+        AtomicLongArray currentBuckets = current;
+        AtomicLongArray previousBuckets = previous;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = currentBuckets.get(i) + previousBuckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 1) * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(upperBoundOf(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Start a new window if the current one has expired.
+     */
+    protected void rotate() {
+        long now = System.nanoTime();
+        if (now - windowStart < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            if (now - windowStart >= windowNanos) {
+                // after two windows without samples, the previous window is empty too
+                previous = now - windowStart < 2 * windowNanos ? current : new AtomicLongArray(BUCKETS);
+                current = new AtomicLongArray(BUCKETS);
+                windowStart = now;
+            }
+        }
+    }
+
+    protected static int bucketOf(long nanos) {
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        if (exponent < MIN_EXPONENT) {
+            return 0;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket + 1;
+    }
+
+    protected static long upperBoundOf(int bucket) {
+        if (bucket == 0) {
+            return 1L << MIN_EXPONENT;
+        }
+        int exponent = (bucket - 1) / SUB_BUCKETS + MIN_EXPONENT;
+        int subBucket = (bucket - 1) % SUB_BUCKETS;
+        long upperBound = (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+        return upperBound > 0 ? upperBound : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,24 @@
+package it.nexbit.cuba.dynamiccolumns.metrics;
+
+import java.util.Map;
+
+/**
+ * A named measurement, distinguished from the others with the same name by its tags.
+ */
+public interface Meter {
+
+    /**
+     * @return the meter name, e.g. {@code nxdcol.cell.evaluation}
+     */
+    String getName();
+
+    /**
+     * @return the tags of the meter, in the order they were given
+     */
+    Map<String, String> getTags();
+
+    /**
+     * Discard the recorded measurements, keeping the meter registered.
+     */
+    void reset();
+}
@@ -0,0 +1,55 @@
+package it.nexbit.cuba.dynamiccolumns.metrics;
+
+import java.util.Collection;
+
+/**
+ * The registry of the dynamic columns meters.
+ *
+ * <p>
+ * Meters are identified by name and tags, given as alternating keys and values, e.g.
+ * {@code timer("nxdcol.cell.evaluation", "screen", screenId, "column", columnName)}, and are
+ * created on first access. The default implementation keeps the meters in memory, and is exposed
+ * through JMX; to publish them to a monitoring system, override the {@value #NAME} bean with an
+ * implementation delegating to its client library (e.g. a Micrometer {@code MeterRegistry}).
+ * </p>
+ *
+ * <p>
+ * Meters are never removed, as their users keep references to them: tags must have a bounded set
+ * of values, like the screen and table ids, and not e.g. the ids of the user-defined columns.
+ * </p>
+ */
+public interface MetricsRegistry {
+    String NAME = "nxdcol_MetricsRegistry";
+
+    /**
+     * Get or create a timer.
+     *
+     * @param name  the meter name
+     * @param tags  the tags, as alternating keys and values
+     * @return the timer
+     *
+     * @throws IllegalArgumentException  an odd number of tag keys and values was given
+     */
+    Timer timer(String name, String... tags);
+
+    /**
+     * Get or create a counter.
+     *
+     * @param name  the meter name
+     * @param tags  the tags, as alternating keys and values
+     * @return the counter
+     *
+     * @throws IllegalArgumentException  an odd number of tag keys and values was given
+     */
+    Counter counter(String name, String... tags);
+
+    /**
+     * @return all the registered meters
+     */
+    Collection<Meter> getMeters();
+
+    /**
+     * Reset all the registered meters, see {@link Meter#reset()}.
+     */
+    void reset();
+}
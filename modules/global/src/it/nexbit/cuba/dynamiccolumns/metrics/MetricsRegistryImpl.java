@@ -0,0 +1,127 @@
+package it.nexbit.cuba.dynamiccolumns.metrics;
+
+import com.haulmont.cuba.core.global.Configuration;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory {@link MetricsRegistry}, whose timers are {@link HistogramTimer}s.
+ */
+@Component(MetricsRegistry.NAME)
+public class MetricsRegistryImpl implements MetricsRegistry {
+
+    @Inject
+    protected Configuration configuration;
+
+    protected Map<MeterId, Meter> meters = new ConcurrentHashMap<>();
+
+    @Override
+    public Timer timer(String name, String... tags) {
+        MeterId id = new MeterId(name, tags);
+        Meter meter = meters.computeIfAbsent(id, key -> new HistogramTimer(key.name, key.tags,
+                configuration.getConfig(DynamicColumnsConfig.class).getMetricsWindowSec(), TimeUnit.SECONDS));
+        return cast(meter, Timer.class, id);
+    }
+
+    @Override
+    public Counter counter(String name, String... tags) {
+        MeterId id = new MeterId(name, tags);
+        Meter meter = meters.computeIfAbsent(id, key -> new SimpleCounter(key.name, key.tags));
+        return cast(meter, Counter.class, id);
+    }
+
+    @Override
+    public Collection<Meter> getMeters() {
+        return new ArrayList<>(meters.values());
+    }
+
+    @Override
+    public void reset() {
+        meters.values().forEach(Meter::reset);
+    }
+
+    protected <T extends Meter> T cast(Meter meter, Class<T> meterClass, MeterId id) {
+        if (!meterClass.isInstance(meter)) {
+            throw new IllegalArgumentException(String.format("Meter %s%s is not a %s",
+                    id.name, id.tags, meterClass.getSimpleName()));
+        }
+        return meterClass.cast(meter);
+    }
+
+    protected static class MeterId {
+        protected final String name;
+        protected final Map<String, String> tags;
+
+        protected MeterId(String name, String... tags) {
+            if (tags.length % 2 != 0) {
+                throw new IllegalArgumentException("Tags must be given as alternating keys and values");
+            }
+            Map<String, String> tagMap = new LinkedHashMap<>();
+            for (int i = 0; i < tags.length; i += 2) {
+                tagMap.put(tags[i], Objects.toString(tags[i + 1], ""));
+            }
+            this.name = Objects.requireNonNull(name);
+            this.tags = Collections.unmodifiableMap(tagMap);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            MeterId meterId = (MeterId) o;
+            return name.equals(meterId.name) && tags.equals(meterId.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, tags);
+        }
+    }
+
+    protected static class SimpleCounter implements Counter {
+        protected final String name;
+        protected final Map<String, String> tags;
+        protected final LongAdder count = new LongAdder();
+
+        protected SimpleCounter(String name, Map<String, String> tags) {
+            this.name = name;
+            this.tags = tags;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Map<String, String> getTags() {
+            return tags;
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+        }
+
+        @Override
+        public void increment() {
+            count.increment();
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+    }
+}
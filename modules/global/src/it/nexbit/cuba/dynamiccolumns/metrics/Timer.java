@@ -0,0 +1,50 @@
+package it.nexbit.cuba.dynamiccolumns.metrics;
+
+import java.util.function.Supplier;
+
+/**
+ * The latency distribution of an operation.
+ *
+ * <p>
+ * Count, total and maximum time are cumulative; percentiles are computed over the recent
+ * samples only (see {@link MetricsRegistry}), so that they track the current behaviour.
+ * </p>
+ */
+public interface Timer extends Meter {
+
+    /**
+     * Record the duration of an operation.
+     *
+     * @param nanos  the duration in nanoseconds
+     */
+    void record(long nanos);
+
+    /**
+     * Run an operation and record its duration, also if it fails.
+     *
+     * @param operation  the timed operation
+     * @return the operation result
+     */
+    default <T> T record(Supplier<T> operation) {
+        long start = System.nanoTime();
+        try {
+            return operation.get();
+        } finally {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    long getCount();
+
+    long getTotalTimeNanos();
+
+    long getMaxNanos();
+
+    /**
+     * Get an approximation of a percentile of the recent samples.
+     *
+     * @param percentile  the percentile, between 0 and 1 (e.g. 0.95)
+     * @return the percentile in nanoseconds, or 0 if there are no recent samples
+     */
+    long getPercentileNanos(double percentile);
+}
@@ -0,0 +1,123 @@
+package it.nexbit.cuba.dynamiccolumns.scripting;
+
+import com.google.common.cache.CacheStats;
+import groovy.lang.Binding;
+import groovy.lang.Script;
+import org.codehaus.groovy.control.CompilationFailedException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Application-wide cache of compiled dynamic column scripts.
+ *
+ * <p>
+ * Scripts are keyed by their normalized text (see {@link #normalize(String)}), so the same
+ * script defined by many users is compiled only once per node. The cache is bounded both in
+ * size and in idle time, and the classes of evicted scripts are unloaded.
+ * </p>
+ */
+public interface CompiledScriptCache {
+    String NAME = "nxdcol_CompiledScriptCache";
+
+    /**
+     * The name of the script variable bound to the row entity, replacing the {E} placeholder.
+     */
+    String ENTITY_VARIABLE = "__entity__";
+
+    /**
+     * Get the compiled class of a dynamic column script, compiling it on cache miss.
+     *
+     * @param script  the script text, as entered by the user (with the {E} placeholder)
+     * @return the compiled script class
+     *
+     * @throws CompilationFailedException  the script could not be compiled
+     * @throws NullPointerException        script was null
+     */
+    Class<? extends Script> getScriptClass(String script);
+
+    /**
+     * Get the compiled class of a dynamic column script, compiling it on cache miss.
+     *
+     * <p>
+     * When an entity class is given, the script is statically compiled (as with
+     * {@code @CompileStatic}), with the {@link #ENTITY_VARIABLE} typed as the entity class, so
+     * that type errors are reported at compile time.
+     * </p>
+     *
+     * @param script       the script text, as entered by the user (with the {E} placeholder)
+     * @param entityClass  the row entity class for static compilation, or null for a dynamic script
+     * @return the compiled script class
+     *
+     * @throws CompilationFailedException  the script could not be compiled, or failed type checking
+     * @throws NullPointerException        script was null
+     */
+    Class<? extends Script> getScriptClass(String script, @Nullable Class<?> entityClass);
+
+    /**
+     * Create a new runnable instance of a dynamic column script.
+     *
+     * @param script   the script text, as entered by the user (with the {E} placeholder)
+     * @param binding  the variables to bind to the script instance
+     * @return a new script instance, ready to be run
+     *
+     * @throws CompilationFailedException  the script could not be compiled
+     */
+    Script createScript(String script, Binding binding);
+
+    /**
+     * Create a new runnable instance of a dynamic column script.
+     *
+     * @param script       the script text, as entered by the user (with the {E} placeholder)
+     * @param entityClass  the row entity class for static compilation, or null for a dynamic script
+     * @param binding      the variables to bind to the script instance
+     * @return a new script instance, ready to be run
+     *
+     * @throws CompilationFailedException  the script could not be compiled, or failed type checking
+     */
+    Script createScript(String script, @Nullable Class<?> entityClass, Binding binding);
+
+    /**
+     * Remove a script from the cache, in all its compiled variants, unloading its classes.
+     *
+     * @param script  the script text, as entered by the user
+     */
+    void invalidate(String script);
+
+    /**
+     * Remove all scripts from the cache, unloading their classes.
+     */
+    void invalidateAll();
+
+    /**
+     * Discard a script class loaded from disk that failed to link when run, e.g. with a
+     * {@link NoSuchMethodError}, because the classes it uses changed since it was compiled. The
+     * class is removed from the cache and from disk, so that the script is compiled again on the
+     * next request.
+     *
+     * @param scriptClass  a script class returned by this cache
+     * @return true if the class was loaded from disk and has been discarded, false if it was
+     * compiled by this node, and should not be compiled again
+     */
+    boolean invalidateStale(Class<? extends Script> scriptClass);
+
+    /**
+     * @return the number of compiled scripts currently held by the cache
+     */
+    long size();
+
+    /**
+     * @return the hit, miss and eviction counts of the cache since startup
+     */
+    CacheStats getStatistics();
+
+    /**
+     * Normalize a script text to be used as a cache key: the text is trimmed and the {E}
+     * placeholder is replaced by {@link #ENTITY_VARIABLE}.
+     *
+     * @param script  the script text, as entered by the user
+     * @return the normalized script text
+     */
+    static String normalize(String script) {
+        return script.trim().replace("{E}", ENTITY_VARIABLE);
+    }
+}
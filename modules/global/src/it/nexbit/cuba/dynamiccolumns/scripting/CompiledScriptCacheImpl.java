@@ -0,0 +1,392 @@
+package it.nexbit.cuba.dynamiccolumns.scripting;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.haulmont.cuba.core.global.Configuration;
+import com.haulmont.cuba.core.global.Scripting;
+import com.haulmont.cuba.core.sys.AppContext;
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.Script;
+import groovy.transform.CompileStatic;
+import groovy.transform.TimedInterrupt;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
+import it.nexbit.cuba.dynamiccolumns.metrics.MetricsRegistry;
+import it.nexbit.cuba.dynamiccolumns.scripting.ScriptBytecodeStore.ScriptBytecode;
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.PropertyExpression;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@Component(CompiledScriptCache.NAME)
+public class CompiledScriptCacheImpl implements CompiledScriptCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledScriptCacheImpl.class);
+
+    @Inject
+    protected Scripting scripting;
+
+    @Inject
+    protected Configuration configuration;
+
+    @Inject
+    protected MetricsRegistry metricsRegistry;
+
+    protected Cache<ScriptKey, CompiledScript> cache;
+
+    /**
+     * The compiled scripts persisted to disk, or null if disabled by configuration.
+     */
+    protected ScriptBytecodeStore bytecodeStore;
+
+    @PostConstruct
+    protected void init() {
+        DynamicColumnsConfig config = configuration.getConfig(DynamicColumnsConfig.class);
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(config.getScriptCacheMaxSize())
+                .expireAfterAccess(config.getScriptCacheIdleTtlSec(), TimeUnit.SECONDS)
+                .removalListener(this::onRemoval)
+                .recordStats()
+                .build();
+        if (config.getScriptCacheDiskEnabled()) {
+            bytecodeStore = createBytecodeStore(config);
+        }
+    }
+
+    protected ScriptBytecodeStore createBytecodeStore(DynamicColumnsConfig config) {
+        String dir = config.getScriptCacheDir();
+        if (StringUtils.isBlank(dir)) {
+            String tempDir = AppContext.getProperty("cuba.tempDir");
+            if (StringUtils.isBlank(tempDir)) {
+                return null;
+            }
+            dir = tempDir + "/nxdcol/scripts";
+        }
+        return new ScriptBytecodeStore(new File(dir));
+    }
+
+    @Override
+    public Class<? extends Script> getScriptClass(String script) {
+        return getScriptClass(script, null);
+    }
+
+    @Override
+    public Class<? extends Script> getScriptClass(String script, @Nullable Class<?> entityClass) {
+        // the budget is compiled into the script class, so a change applies to the next lookups
+        ScriptKey key = new ScriptKey(CompiledScriptCache.normalize(Objects.requireNonNull(script)),
+                entityClass != null ? entityClass.getName() : null,
+                configuration.getConfig(DynamicColumnsConfig.class).getCellBudgetMs());
+        try {
+            return cache.get(key, () -> compile(key, entityClass)).scriptClass;
+        } catch (UncheckedExecutionException e) {
+            // CompilationFailedException is a RuntimeException, rethrow it as is
+            throw (RuntimeException) e.getCause();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to compile dynamic column script", e.getCause());
+        }
+    }
+
+    @Override
+    public Script createScript(String script, Binding binding) {
+        return InvokerHelper.createScript(getScriptClass(script), binding);
+    }
+
+    @Override
+    public Script createScript(String script, @Nullable Class<?> entityClass, Binding binding) {
+        return InvokerHelper.createScript(getScriptClass(script, entityClass), binding);
+    }
+
+    @Override
+    public void invalidate(String script) {
+        String normalizedScript = CompiledScriptCache.normalize(script);
+        cache.invalidateAll(cache.asMap().keySet().stream()
+                .filter(key -> key.script.equals(normalizedScript))
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public boolean invalidateStale(Class<? extends Script> scriptClass) {
+        if (!(scriptClass.getClassLoader() instanceof ScriptClassLoader)) {
+            return false;
+        }
+        ScriptClassLoader classLoader = (ScriptClassLoader) scriptClass.getClassLoader();
+        if (classLoader.hash == null) {
+            return false;
+        }
+        log.warn("Discarding the compiled script {} loaded from disk, that does not link with the current classes",
+                classLoader.hash);
+        cache.invalidateAll(cache.asMap().entrySet().stream()
+                .filter(entry -> entry.getValue().scriptClass == scriptClass)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList()));
+        if (bytecodeStore != null) {
+            bytecodeStore.delete(classLoader.hash);
+        }
+        return true;
+    }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public CacheStats getStatistics() {
+        return cache.stats();
+    }
+
+    /**
+     * Compiles a normalized script, or loads its classes from disk if compiled before, with a
+     * dedicated class loader, so that the script class can be unloaded independently of the
+     * others when it is evicted.
+     *
+     * <p>
+     * A script compiled for an entity class is statically compiled, after prepending the
+     * declaration of the typed entity variable (on the same line, to keep error positions).
+     * </p>
+     */
+    protected CompiledScript compile(ScriptKey key, @Nullable Class<?> entityClass) {
+        CompilerConfiguration compilerConfiguration = createCompilerConfiguration(key.cellBudgetMs);
+        String text = key.script;
+        if (entityClass != null) {
+            compilerConfiguration.addCompilationCustomizers(new ASTTransformationCustomizer(CompileStatic.class));
+            String typeName = entityClass.getCanonicalName();
+            text = String.format("%s %s = (%s) binding.getVariable('%s'); %s",
+                    typeName, ENTITY_VARIABLE, typeName, ENTITY_VARIABLE, text);
+        }
+        String hash = hash(text, entityClass, key.cellBudgetMs);
+        String mode = entityClass != null ? "static" : "dynamic";
+
+        if (bytecodeStore != null) {
+            ScriptBytecode bytecode = bytecodeStore.load(hash);
+            if (bytecode != null) {
+                try {
+                    return define(bytecode, hash);
+                } catch (ClassNotFoundException | LinkageError | ClassCastException e) {
+                    log.warn("Ignoring the invalid compiled script {}: {}", hash, e.toString());
+                    bytecodeStore.delete(hash);
+                }
+            }
+        }
+
+        ScriptBytecode bytecode;
+        long start = System.nanoTime();
+        try (GroovyClassLoader classLoader = new GroovyClassLoader(scripting.getClassLoader(), compilerConfiguration)) {
+            CompilationUnit unit = new CompilationUnit(compilerConfiguration, null, classLoader);
+            // the script class is named after the source, so that its name is stable across restarts
+            String className = "DynamicColumnScript_" + hash;
+            unit.addSource(className + ".groovy", text);
+            unit.compile(Phases.CLASS_GENERATION);
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (Object generated : unit.getClasses()) {
+                GroovyClass groovyClass = (GroovyClass) generated;
+                classes.put(groovyClass.getName(), groovyClass.getBytes());
+            }
+            bytecode = new ScriptBytecode(className, classes);
+        } catch (IOException e) {
+            // thrown by closing the class loader only
+            throw new RuntimeException("Unable to compile dynamic column script", e);
+        } catch (RuntimeException e) {
+            metricsRegistry.counter("nxdcol.script.compileErrors", "mode", mode).increment();
+            throw e;
+        } finally {
+            metricsRegistry.timer("nxdcol.script.compile", "mode", mode).record(System.nanoTime() - start);
+        }
+
+        CompiledScript compiledScript;
+        try {
+            compiledScript = define(bytecode, null);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Unable to load dynamic column script", e);
+        }
+        if (bytecodeStore != null) {
+            bytecodeStore.save(hash, bytecode);
+        }
+        return compiledScript;
+    }
+
+    /**
+     * Define the classes of a script with a dedicated class loader.
+     *
+     * @param bytecode  the script classes
+     * @param hash      the key of the classes loaded from disk, or null if just compiled
+     * @return the compiled script
+     */
+    protected CompiledScript define(ScriptBytecode bytecode, @Nullable String hash) throws ClassNotFoundException {
+        ScriptClassLoader classLoader = new ScriptClassLoader(scripting.getClassLoader(), bytecode.getClasses(), hash);
+        Class<? extends Script> scriptClass =
+                Class.forName(bytecode.getMainClassName(), false, classLoader).asSubclass(Script.class);
+        return new CompiledScript(scriptClass, classLoader);
+    }
+
+    /**
+     * Computes the key of a script in the {@link ScriptBytecodeStore}: a hash of the script
+     * text and of everything affecting its compiled classes, including the Groovy version and, for
+     * a statically compiled script, the methods of the entity class.
+     */
+    protected String hash(String text, @Nullable Class<?> entityClass, int cellBudgetMs) {
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putString(ScriptBytecodeStore.getGroovyVersion(), StandardCharsets.UTF_8)
+                .putInt(cellBudgetMs)
+                .putString(StringUtils.defaultString(AppContext.getProperty("cuba.groovyEvaluatorImport")),
+                        StandardCharsets.UTF_8)
+                .putString(text, StandardCharsets.UTF_8);
+        if (entityClass != null) {
+            hasher.putString(entityClass.getName(), StandardCharsets.UTF_8);
+            Arrays.stream(entityClass.getMethods())
+                    .map(Method::toGenericString)
+                    .sorted()
+                    .forEach(method -> hasher.putString(method, StandardCharsets.UTF_8));
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Creates the compiler configuration, with the same default imports used by
+     * {@link Scripting#evaluateGroovy(String, Binding)}.
+     *
+     * <p>
+     * If a per-cell budget is configured, time checks are injected in loops, closures and methods
+     * with the {@link TimedInterrupt} transformation: a script running longer than the budget
+     * throws a {@link java.util.concurrent.TimeoutException}.
+     * </p>
+     *
+     * @param cellBudgetMs  the per-cell budget in milliseconds, 0 for no limit
+     */
+    protected CompilerConfiguration createCompilerConfiguration(int cellBudgetMs) {
+        CompilerConfiguration compilerConfiguration = new CompilerConfiguration();
+        if (cellBudgetMs > 0) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("value", (long) cellBudgetMs);
+            parameters.put("unit", new PropertyExpression(
+                    new ClassExpression(ClassHelper.make(TimeUnit.class)), "MILLISECONDS"));
+            compilerConfiguration.addCompilationCustomizers(
+                    new ASTTransformationCustomizer(parameters, TimedInterrupt.class));
+        }
+        String imports = AppContext.getProperty("cuba.groovyEvaluatorImport");
+        if (StringUtils.isNotBlank(imports)) {
+            ImportCustomizer importCustomizer = new ImportCustomizer();
+            for (String className : imports.split("[\\s,]+")) {
+                if (StringUtils.isNotBlank(className)) {
+                    importCustomizer.addImports(className);
+                }
+            }
+            compilerConfiguration.addCompilationCustomizers(importCustomizer);
+        }
+        return compilerConfiguration;
+    }
+
+    protected void onRemoval(RemovalNotification<ScriptKey, CompiledScript> notification) {
+        CompiledScript compiledScript = notification.getValue();
+        if (compiledScript == null) {
+            return;
+        }
+        log.debug("Unloading dynamic column script class {} ({})",
+                compiledScript.scriptClass.getName(), notification.getCause());
+        // drop the Groovy meta class registry entry, that would otherwise keep the class reachable
+        InvokerHelper.removeClass(compiledScript.scriptClass);
+    }
+
+    protected static class CompiledScript {
+        protected final Class<? extends Script> scriptClass;
+        protected final ClassLoader classLoader;
+
+        protected CompiledScript(Class<? extends Script> scriptClass, ClassLoader classLoader) {
+            this.scriptClass = scriptClass;
+            this.classLoader = classLoader;
+        }
+    }
+
+    /**
+     * The class loader of a single script, defining its classes from their bytes.
+     */
+    protected static class ScriptClassLoader extends ClassLoader {
+        protected final Map<String, byte[]> classes;
+
+        /**
+         * The key of the classes in the {@link ScriptBytecodeStore}, if loaded from disk.
+         */
+        protected final String hash;
+
+        protected ScriptClassLoader(ClassLoader parent, Map<String, byte[]> classes, @Nullable String hash) {
+            super(parent);
+            this.classes = classes;
+            this.hash = hash;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * The cache key: the normalized script text, the name of the entity class for statically
+     * compiled scripts, and the per-cell budget compiled into the script.
+     */
+    protected static class ScriptKey {
+        protected final String script;
+        protected final String entityClassName;
+        protected final int cellBudgetMs;
+
+        protected ScriptKey(String script, @Nullable String entityClassName, int cellBudgetMs) {
+            this.script = script;
+            this.entityClassName = entityClassName;
+            this.cellBudgetMs = cellBudgetMs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ScriptKey that = (ScriptKey) o;
+            return cellBudgetMs == that.cellBudgetMs && script.equals(that.script)
+                    && Objects.equals(entityClassName, that.entityClassName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(script, entityClassName, cellBudgetMs);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package it.nexbit.cuba.dynamiccolumns.scripting;
+
+import groovy.lang.GroovySystem;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Directory of compiled script classes, that survives restarts.
+ *
+ * <p>
+ * Each script is stored in a file named after its key, in a subdirectory named after the Groovy
+ * version and holding a marker file: the marked subdirectories of other versions are deleted when
+ * the store is created, while any other content of the base directory is left untouched. A file
+ * starts with a header repeating the key, and ends with a checksum of its content: a file whose
+ * header or checksum does not match is ignored and deleted.
+ * </p>
+ */
+public class ScriptBytecodeStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ScriptBytecodeStore.class);
+
+    protected static final int MAGIC = 0x4e584443;
+
+    protected static final int FORMAT_VERSION = 1;
+
+    /**
+     * The name of the file marking the directories created by the store.
+     */
+    protected static final String MARKER_FILE_NAME = ".nxdcol-scripts";
+
+    protected final File dir;
+
+    /**
+     * Create the store, deleting the scripts it saved when running with other Groovy versions.
+     *
+     * @param baseDir  the base directory of the store, created if it does not exist
+     */
+    public ScriptBytecodeStore(File baseDir) {
+        this.dir = new File(baseDir, getGroovyVersion());
+        File[] versionDirs = baseDir.listFiles(file -> file.isDirectory()
+                && new File(file, MARKER_FILE_NAME).isFile());
+        if (versionDirs != null) {
+            for (File versionDir : versionDirs) {
+                if (!versionDir.equals(dir)) {
+                    FileUtils.deleteQuietly(versionDir);
+                }
+            }
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            log.warn("Unable to create the compiled scripts directory {}", dir);
+            return;
+        }
+        File marker = new File(dir, MARKER_FILE_NAME);
+        try {
+            if (!marker.isFile() && !marker.createNewFile()) {
+                log.warn("Unable to create the compiled scripts marker file {}", marker);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to create the compiled scripts marker file {}", marker, e);
+        }
+    }
+
+    /**
+     * @return the Groovy version, that must be part of the script keys
+     */
+    public static String getGroovyVersion() {
+        return GroovySystem.getVersion();
+    }
+
+    /**
+     * Load the classes of a script.
+     *
+     * @param key  the script key, a hash of the script and of everything affecting its compilation
+     * @return the script classes, or null if not stored, or if the stored file is not valid
+     */
+    @Nullable
+    public ScriptBytecode load(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        CRC32 checksum = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), checksum))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                throw new IOException("Invalid header");
+            }
+            String mainClassName = in.readUTF();
+            int count = in.readInt();
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classes.put(name, bytes);
+            }
+            long expected = checksum.getValue();
+            if (in.readLong() != expected || !classes.containsKey(mainClassName)) {
+                throw new IOException("Checksum mismatch");
+            }
+            return new ScriptBytecode(mainClassName, classes);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring the invalid compiled script {}: {}", file, e.toString());
+            delete(key);
+            return null;
+        }
+    }
+
+    /**
+     * Store the classes of a script, replacing them atomically if already stored. Failures are
+     * logged, as the script can always be compiled again.
+     *
+     * @param key       the script key
+     * @param bytecode  the script classes
+     */
+    public void save(String key, ScriptBytecode bytecode) {
+        File file = getFile(key);
+        File tempFile = new File(dir, key + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            CRC32 checksum = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)), checksum))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                out.writeUTF(bytecode.getMainClassName());
+                out.writeInt(bytecode.getClasses().size());
+                for (Map.Entry<String, byte[]> entry : bytecode.getClasses().entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+                out.flush();
+                out.writeLong(checksum.getValue());
+            }
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to store the compiled script {}", file, e);
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * Delete the classes of a script.
+     *
+     * @param key  the script key
+     */
+    public void delete(String key) {
+        FileUtils.deleteQuietly(getFile(key));
+    }
+
+    protected File getFile(String key) {
+        return new File(dir, key + ".bin");
+    }
+
+    /**
+     * The classes generated by the compilation of a script: the script class, and the classes of
+     * its closures.
+     */
+    public static class ScriptBytecode {
+        protected final String mainClassName;
+        protected final Map<String, byte[]> classes;
+
+        public ScriptBytecode(String mainClassName, Map<String, byte[]> classes) {
+            this.mainClassName = mainClassName;
+            this.classes = classes;
+        }
+
+        public String getMainClassName() {
+            return mainClassName;
+        }
+
+        /**
+         * @return the class bytes by class name
+         */
+        public Map<String, byte[]> getClasses() {
+            return classes;
+        }
+    }
+}
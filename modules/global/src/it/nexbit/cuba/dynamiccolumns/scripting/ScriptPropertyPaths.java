@@ -0,0 +1,128 @@
+package it.nexbit.cuba.dynamiccolumns.scripting;
+
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.chile.core.model.Range;
+import com.haulmont.cuba.core.global.FetchMode;
+import com.haulmont.cuba.core.global.View;
+import com.haulmont.cuba.core.global.ViewProperty;
+import com.haulmont.cuba.core.global.ViewRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Static analysis of the property paths that a dynamic column script reads from the row entity.
+ */
+public final class ScriptPropertyPaths {
+
+    private static final Pattern ENTITY_PATH_PATTERN = Pattern.compile(
+            Pattern.quote(CompiledScriptCache.ENTITY_VARIABLE) + "((?:\\s*\\??\\.\\s*[A-Za-z_$][\\w$]*)+)");
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("[A-Za-z_$][\\w$]*");
+
+    private ScriptPropertyPaths() {
+    }
+
+    /**
+     * Find the dotted paths following the {E} placeholder in a script, like
+     * {@code customer.region.name} for {@code {E}.customer.region.name}. Safe navigation
+     * operators are supported. The paths are not validated against the entity model, and may
+     * end with method names.
+     *
+     * @param script  the script text, as entered by the user
+     * @return the distinct paths, in order of appearance
+     */
+    public static Set<String> find(String script) {
+        if (script == null) {
+            return Collections.emptySet();
+        }
+        Set<String> paths = new LinkedHashSet<>();
+        Matcher matcher = ENTITY_PATH_PATTERN.matcher(CompiledScriptCache.normalize(script));
+        while (matcher.find()) {
+            Matcher segments = SEGMENT_PATTERN.matcher(matcher.group(1));
+            StringBuilder path = new StringBuilder();
+            while (segments.find()) {
+                if (path.length() > 0) {
+                    path.append('.');
+                }
+                path.append(segments.group());
+            }
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    /**
+     * Resolve a dotted path against the entity model, by walking the meta properties from the
+     * given meta class. The walk stops at the first segment that is not a property, or that
+     * follows a non-reference property, so a path ending with method calls resolves to its
+     * longest property prefix.
+     *
+     * @param metaClass  the meta class of the row entity
+     * @param path       a dotted path, as returned by {@link #find(String)}
+     * @return the resolved properties, possibly empty
+     */
+    public static List<MetaProperty> resolve(MetaClass metaClass, String path) {
+        List<MetaProperty> properties = new ArrayList<>();
+        MetaClass current = metaClass;
+        for (String segment : path.split("\\.")) {
+            if (current == null) {
+                break;
+            }
+            MetaProperty property = current.getProperty(segment);
+            if (property == null) {
+                break;
+            }
+            properties.add(property);
+            Range range = property.getRange();
+            current = range.isClass() && !range.getCardinality().isMany() ? range.asClass() : null;
+        }
+        return properties;
+    }
+
+    /**
+     * Add a resolved property path to a view. The nested views that have to be extended are
+     * replaced with extended copies, so that shared views are never changed.
+     *
+     * @param view            the view to extend
+     * @param path            the properties of the path, as returned by {@link #resolve(MetaClass, String)}
+     * @param viewRepository  the repository of the minimal views of the added references
+     * @return true if the view was changed
+     */
+    public static boolean extendView(View view, List<MetaProperty> path, ViewRepository viewRepository) {
+        return !path.isEmpty() && extendView(view, path.iterator(), viewRepository);
+    }
+
+    private static boolean extendView(View view, Iterator<MetaProperty> path, ViewRepository viewRepository) {
+        MetaProperty property = path.next();
+        ViewProperty viewProperty = view.getProperty(property.getName());
+        if (!property.getRange().isClass()) {
+            if (viewProperty == null) {
+                view.addProperty(property.getName());
+                return true;
+            }
+            return false;
+        }
+
+        View nestedView = viewProperty != null ? viewProperty.getView() : null;
+        boolean changed = viewProperty == null || nestedView == null;
+        nestedView = nestedView != null
+                ? View.copy(nestedView)
+                : viewRepository.getView(property.getRange().asClass(), View.MINIMAL);
+        if (path.hasNext()) {
+            changed |= extendView(nestedView, path, viewRepository);
+        }
+        if (changed) {
+            view.addProperty(property.getName(), nestedView,
+                    viewProperty != null ? viewProperty.getFetchMode() : FetchMode.AUTO);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,40 @@
+package it.nexbit.cuba.dynamiccolumns.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Evaluates dynamic columns on the middleware, next to the persistence layer, so that only the
+ * rendered values are sent to the client instead of the entity graphs read by the scripts.
+ *
+ * <p>
+ * The scripts are never sent by the client: the columns are identified by id, and their
+ * definitions are read from the dynamic columns setting of the calling user, that references
+ * the shared columns of the library.
+ * </p>
+ */
+public interface DynamicColumnEvaluationService {
+    String NAME = "nxdcol_DynamicColumnEvaluationService";
+
+    /**
+     * Evaluate dynamic columns for a batch of rows, loaded by id with the security constraints and
+     * the attribute permissions of the current user. The rows are loaded with their local
+     * attributes and the property paths found in the scripts, as a table view extended by
+     * {@code nxdcol.extendView}; the scripts run on the middleware, against the loaded entities.
+     *
+     * @param entityName   the name of the row entity
+     * @param entityIds    the ids of the rows
+     * @param settingName  the name of the web client setting of the current user holding the
+     *                     columns of the table, starting with {@code nxdcol_}
+     * @param columnIds    the ids of the columns to evaluate
+     * @return the results by row id, then by column id. The rows not found, e.g. deleted, not yet
+     * committed or filtered by the constraints of the user, are missing, as are the columns not
+     * found in the setting
+     *
+     * @throws com.haulmont.cuba.core.global.AccessDeniedException  the user cannot read the entity
+     * @throws IllegalArgumentException  the setting is not a dynamic columns setting
+     */
+    Map<Object, Map<UUID, DynamicColumnResult>> evaluate(String entityName, Collection<?> entityIds,
+                                                         String settingName, Collection<UUID> columnIds);
+}
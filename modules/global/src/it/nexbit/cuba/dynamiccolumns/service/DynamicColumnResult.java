@@ -0,0 +1,54 @@
+package it.nexbit.cuba.dynamiccolumns.service;
+
+import java.io.Serializable;
+
+/**
+ * The result of a dynamic column evaluated by the {@link DynamicColumnEvaluationService}: the
+ * value as shown in the table cell, or the error message.
+ */
+public class DynamicColumnResult implements Serializable {
+    private static final long serialVersionUID = 2461826937645510913L;
+
+    protected final String text;
+    protected final String error;
+    protected final boolean timedOut;
+
+    protected DynamicColumnResult(String text, String error, boolean timedOut) {
+        this.text = text;
+        this.error = error;
+        this.timedOut = timedOut;
+    }
+
+    public static DynamicColumnResult value(Object value) {
+        return new DynamicColumnResult(value == null ? "" : value.toString(), null, false);
+    }
+
+    public static DynamicColumnResult error(String error) {
+        return new DynamicColumnResult(null, error, false);
+    }
+
+    public static DynamicColumnResult timeout() {
+        return new DynamicColumnResult(null, null, true);
+    }
+
+    /**
+     * @return the value as shown in the table cell, or null if the script failed
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the error message if the script failed, otherwise null
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return true if the evaluation was interrupted for exceeding the per-cell budget
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
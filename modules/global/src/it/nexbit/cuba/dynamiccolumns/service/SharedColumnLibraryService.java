@@ -0,0 +1,22 @@
+package it.nexbit.cuba.dynamiccolumns.service;
+
+import it.nexbit.cuba.dynamiccolumns.entity.SharedDynamicColumn;
+
+import java.util.List;
+
+/**
+ * Loads the shared dynamic column definitions for the node-wide
+ * {@link it.nexbit.cuba.dynamiccolumns.library.SharedColumnLibrary}, independently of the user
+ * whose request triggers the load.
+ */
+public interface SharedColumnLibraryService {
+    String NAME = "nxdcol_SharedColumnLibraryService";
+
+    /**
+     * Load all the shared definitions with the system user, so that the row-level constraints of
+     * the current user do not apply.
+     *
+     * @return the definitions, with their local attributes
+     */
+    List<SharedDynamicColumn> loadColumns();
+}
@@ -0,0 +1,312 @@
+package it.nexbit.cuba.dynamiccolumns.settings;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.haulmont.bali.util.Dom4j;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Metadata;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumnAggregation;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumnResultType;
+import it.nexbit.cuba.dynamiccolumns.entity.SharedDynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.library.SharedColumnLibrary;
+import org.apache.commons.lang3.StringUtils;
+import org.dom4j.Element;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The format of the dynamic columns user settings, shared by the web client, that loads and
+ * saves the columns of a table and precompiles the scripts of all the tables of a user, and by the
+ * middleware, that reads the columns it evaluates from the settings of the calling user.
+ *
+ * <p>
+ * Settings are written in a compact JSON format; the legacy XML format of the previous versions
+ * of the add-on is read too.
+ * </p>
+ */
+public class DynamicColumnsSettingsFormat {
+
+    /**
+     * The prefix of the names of the dynamic columns settings.
+     */
+    public static final String SETTING_PREFIX = "nxdcol_";
+
+    /**
+     * The version of the settings format written by {@link #write(Collection)}.
+     */
+    public static final int VERSION = 1;
+
+    protected Metadata metadata = AppBeans.get(Metadata.NAME);
+    protected SharedColumnLibrary sharedColumnLibrary = AppBeans.get(SharedColumnLibrary.NAME);
+
+    /**
+     * Parse a setting, in the current JSON format or in the legacy XML format.
+     *
+     * @param setting  the setting value
+     * @return the dynamic columns
+     *
+     * @throws IllegalStateException  the setting is not valid
+     */
+    public List<DynamicColumn> read(String setting) {
+        if (setting.trim().startsWith("<")) {
+            return readXmlSetting(setting);
+        }
+        return readJsonSetting(setting);
+    }
+
+    /**
+     * Read the version of the format a setting was written with.
+     *
+     * @param setting  the setting value
+     * @return the format version, 0 for the legacy XML format
+     *
+     * @throws IllegalStateException  the setting is not valid
+     */
+    public int readVersion(String setting) {
+        if (setting.trim().startsWith("<")) {
+            return 0;
+        }
+        try (JsonReader reader = new JsonReader(new StringReader(setting))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                // written first, so that the columns are not scanned
+                if ("v".equals(reader.nextName())) {
+                    return reader.nextInt();
+                }
+                reader.skipValue();
+            }
+            throw new IllegalStateException("Invalid settings detected: missing version");
+        } catch (IOException | RuntimeException e) {
+            throw e instanceof IllegalStateException
+                    ? (IllegalStateException) e
+                    : new IllegalStateException("Invalid settings detected", e);
+        }
+    }
+
+    /**
+     * Write the dynamic columns in the JSON format described in {@link #readJsonSetting(String)}.
+     *
+     * @param columns  the dynamic columns
+     * @return the setting value
+     */
+    public String write(Collection<DynamicColumn> columns) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("v").value(VERSION);
+            writer.name("columns").beginArray();
+            for (DynamicColumn dc : columns) {
+                writeDynamicColumn(writer, dc);
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+            throw new RuntimeException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Parse a setting in the JSON format, e.g.:
+     * <pre>
+     * {"v":1,"columns":[{"id":"...","n":"Total","s":"{E}.price * {E}.quantity","a":true,"cs":true}]}
+     * </pre>
+     * The {@code a} (asynchronous) and {@code cs} (static compilation) flags are written only when
+     * set, as the {@code ag} (aggregation) and {@code rt} (result type) ids. Unknown fields are
+     * skipped, so that settings written by newer versions can be read: {@code v} is the
+     * {@link #VERSION} of the format, see {@link #readVersion(String)}.
+     * <p>
+     * A column added from the shared library is stored as a reference, e.g.
+     * {@code {"id":"...","ref":"..."}}, and its definition is read from the
+     * {@link SharedColumnLibrary}; references to removed library entries are dropped.
+     * </p>
+     *
+     * @param setting  the setting value
+     * @return the dynamic columns
+     *
+     * @throws IllegalStateException  the setting is not valid
+     */
+    protected List<DynamicColumn> readJsonSetting(String setting) {
+        List<DynamicColumn> columns = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new StringReader(setting))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("columns".equals(reader.nextName())) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        DynamicColumn dc = readDynamicColumn(reader);
+                        if (dc != null) {
+                            columns.add(dc);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    // the "v" format version is checked by readVersion
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("Invalid settings detected", e);
+        }
+        return columns;
+    }
+
+    protected DynamicColumn readDynamicColumn(JsonReader reader) throws IOException {
+        DynamicColumn dc = (DynamicColumn) metadata.create("nxdcol$DynamicColumn");
+        String id = null;
+        String ref = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "id":
+                    id = reader.nextString();
+                    break;
+                case "ref":
+                    ref = reader.nextString();
+                    break;
+                case "n":
+                    dc.setName(reader.nextString());
+                    break;
+                case "s":
+                    dc.setGroovyScript(reader.nextString());
+                    break;
+                case "a":
+                    dc.setAsync(reader.nextBoolean());
+                    break;
+                case "cs":
+                    dc.setCompileStatic(reader.nextBoolean());
+                    break;
+                case "ag":
+                    dc.setAggregation(DynamicColumnAggregation.fromId(reader.nextString()));
+                    break;
+                case "rt":
+                    dc.setResultType(DynamicColumnResultType.fromId(reader.nextString()));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (StringUtils.isBlank(id)) {
+            return null;
+        }
+        dc.setId(UUID.fromString(id));
+        if (ref != null && !copySharedColumn(dc, UUID.fromString(ref))) {
+            return null;
+        }
+        return dc;
+    }
+
+    /**
+     * Copy the definition of a shared library column into a dynamic column.
+     *
+     * @param dynamicColumn   the dynamic column referencing the shared column
+     * @param sharedColumnId  the id of the shared column
+     * @return false if the shared column does not exist anymore
+     */
+    protected boolean copySharedColumn(DynamicColumn dynamicColumn, UUID sharedColumnId) {
+        SharedDynamicColumn sharedColumn = sharedColumnLibrary.get(sharedColumnId);
+        if (sharedColumn == null) {
+            return false;
+        }
+        dynamicColumn.setSharedColumnId(sharedColumnId);
+        dynamicColumn.setName(sharedColumn.getName());
+        dynamicColumn.setGroovyScript(sharedColumn.getGroovyScript());
+        dynamicColumn.setAsync(sharedColumn.getAsync());
+        dynamicColumn.setCompileStatic(sharedColumn.getCompileStatic());
+        return true;
+    }
+
+    /**
+     * Parse a setting in the legacy XML format, written by the previous versions of the add-on:
+     * {@code <nxdcol><columns><column id="..." name="..." groovyScript="..."/></columns></nxdcol>}.
+     *
+     * @param setting  the setting value
+     * @return the dynamic columns
+     */
+    protected List<DynamicColumn> readXmlSetting(String setting) {
+        Element root = Dom4j.readDocument(setting).getRootElement();
+        if (!root.getName().equals("nxdcol")) {
+            throw new IllegalStateException("Invalid settings detected");
+        }
+        Element columnsRoot = root.element("columns");
+        if (columnsRoot == null) {
+            return ImmutableList.of();
+        }
+
+        List<DynamicColumn> columns = new ArrayList<>();
+
+        for (Element e : columnsRoot.elements("column")) {
+            DynamicColumn dc = deserializeDynamicColumnElement(e);
+            if (dc != null) {
+                columns.add(dc);
+            }
+        }
+
+        return columns;
+    }
+
+    protected DynamicColumn deserializeDynamicColumnElement(Element element) {
+        if (StringUtils.isNotBlank(element.attributeValue("id"))) {
+            UUID uuid = UUID.fromString(element.attributeValue("id"));
+            String name = element.attributeValue("name");
+            String groovyScript = element.attributeValue("groovyScript");
+            boolean async = Boolean.parseBoolean(element.attributeValue("async"));
+            boolean compileStatic = Boolean.parseBoolean(element.attributeValue("compileStatic"));
+            DynamicColumn dc = (DynamicColumn) metadata.create("nxdcol$DynamicColumn");
+            dc.setId(uuid);
+            dc.setName(name);
+            dc.setGroovyScript(groovyScript);
+            dc.setAsync(async);
+            dc.setCompileStatic(compileStatic);
+            return dc;
+        }
+        return null;
+    }
+
+    protected void writeDynamicColumn(JsonWriter writer, DynamicColumn dynamicColumn) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(dynamicColumn.getId().toString());
+        // the aggregation is chosen by the user also for the shared columns
+        if (dynamicColumn.getAggregation() != null) {
+            writer.name("ag").value(dynamicColumn.getAggregation().getId());
+        }
+        if (dynamicColumn.getResultType() != null) {
+            writer.name("rt").value(dynamicColumn.getResultType().getId());
+        }
+        if (dynamicColumn.getSharedColumnId() != null) {
+            writer.name("ref").value(dynamicColumn.getSharedColumnId().toString());
+            writer.endObject();
+            return;
+        }
+        if (dynamicColumn.getName() != null) {
+            writer.name("n").value(dynamicColumn.getName());
+        }
+        if (dynamicColumn.getGroovyScript() != null) {
+            writer.name("s").value(dynamicColumn.getGroovyScript());
+        }
+        if (Boolean.TRUE.equals(dynamicColumn.getAsync())) {
+            writer.name("a").value(true);
+        }
+        if (Boolean.TRUE.equals(dynamicColumn.getCompileStatic())) {
+            writer.name("cs").value(true);
+        }
+        writer.endObject();
+    }
+}
@@ -0,0 +1,239 @@
+package it.nexbit.cuba.dynamiccolumns.expression;
+
+import com.haulmont.chile.core.datatypes.Datatype;
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.chile.core.model.Range;
+import com.haulmont.cuba.core.entity.Entity;
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the compiled expressions evaluate to the same values, of the same classes, as
+ * Groovy does, and that the scripts outside the supported subset are not compiled.
+ */
+public class ExpressionCompilerTest {
+
+    private MetaClass orderClass;
+
+    private Map<String, Object> row;
+
+    @Before
+    public void setUp() {
+        Map<String, MetaProperty> customerProperties = new HashMap<>();
+        addProperty(customerProperties, "name", datatypeRange(String.class));
+        MetaClass customerClass = metaClass("app_Customer", customerProperties);
+
+        Map<String, MetaProperty> orderProperties = new HashMap<>();
+        addProperty(orderProperties, "name", datatypeRange(String.class));
+        addProperty(orderProperties, "note", datatypeRange(String.class));
+        addProperty(orderProperties, "price", datatypeRange(BigDecimal.class));
+        addProperty(orderProperties, "quantity", datatypeRange(Integer.class));
+        addProperty(orderProperties, "amount", datatypeRange(Long.class));
+        addProperty(orderProperties, "ratio", datatypeRange(Double.class));
+        addProperty(orderProperties, "discount", datatypeRange(BigDecimal.class));
+        addProperty(orderProperties, "active", datatypeRange(Boolean.class));
+        addProperty(orderProperties, "createTs", datatypeRange(Date.class));
+        addProperty(orderProperties, "updateTs", datatypeRange(Date.class));
+        addProperty(orderProperties, "customer", classRange(customerClass));
+        addProperty(orderProperties, "supplier", classRange(customerClass));
+        orderClass = metaClass("app_Order", orderProperties);
+
+        Map<String, Object> customer = new HashMap<>();
+        customer.put("name", "Acme");
+
+        row = new HashMap<>();
+        row.put("name", "Order 1");
+        row.put("note", "");
+        row.put("price", new BigDecimal("2.50"));
+        row.put("quantity", 10);
+        row.put("amount", 5L);
+        row.put("ratio", 1.5d);
+        row.put("discount", null);
+        row.put("active", Boolean.TRUE);
+        row.put("createTs", new Date(0));
+        row.put("updateTs", new java.sql.Timestamp(1000));
+        row.put("customer", customer);
+        row.put("supplier", null);
+    }
+
+    @Test
+    public void arithmetic() {
+        assertParity("{E}.price * {E}.quantity");
+        assertParity("{E}.price * {E}.quantity - {E}.amount");
+        assertParity("{E}.quantity / 4");
+        assertParity("{E}.quantity / 3");
+        assertParity("{E}.price / 2");
+        assertParity("{E}.quantity % 3");
+        assertParity("{E}.amount + 1");
+        assertParity("{E}.ratio * 2");
+        assertParity("-{E}.price");
+        assertParity("({E}.quantity + 2) * 1.5");
+    }
+
+    @Test
+    public void concatenation() {
+        assertParity("{E}.name + ' (' + {E}.customer.name + ')'");
+        assertParity("{E}.quantity + ' pcs'");
+        assertParity("{E}.name + {E}.quantity");
+        assertParity("{E}.name + {E}.active");
+        assertParity("{E}.name + {E}.discount");
+    }
+
+    @Test
+    public void comparisonsAndConditions() {
+        assertParity("{E}.quantity > 2 ? 'many' : 'few'");
+        assertParity("{E}.quantity >= {E}.amount");
+        assertParity("{E}.quantity == 10.0");
+        assertParity("{E}.name < 'P'");
+        assertParity("{E}.discount == null");
+        assertParity("{E}.discount < 1");
+        assertParity("{E}.customer != null && {E}.active");
+        assertParity("!{E}.active || {E}.quantity < 3");
+        assertParity("{E}.note ?: 'none'");
+        assertParity("{E}.discount ?: 0");
+    }
+
+    @Test
+    public void safeNavigation() {
+        assertParity("{E}.customer?.name");
+        assertParity("{E}.supplier?.name");
+        assertParity("{E}.supplier?.name ?: {E}.customer.name");
+    }
+
+    @Test
+    public void operatorsOnOtherTypesAreLeftToGroovy() {
+        assertNotCompiled("{E}.createTs + 1");
+        assertNotCompiled("{E}.createTs < {E}.updateTs");
+        assertNotCompiled("{E}.createTs == {E}.updateTs");
+        assertNotCompiled("{E}.name * 2");
+        assertNotCompiled("{E}.name - 'x'");
+        assertNotCompiled("-{E}.name");
+        assertNotCompiled("{E}.active + 1");
+        assertNotCompiled("{E}.active < true");
+        assertNotCompiled("{E}.quantity + {E}.customer");
+        assertNotCompiled("{E}.name < 1");
+        assertNotCompiled("({E}.discount ?: 'none') * 2");
+    }
+
+    @Test
+    public void unsupportedSyntaxIsLeftToGroovy() {
+        assertNotCompiled("{E}.name.toUpperCase()");
+        assertNotCompiled("def x = {E}.quantity; x * 2");
+        assertNotCompiled("\"${{E}.name}\"");
+        assertNotCompiled("{E}.unknown + 1");
+    }
+
+    private void assertParity(String script) {
+        Expression expression = ExpressionCompiler.compile(script, orderClass);
+        assertNotNull("Not compiled: " + script, expression);
+        Binding binding = new Binding();
+        binding.setVariable("e", row);
+        Object expected = new GroovyShell(binding).evaluate(script.replace("{E}", "e"));
+        Object actual = expression.evaluate(entity(row));
+        assertEquals(script, expected, actual);
+        if (expected != null) {
+            assertEquals(script, expected.getClass(), actual.getClass());
+        }
+    }
+
+    private void assertNotCompiled(String script) {
+        assertNull("Compiled: " + script, ExpressionCompiler.compile(script, orderClass));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Entity entity(Map<String, Object> values) {
+        return stub(Entity.class, (proxy, method, args) -> {
+            if ("getValue".equals(method.getName())) {
+                Object value = values.get((String) args[0]);
+                return value instanceof Map ? entity((Map<String, Object>) value) : value;
+            }
+            return unsupported(method.getName());
+        });
+    }
+
+    private static MetaClass metaClass(String name, Map<String, MetaProperty> properties) {
+        return stub(MetaClass.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                case "toString":
+                    return name;
+                case "getProperty":
+                    return properties.get((String) args[0]);
+                default:
+                    return unsupported(method.getName());
+            }
+        });
+    }
+
+    private static void addProperty(Map<String, MetaProperty> properties, String name, Range range) {
+        properties.put(name, stub(MetaProperty.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                case "toString":
+                    return name;
+                case "getRange":
+                    return range;
+                default:
+                    return unsupported(method.getName());
+            }
+        }));
+    }
+
+    private static Range datatypeRange(Class<?> javaClass) {
+        Datatype datatype = stub(Datatype.class, (proxy, method, args) ->
+                "getJavaClass".equals(method.getName()) ? javaClass : unsupported(method.getName()));
+        return stub(Range.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isDatatype":
+                    return true;
+                case "isClass":
+                case "isEnum":
+                    return false;
+                case "asDatatype":
+                    return datatype;
+                case "getCardinality":
+                    return Range.Cardinality.NONE;
+                default:
+                    return unsupported(method.getName());
+            }
+        });
+    }
+
+    private static Range classRange(MetaClass metaClass) {
+        return stub(Range.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isDatatype":
+                case "isEnum":
+                    return false;
+                case "isClass":
+                    return true;
+                case "asClass":
+                    return metaClass;
+                case "getCardinality":
+                    return Range.Cardinality.MANY_TO_ONE;
+                default:
+                    return unsupported(method.getName());
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object unsupported(String method) {
+        throw new UnsupportedOperationException(method);
+    }
+}
@@ -0,0 +1,129 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.SecurityContext;
+import com.haulmont.cuba.gui.executors.BackgroundWorker;
+import com.haulmont.cuba.gui.executors.UIAccessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * The queue of the asynchronous cell evaluations of a single table.
+ *
+ * <p>
+ * Evaluations are run by the shared {@link DynamicColumnsExecutor}, with the security context of
+ * the user who submitted them, and their results are delivered under the UI access lock. The
+ * number of evaluations queued at the same time is bounded, to apply back-pressure on tables with
+ * many rows.
+ * </p>
+ *
+ * <p>
+ * Instances must be created in the UI thread.
+ * </p>
+ */
+public class AsyncEvaluationQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncEvaluationQueue.class);
+
+    protected DynamicColumnsExecutor executor = AppBeans.get(DynamicColumnsExecutor.NAME);
+
+    protected UIAccessor uiAccessor;
+
+    protected Semaphore permits;
+
+    protected Set<FutureTask<?>> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param maxQueued  the maximum number of evaluations queued at the same time
+     */
+    public AsyncEvaluationQueue(int maxQueued) {
+        BackgroundWorker backgroundWorker = AppBeans.get(BackgroundWorker.NAME);
+        this.uiAccessor = backgroundWorker.getUIAccessor();
+        this.permits = new Semaphore(maxQueued);
+    }
+
+    /**
+     * Queue an evaluation, if the queue is not full.
+     *
+     * @param evaluation  the evaluation, run in a background thread
+     * @param callback    the consumer of the evaluation result, invoked in the UI thread
+     * @param <T>         the type of the evaluation result
+     * @return true if the evaluation was queued, false if the queue is full and the caller should
+     * evaluate synchronously
+     */
+    public <T> boolean submit(Callable<T> evaluation, Consumer<T> callback) {
+        return submit(evaluation, callback, null);
+    }
+
+    /**
+     * Queue an evaluation, if the queue is not full.
+     *
+     * @param evaluation       the evaluation, run in a background thread
+     * @param callback         the consumer of the evaluation result, invoked in the UI thread
+     * @param failureCallback  the consumer of the evaluation error, invoked in the UI thread, or
+     *                         null to only log it
+     * @param <T>              the type of the evaluation result
+     * @return true if the evaluation was queued, false if the queue is full and the caller should
+     * evaluate synchronously
+     */
+    public <T> boolean submit(Callable<T> evaluation, Consumer<T> callback,
+                              @Nullable Consumer<Throwable> failureCallback) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        SecurityContext securityContext = AppContext.getSecurityContext();
+        FutureTask<T> task = new FutureTask<T>(evaluation) {
+            @Override
+            public void run() {
+                AppContext.withSecurityContext(securityContext, super::run);
+            }
+
+            @Override
+            protected void done() {
+                pending.remove(this);
+                permits.release();
+                if (!isCancelled()) {
+                    deliver(this, callback, failureCallback);
+                }
+            }
+        };
+        pending.add(task);
+        executor.execute(task);
+        return true;
+    }
+
+    protected <T> void deliver(FutureTask<T> task, Consumer<T> callback,
+                               @Nullable Consumer<Throwable> failureCallback) {
+        T result;
+        try {
+            result = task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            log.warn("Asynchronous dynamic column evaluation failed", e);
+            if (failureCallback != null) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                uiAccessor.access(() -> failureCallback.accept(cause));
+            }
+            return;
+        }
+        uiAccessor.access(() -> callback.accept(result));
+    }
+
+    /**
+     * Cancel all the queued and running evaluations, whose results will not be delivered.
+     */
+    public void cancelAll() {
+        for (FutureTask<?> task : pending) {
+            task.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.gui.data.aggregation.AggregationStrategy;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumnAggregation;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumnResultType;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * The footer aggregate of a dynamic column, maintained incrementally.
+ *
+ * <p>
+ * The table invokes the strategy with all its rows whenever they change: the rows are ignored,
+ * and the aggregate is only adjusted for the rows added, changed and removed since the previous
+ * invocation, as notified by {@link DynamicColumnsManagerImpl}. The values of the added and
+ * changed rows are read from the column generator, that memoizes them for rendering.
+ * </p>
+ *
+ * <p>
+ * Rows without a memoized result stay pending until the next invocation: the rows of asynchronous
+ * columns are evaluated in background, and the table is repainted when their results are ready;
+ * the rows not evaluated because the render budget was exceeded are evaluated by the next
+ * invocation.
+ * </p>
+ *
+ * <p>
+ * Values are converted to the result type of the column: values that cannot be converted, null
+ * values and evaluation errors are ignored, so that {@link DynamicColumnAggregation#COUNT} counts
+ * the rows with a value.
+ * </p>
+ *
+ * <p>
+ * Instances must be used in the UI thread.
+ * </p>
+ */
+public class ColumnAggregate implements AggregationStrategy<Object, Object> {
+
+    protected final GroovyColumnGenerator generator;
+
+    protected final DynamicColumnAggregation aggregation;
+
+    protected final DynamicColumnResultType resultType;
+
+    /**
+     * The values contributing to the aggregate, keyed by row id.
+     */
+    protected final Map<Object, Object> values = new HashMap<>();
+
+    /**
+     * The rows added or changed since the previous aggregation, keyed by id.
+     */
+    protected final Map<Object, Entity> pendingRows = new LinkedHashMap<>();
+
+    /**
+     * The number of occurrences of each value, for the minimum and the maximum.
+     */
+    protected final NavigableMap<Object, Integer> counts = new TreeMap<>();
+
+    protected BigDecimal sum = BigDecimal.ZERO;
+
+    /**
+     * @param generator    the generator of the column
+     * @param aggregation  the aggregation
+     * @param resultType   the type of the values, or null to aggregate numbers (counting any value)
+     */
+    public ColumnAggregate(GroovyColumnGenerator generator, DynamicColumnAggregation aggregation,
+                           @Nullable DynamicColumnResultType resultType) {
+        this.generator = generator;
+        this.aggregation = aggregation;
+        if (resultType != null) {
+            this.resultType = resultType;
+        } else {
+            this.resultType = aggregation == DynamicColumnAggregation.COUNT
+                    ? DynamicColumnResultType.STRING
+                    : DynamicColumnResultType.NUMBER;
+        }
+    }
+
+    /**
+     * @param row  the added row
+     */
+    public void add(Entity row) {
+        pendingRows.put(row.getId(), row);
+    }
+
+    /**
+     * @param row  the changed row
+     */
+    public void update(Entity row) {
+        removeValue(row.getId());
+        pendingRows.put(row.getId(), row);
+    }
+
+    /**
+     * @param row  the removed row
+     */
+    public void remove(Entity row) {
+        pendingRows.remove(row.getId());
+        removeValue(row.getId());
+    }
+
+    /**
+     * Remove all the rows.
+     */
+    public void clear() {
+        values.clear();
+        pendingRows.clear();
+        counts.clear();
+        sum = BigDecimal.ZERO;
+    }
+
+    @Override
+    public Object aggregate(Collection<Object> propertyValues) {
+        for (Iterator<Entity> iterator = pendingRows.values().iterator(); iterator.hasNext(); ) {
+            Entity row = iterator.next();
+            GroovyColumnGenerator.CellResult result = getFinalResult(row);
+            if (result == null) {
+                continue;
+            }
+            iterator.remove();
+            Object value = result.getError() == null ? convert(result.getValue()) : null;
+            if (value != null) {
+                addValue(row.getId(), value);
+            }
+        }
+        switch (aggregation) {
+            case SUM:
+                return sum;
+            case AVG:
+                return values.isEmpty() ? null : sum.divide(BigDecimal.valueOf(values.size()), MathContext.DECIMAL64);
+            case MIN:
+                return counts.isEmpty() ? null : counts.firstKey();
+            case MAX:
+                return counts.isEmpty() ? null : counts.lastKey();
+            default:
+                return (long) values.size();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Class<Object> getResultClass() {
+        switch (aggregation) {
+            case SUM:
+            case AVG:
+                return (Class) BigDecimal.class;
+            case COUNT:
+                return (Class) Long.class;
+            default:
+                return (Class) getValueClass();
+        }
+    }
+
+    /**
+     * Get the memoized result of a row, evaluating the rows of synchronous columns, and queueing
+     * those of asynchronous columns in background.
+     *
+     * @param row  the pending row
+     * @return the result, or null if not available yet
+     */
+    @Nullable
+    protected GroovyColumnGenerator.CellResult getFinalResult(Entity row) {
+        GroovyColumnGenerator.CellResult result = generator.getMemoizedResult(row);
+        if (result != null) {
+            return result;
+        }
+        if (generator.isAsync()) {
+            generator.evaluateInBackground(row);
+            return null;
+        }
+        generator.getResult(row);
+        // results not memoized, as those of the exceeded render budget, are not final
+        return generator.getMemoizedResult(row);
+    }
+
+    protected Class<?> getValueClass() {
+        switch (resultType) {
+            case NUMBER:
+                return BigDecimal.class;
+            case DATE:
+                return Date.class;
+            default:
+                return String.class;
+        }
+    }
+
+    protected void addValue(Object rowId, Object value) {
+        values.put(rowId, value);
+        if (value instanceof BigDecimal) {
+            sum = sum.add((BigDecimal) value);
+        }
+        counts.merge(value, 1, Integer::sum);
+    }
+
+    protected void removeValue(Object rowId) {
+        Object value = values.remove(rowId);
+        if (value == null) {
+            return;
+        }
+        if (value instanceof BigDecimal) {
+            sum = sum.subtract((BigDecimal) value);
+        }
+        counts.computeIfPresent(value, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Convert a value computed by the script to the result type.
+     *
+     * @param value  the computed value
+     * @return the converted value, or null if not convertible
+     */
+    @Nullable
+    protected Object convert(@Nullable Object value) {
+        if (value == null) {
+            return null;
+        }
+        switch (resultType) {
+            case NUMBER:
+                return toNumber(value);
+            case DATE:
+                return toDate(value);
+            default:
+                return value.toString();
+        }
+    }
+
+    @Nullable
+    protected BigDecimal toNumber(Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            return Double.isFinite(number) ? BigDecimal.valueOf(number) : null;
+        }
+        try {
+            // also the text of the values evaluated on the middleware
+            return new BigDecimal(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    protected Date toDate(Object value) {
+        if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        }
+        if (value instanceof LocalDate) {
+            return Date.from(((LocalDate) value).atStartOfDay(ZoneId.systemDefault()).toInstant());
+        }
+        if (value instanceof LocalDateTime) {
+            return Date.from(((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant());
+        }
+        if (value instanceof OffsetDateTime) {
+            return Date.from(((OffsetDateTime) value).toInstant());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,163 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.global.Configuration;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.SecurityContext;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Executors shared by all the tables to evaluate dynamic columns out of the UI thread:
+ * <ul>
+ *     <li>a thread pool for the columns configured for asynchronous evaluation. Its queue is not
+ *     bounded by itself: the number of evaluations queued by a single table is limited by its
+ *     {@link AsyncEvaluationQueue}</li>
+ *     <li>a fork-join pool to precompute the columns of all the rows of a table in parallel, and
+ *     to evaluate the rows of the table exports</li>
+ *     <li>a low priority thread pool to compile the scripts of the users logging in. Its queue is
+ *     bounded, further tasks are discarded as the scripts are compiled anyway when used</li>
+ * </ul>
+ */
+@Component(DynamicColumnsExecutor.NAME)
+public class DynamicColumnsExecutor {
+    public static final String NAME = "nxdcol_DynamicColumnsExecutor";
+
+    protected static final int PRECOMPILE_QUEUE_CAPACITY = 1000;
+
+    @Inject
+    protected Configuration configuration;
+
+    protected ThreadPoolExecutor executor;
+
+    protected ForkJoinPool batchPool;
+
+    protected ThreadPoolExecutor precompileExecutor;
+
+    @PostConstruct
+    protected void init() {
+        int threads = configuration.getConfig(DynamicColumnsConfig.class).getAsyncThreads();
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("nxdcol-async-%d")
+                        .setDaemon(true)
+                        .setPriority(Thread.NORM_PRIORITY - 1)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+
+        int parallelism = configuration.getConfig(DynamicColumnsConfig.class).getBatchParallelism();
+        batchPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+
+        int precompileThreads = Math.max(1, configuration.getConfig(DynamicColumnsConfig.class).getPrecompileThreads());
+        precompileExecutor = new ThreadPoolExecutor(precompileThreads, precompileThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(PRECOMPILE_QUEUE_CAPACITY),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("nxdcol-precompile-%d")
+                        .setDaemon(true)
+                        .setPriority(Thread.MIN_PRIORITY)
+                        .build(),
+                new ThreadPoolExecutor.DiscardPolicy());
+        precompileExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    protected void shutdown() {
+        executor.shutdownNow();
+        batchPool.shutdownNow();
+        precompileExecutor.shutdownNow();
+    }
+
+    /**
+     * Execute a task in background.
+     *
+     * @param task  the task to execute
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Execute a script compilation task in background, with low priority. The task is discarded
+     * if too many tasks are queued.
+     *
+     * @param task  the task to execute
+     */
+    public void precompile(Runnable task) {
+        precompileExecutor.execute(task);
+    }
+
+    /**
+     * Precompute the values of the given columns for all the given rows, splitting the rows
+     * across the fork-join pool. The calling thread waits until all the values are computed.
+     *
+     * @param rows        the table rows
+     * @param generators  the generators of the columns to compute
+     */
+    public void precompute(List<Entity> rows,
+                           List<DynamicColumnsManager.DynamicColumnGenerator> generators) {
+        forEachIndex(rows.size(), i -> {
+            Entity row = rows.get(i);
+            for (DynamicColumnsManager.DynamicColumnGenerator generator : generators) {
+                generator.precompute(row);
+            }
+        });
+    }
+
+    /**
+     * Run an action for each index from 0 to {@code count - 1}, splitting the indexes across the
+     * fork-join pool, with the security context of the calling thread. The calling thread waits
+     * until the action has run for all the indexes.
+     *
+     * @param count   the number of indexes
+     * @param action  the action, invoked concurrently for different indexes
+     */
+    public void forEachIndex(int count, IntConsumer action) {
+        batchPool.invoke(new BatchTask(0, count, action, AppContext.getSecurityContext()));
+    }
+
+    protected static class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = -1707052553409256154L;
+
+        protected static final int THRESHOLD = 32;
+
+        protected final int from;
+        protected final int to;
+        protected final IntConsumer action;
+        protected final SecurityContext securityContext;
+
+        protected BatchTask(int from, int to, IntConsumer action, SecurityContext securityContext) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+            this.securityContext = securityContext;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                AppContext.withSecurityContext(securityContext, () -> {
+                    for (int i = from; i < to; i++) {
+                        action.accept(i);
+                    }
+                });
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchTask(from, middle, action, securityContext),
+                        new BatchTask(middle, to, action, securityContext));
+            }
+        }
+    }
+}
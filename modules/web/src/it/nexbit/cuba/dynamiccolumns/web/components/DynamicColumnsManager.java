@@ -4,12 +4,14 @@
 import com.haulmont.cuba.core.global.AppBeans;
 import com.haulmont.cuba.gui.components.Frame;
 import com.haulmont.cuba.gui.components.Table;
+import com.haulmont.cuba.gui.export.ExportFormat;
 import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
 import it.nexbit.cuba.dynamiccolumns.web.components.actions.EditDynamicColumnsAction;
+import it.nexbit.cuba.dynamiccolumns.web.components.actions.ExportDynamicColumnsAction;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
+import javax.annotation.Nullable;
 import java.util.List;
+import java.util.UUID;
 
 public interface DynamicColumnsManager {
     String NAME = "nxdcol_DynamicColumnsManager";
@@ -18,30 +20,30 @@ static DynamicColumnsManager create(Table target) {
         return AppBeans.getPrototype(NAME, target);
     }
 
+    /**
+     * Add the {@link EditDynamicColumnsAction} and the dynamic columns to the tables of a screen
+     * annotated by {@link InjectDynamicColumnsAction}, including the ones declared by the screen
+     * superclasses, and the {@link ExportDynamicColumnsAction}s if requested by the annotation.
+     * The annotated fields are looked up once per screen class.
+     *
+     * @param frame  the screen
+     */
     static void inject(Frame frame) {
-        for (Field field : frame.getClass().getDeclaredFields()) {
-            Annotation[] annotations = field.getAnnotations();
-            for (Annotation annotation : annotations) {
-                if (annotation instanceof InjectDynamicColumnsAction) {
-                    Object fieldValue;
-                    try {
-                        field.setAccessible(true);
-                        fieldValue = field.get(frame);
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException("Cannot access the value of " + field.getName() +
-                                " field annotated by the @InjectDynamicColumnsAction attribute");
-                    }
-                    if (!(fieldValue instanceof Table)) {
-                        throw new RuntimeException("The @InjectDynamicColumnsAction annotation may only be applied to fields of type Table");
-                    }
-                    Table table = (Table) fieldValue;
-                    DynamicColumnsManager dcm = DynamicColumnsManager.create(table);
-                    EditDynamicColumnsAction action = EditDynamicColumnsAction.create(dcm);
-                    action.setCaptionDynamic(((InjectDynamicColumnsAction) annotation).dynamicCaption());
-                    table.addAction(action);
-                    dcm.updateTableDynamicColumns();
-                }
+        for (InjectedTableFields.InjectedTableField field : InjectedTableFields.get(frame.getClass())) {
+            Object fieldValue = field.getValue(frame);
+            if (!(fieldValue instanceof Table)) {
+                throw new RuntimeException("The @InjectDynamicColumnsAction annotation may only be applied to fields of type Table");
             }
+            Table table = (Table) fieldValue;
+            DynamicColumnsManager dcm = DynamicColumnsManager.create(table);
+            EditDynamicColumnsAction action = EditDynamicColumnsAction.create(dcm);
+            action.setCaptionDynamic(field.getAnnotation().dynamicCaption());
+            table.addAction(action);
+            if (field.getAnnotation().exportActions()) {
+                table.addAction(ExportDynamicColumnsAction.create(dcm, ExportFormat.XLSX));
+                table.addAction(ExportDynamicColumnsAction.create(dcm, ExportFormat.CSV));
+            }
+            dcm.updateTableDynamicColumns();
         }
     }
 
@@ -102,7 +104,54 @@ static void inject(Frame frame) {
      */
     void updateTableDynamicColumns();
 
+    /**
+     * Sort the rows of the target table by a dynamic column.
+     *
+     * @param columnId   the dynamic column id
+     * @param ascending  the sort direction
+     */
+    void sortByDynamicColumn(UUID columnId, boolean ascending);
+
+    /**
+     * Get the generator of a dynamic column added to the target table.
+     *
+     * @param columnId  the dynamic column id
+     * @return the column generator, or null if the column is not in the target table
+     */
+    @Nullable
+    DynamicColumnGenerator getColumnGenerator(UUID columnId);
+
     interface DynamicColumnGenerator extends Table.ColumnGenerator<Entity> {
         void setupDynamicColumn(Table table);
+
+        /**
+         * Release the resources held by the generator, after its column has been removed from the
+         * table or replaced by a new generator.
+         */
+        default void dispose() {
+        }
+
+        /**
+         * Compute the value of a row ahead of rendering, if the generator supports it. May be
+         * invoked concurrently from background threads, for different rows.
+         *
+         * @param entity  the row entity
+         */
+        default void precompute(Entity entity) {
+        }
+
+        /**
+         * Discard any value computed for a row, because the row entity has changed or was removed.
+         *
+         * @param entity  the row entity
+         */
+        default void invalidate(Entity entity) {
+        }
+
+        /**
+         * Discard all the values computed so far, because the table rows were reloaded.
+         */
+        default void invalidateAll() {
+        }
     }
 }
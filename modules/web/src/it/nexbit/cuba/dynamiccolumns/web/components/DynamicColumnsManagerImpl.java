@@ -1,20 +1,49 @@
 package it.nexbit.cuba.dynamiccolumns.web.components;
 
 import com.google.common.collect.ImmutableList;
-import com.haulmont.bali.util.Dom4j;
-import com.haulmont.cuba.core.entity.BaseUuidEntity;
+import com.google.common.collect.Lists;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.chile.core.model.MetaPropertyPath;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.KeyValueEntity;
 import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Configuration;
+import com.haulmont.cuba.core.global.DataManager;
+import com.haulmont.cuba.core.global.Messages;
 import com.haulmont.cuba.core.global.Metadata;
 import com.haulmont.cuba.core.global.MetadataTools;
+import com.haulmont.cuba.core.global.UserSessionSource;
+import com.haulmont.cuba.core.global.ValueLoadContext;
+import com.haulmont.cuba.core.global.ViewRepository;
+import com.haulmont.cuba.gui.ComponentsHelper;
+import com.haulmont.cuba.gui.components.AggregationInfo;
+import com.haulmont.cuba.gui.components.Frame;
 import com.haulmont.cuba.gui.components.Table;
-import com.haulmont.cuba.security.app.UserSettingService;
+import com.haulmont.cuba.gui.components.Window;
+import com.haulmont.cuba.gui.data.CollectionDatasource;
+import com.haulmont.cuba.gui.data.Datasource;
+import com.haulmont.cuba.gui.data.GroupDatasource;
+import com.haulmont.cuba.gui.data.HierarchicalDatasource;
+import com.haulmont.cuba.gui.data.impl.DatasourceImplementation;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
 import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumnAggregation;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumnResultType;
+import it.nexbit.cuba.dynamiccolumns.expression.Expression;
+import it.nexbit.cuba.dynamiccolumns.expression.JpqlTranslator;
+import it.nexbit.cuba.dynamiccolumns.metrics.MetricsRegistry;
+import it.nexbit.cuba.dynamiccolumns.metrics.Timer;
+import it.nexbit.cuba.dynamiccolumns.scripting.ScriptPropertyPaths;
+import it.nexbit.cuba.dynamiccolumns.service.DynamicColumnEvaluationService;
+import it.nexbit.cuba.dynamiccolumns.service.DynamicColumnResult;
+import it.nexbit.cuba.dynamiccolumns.settings.DynamicColumnsSettingsFormat;
 import org.apache.commons.lang3.StringUtils;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Nullable;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -22,17 +51,73 @@
 @Scope("prototype")
 public class DynamicColumnsManagerImpl implements DynamicColumnsManager {
 
+    private static final Logger log = LoggerFactory.getLogger(DynamicColumnsManagerImpl.class);
+
+    /**
+     * The maximum number of ids bound to a single query computing the columns in the database.
+     */
+    protected static final int MAX_IDS_PER_QUERY = 500;
+
     protected List<DynamicColumn> dynamicColumns;
 
-    protected List<DynamicColumn> previousDynamicColumns;
+    /**
+     * Snapshots of the columns currently added to the target table, keyed by column id, used to
+     * detect the columns changed by the next update.
+     */
+    protected Map<UUID, ColumnSnapshot> columnSnapshots = new HashMap<>();
 
     protected Table target;
 
     protected Map<UUID, DynamicColumnGenerator> columnGeneratorsStore;
 
-    protected UserSettingService settings = AppBeans.get(UserSettingService.NAME);
+    protected AsyncEvaluationQueue asyncEvaluationQueue;
+
+    protected RenderBudget renderBudget;
+
+    protected boolean datasourceListenersAdded;
+
+    /**
+     * Set while references are being attached to the rows, to ignore the resulting events.
+     */
+    protected boolean prefetching;
+
+    protected ReferencePrefetcher referencePrefetcher;
+
+    protected SortIndex sortIndex;
+
+    protected boolean sortListenerAdded;
+
+    /**
+     * Set while the rows are being reordered, to ignore the resulting events.
+     */
+    protected boolean reordering;
+
+    /**
+     * The dynamic column the table is sorted by, or null.
+     */
+    protected UUID sortColumnId;
+
+    protected boolean sortAscending;
+
+    /**
+     * The footer aggregates of the dynamic columns, keyed by column id.
+     */
+    protected Map<UUID, ColumnAggregate> aggregates = new HashMap<>();
+
+    /**
+     * Whether the target table was aggregatable before the first dynamic column aggregate, or null
+     * if no aggregate was added yet.
+     */
+    protected Boolean targetAggregatable;
+
+    protected DynamicColumnsSettings settings = AppBeans.get(DynamicColumnsSettings.NAME);
     protected Metadata metadata = AppBeans.get(Metadata.NAME);
     protected MetadataTools metadataTools = AppBeans.get(MetadataTools.NAME);
+    protected ViewRepository viewRepository = AppBeans.get(ViewRepository.NAME);
+    protected Configuration configuration = AppBeans.get(Configuration.NAME);
+    protected DynamicColumnsExecutor executor = AppBeans.get(DynamicColumnsExecutor.NAME);
+    protected MetricsRegistry metricsRegistry = AppBeans.get(MetricsRegistry.NAME);
+    protected DynamicColumnsSettingsFormat settingsFormat = new DynamicColumnsSettingsFormat();
 
     public DynamicColumnsManagerImpl(Table target) {
         this.target = Objects.requireNonNull(target);
@@ -142,9 +227,9 @@ public String getSettingName() {
      * Update the dynamic columns on the target table.
      *
      * <p>
-     * <b>NOTE:</b> If the table already contains dynamic
-     * columns with the same id, those are always removed first and then re-added, even if they
-     * were not modified.
+     * The columns are compared with the ones added by the previous update, by id: only the added,
+     * removed and changed columns touch the table. Unchanged columns keep their generators, and
+     * the values computed so far; a column whose name only was changed gets the new caption.
      * </p>
      *
      * @throws IllegalStateException  target was not set yet
@@ -155,36 +240,815 @@ public void updateTableDynamicColumns() {
             throw new IllegalStateException("target has not been set");
         }
 
+        long start = System.nanoTime();
+        try {
+            doUpdateTableDynamicColumns();
+        } finally {
+            getTimer("nxdcol.table.update").record(System.nanoTime() - start);
+        }
+    }
+
+    protected void doUpdateTableDynamicColumns() {
         List<DynamicColumn> columns = getDynamicColumns();
 
-        if (previousDynamicColumns != null) {
-            previousDynamicColumns.stream()
-                    .filter(dc -> !columns.contains(dc))
-                    .map(BaseUuidEntity::getId)
-                    .forEach(columnId -> {
-                        getTarget().removeGeneratedColumn(columnId.toString());
-                        columnGeneratorsStore.remove(columnId);
-                    });
+        initDatasourceListeners();
+        initSorting();
+
+        Set<UUID> columnIds = columns.stream()
+                .map(DynamicColumn::getId)
+                .collect(Collectors.toSet());
+        for (Iterator<UUID> it = columnSnapshots.keySet().iterator(); it.hasNext(); ) {
+            UUID columnId = it.next();
+            if (!columnIds.contains(columnId)) {
+                it.remove();
+                getTarget().removeGeneratedColumn(columnId.toString());
+                DynamicColumnGenerator removed = columnGeneratorsStore.remove(columnId);
+                if (removed != null) {
+                    removed.dispose();
+                }
+                removeSortColumn(columnId);
+                aggregates.remove(columnId);
+            }
         }
+        updateAggregatable();
 
+        List<DynamicColumn> changedColumns = new ArrayList<>();
         for (DynamicColumn dc : columns) {
+            ColumnSnapshot snapshot = new ColumnSnapshot(dc);
+            ColumnSnapshot previous = columnSnapshots.put(dc.getId(), snapshot);
+            if (previous == null || !previous.hasSameEvaluation(snapshot)
+                    || !columnGeneratorsStore.containsKey(dc.getId())) {
+                changedColumns.add(dc);
+            } else {
+                if (!Objects.equals(previous.name, snapshot.name)) {
+                    getTarget().getColumn(dc.getId().toString()).setCaption(dc.getName());
+                }
+                if (!previous.hasSameAggregation(snapshot)) {
+                    initAggregation(dc, columnGeneratorsStore.get(dc.getId()));
+                }
+            }
+        }
+        if (changedColumns.isEmpty()) {
+            return;
+        }
+
+        boolean viewExtended = extendTargetView(changedColumns);
+
+        List<DynamicColumnGenerator> addedGenerators = new ArrayList<>();
+        for (DynamicColumn dc : changedColumns) {
             // if a generated column with the same id already exists, it will be replaced
-            DynamicColumnGenerator generator = new GroovyColumnGenerator(dc);
-            columnGeneratorsStore.put(dc.getId(), generator);
+            DynamicColumnGenerator generator = createColumnGenerator(dc);
+            DynamicColumnGenerator replaced = columnGeneratorsStore.put(dc.getId(), generator);
+            if (replaced != null) {
+                replaced.dispose();
+                removeSortColumn(dc.getId());
+            }
             generator.setupDynamicColumn(target);
+            initAggregation(dc, generator);
+            addedGenerators.add(generator);
         }
 
-        // makes a deep clone of the current columns to be able to track column removals for the
-        // next method invocation
-        if (columns.size() > 0) {
-            this.previousDynamicColumns = columns.stream()
-                    .map(dc -> metadataTools.copy(dc))
-                    .collect(Collectors.toList());
+        if (viewExtended && getTarget().getDatasource().getState() == Datasource.State.VALID) {
+            // reload the rows with the attributes read by the scripts, the refresh precomputes
+            // all the columns
+            getTarget().getDatasource().refresh();
         } else {
-            this.previousDynamicColumns = null;
+            prefetchReferences();
+            precompute(addedGenerators);
+        }
+    }
+
+    /**
+     * Create the generator of a dynamic column.
+     *
+     * <p>
+     * If remote evaluation is enabled, the columns of persistent entities are evaluated on the
+     * middleware by a {@link RemoteColumnGenerator}. Otherwise, simple scripts are evaluated as
+     * compiled expressions by an {@link ExpressionColumnGenerator}, unless disabled by
+     * configuration.
+     * </p>
+     *
+     * @param dynamicColumn  the dynamic column definition
+     * @return a new generator, not yet added to the target table
+     */
+    protected DynamicColumnGenerator createColumnGenerator(DynamicColumn dynamicColumn) {
+        GroovyColumnGenerator generator;
+        if (isRemoteEvaluation()) {
+            generator = new RemoteColumnGenerator(dynamicColumn);
+            ((RemoteColumnGenerator) generator).setSettingName(getSettingName());
+        } else if (configuration.getConfig(DynamicColumnsConfig.class).getCompiledExpressions()) {
+            generator = new ExpressionColumnGenerator(dynamicColumn);
+        } else {
+            generator = new GroovyColumnGenerator(dynamicColumn);
+        }
+        if (Boolean.TRUE.equals(dynamicColumn.getAsync())) {
+            generator.setAsyncEvaluationQueue(getAsyncEvaluationQueue());
+        }
+        generator.setRenderBudget(getRenderBudget());
+        return generator;
+    }
+
+    /**
+     * @return true if the columns are evaluated on the middleware, by the
+     * {@link DynamicColumnEvaluationService}
+     */
+    protected boolean isRemoteEvaluation() {
+        CollectionDatasource datasource = getTarget().getDatasource();
+        return configuration.getConfig(DynamicColumnsConfig.class).getRemoteEvaluation()
+                && datasource != null && metadataTools.isPersistent(datasource.getMetaClass());
+    }
+
+    /**
+     * Get the time budget of the target table renders, creating it on first access.
+     *
+     * @return the render budget, or null if disabled by configuration
+     */
+    protected RenderBudget getRenderBudget() {
+        if (renderBudget == null) {
+            int renderBudgetMs = configuration.getConfig(DynamicColumnsConfig.class).getRenderBudgetMs();
+            if (renderBudgetMs > 0) {
+                renderBudget = new RenderBudget(renderBudgetMs);
+            }
+        }
+        return renderBudget;
+    }
+
+    /**
+     * Extend the view of the target datasource with the property paths read by the column
+     * scripts, so that the attributes needed to evaluate them are loaded by the datasource query
+     * instead of failing, or being loaded one row at a time.
+     *
+     * @param columns  the dynamic columns of the target table
+     * @return true if the view was extended, and the datasource must be refreshed to load the
+     * new attributes
+     */
+    protected boolean extendTargetView(Collection<DynamicColumn> columns) {
+        CollectionDatasource datasource = getTarget().getDatasource();
+        if (datasource == null || datasource.getView() == null
+                || !configuration.getConfig(DynamicColumnsConfig.class).getExtendView()
+                || isRemoteEvaluation()) {
+            return false;
+        }
+        boolean extended = false;
+        for (DynamicColumn dc : columns) {
+            for (String path : ScriptPropertyPaths.find(dc.getGroovyScript())) {
+                List<MetaProperty> properties = ScriptPropertyPaths.resolve(datasource.getMetaClass(), path);
+                extended |= ScriptPropertyPaths.extendView(datasource.getView(), properties, viewRepository);
+            }
+        }
+        return extended;
+    }
+
+    /**
+     * Get the queue of the asynchronous evaluations for the target table, creating it on first
+     * access.
+     *
+     * <p>
+     * Queued evaluations are cancelled when the target datasource is refreshed, or when the
+     * target's window is closed.
+     * </p>
+     *
+     * @return the queue of the target table
+     */
+    protected AsyncEvaluationQueue getAsyncEvaluationQueue() {
+        if (asyncEvaluationQueue == null) {
+            DynamicColumnsConfig config = configuration.getConfig(DynamicColumnsConfig.class);
+            AsyncEvaluationQueue queue = new AsyncEvaluationQueue(config.getAsyncMaxQueuedPerTable());
+
+            Window window = ComponentsHelper.getWindow(getTarget());
+            if (window != null) {
+                window.addCloseListener(actionId -> queue.cancelAll());
+            }
+            asyncEvaluationQueue = queue;
+        }
+        return asyncEvaluationQueue;
+    }
+
+    /**
+     * Add the target datasource listeners that keep the values computed by the column generators
+     * in sync with the table rows. The listeners are added only once.
+     */
+    @SuppressWarnings("unchecked")
+    protected void initDatasourceListeners() {
+        if (datasourceListenersAdded) {
+            return;
+        }
+        CollectionDatasource datasource = getTarget().getDatasource();
+        if (datasource != null) {
+            datasource.addItemPropertyChangeListener(e ->
+                    onItemPropertyChanged((Datasource.ItemPropertyChangeEvent<Entity>) e));
+            datasource.addCollectionChangeListener(e ->
+                    onCollectionChanged((CollectionDatasource.CollectionChangeEvent<Entity, ?>) e));
+        }
+        datasourceListenersAdded = true;
+    }
+
+    protected void onItemPropertyChanged(Datasource.ItemPropertyChangeEvent<Entity> event) {
+        if (prefetching) {
+            return;
+        }
+        for (DynamicColumnGenerator generator : columnGeneratorsStore.values()) {
+            generator.invalidate(event.getItem());
+        }
+        if (sortIndex != null) {
+            sortIndex.remove(event.getItem().getId());
+        }
+        for (ColumnAggregate aggregate : aggregates.values()) {
+            aggregate.update(event.getItem());
+        }
+    }
+
+    protected void onCollectionChanged(CollectionDatasource.CollectionChangeEvent<Entity, ?> event) {
+        if (reordering) {
+            return;
+        }
+        switch (event.getOperation()) {
+            case REFRESH:
+                onRowsReloaded();
+                break;
+            case CLEAR:
+                columnGeneratorsStore.values().forEach(DynamicColumnGenerator::invalidateAll);
+                clearSortIndex();
+                aggregates.values().forEach(ColumnAggregate::clear);
+                break;
+            case REMOVE:
+            case UPDATE:
+                for (DynamicColumnGenerator generator : columnGeneratorsStore.values()) {
+                    event.getItems().forEach(generator::invalidate);
+                }
+                if (sortIndex != null) {
+                    event.getItems().forEach(item -> sortIndex.remove(item.getId()));
+                }
+                for (ColumnAggregate aggregate : aggregates.values()) {
+                    if (event.getOperation() == CollectionDatasource.Operation.REMOVE) {
+                        event.getItems().forEach(aggregate::remove);
+                    } else {
+                        event.getItems().forEach(aggregate::update);
+                    }
+                }
+                break;
+            default:
+                // added rows have no computed values yet
+                for (ColumnAggregate aggregate : aggregates.values()) {
+                    event.getItems().forEach(aggregate::add);
+                }
+                break;
+        }
+    }
+
+    protected void onRowsReloaded() {
+        if (asyncEvaluationQueue != null) {
+            asyncEvaluationQueue.cancelAll();
+        }
+        columnGeneratorsStore.values().forEach(DynamicColumnGenerator::invalidateAll);
+        clearSortIndex();
+        for (ColumnAggregate aggregate : aggregates.values()) {
+            aggregate.clear();
+            addRows(aggregate);
+        }
+        prefetchReferences();
+        precompute(columnGeneratorsStore.values());
+    }
+
+    /**
+     * Load in batch the references read by the column scripts that were not fetched with the
+     * rows of the target datasource, so that evaluating the scripts does not require a query for
+     * each row.
+     *
+     * @see ReferencePrefetcher
+     */
+    protected void prefetchReferences() {
+        CollectionDatasource datasource = getTarget().getDatasource();
+        if (datasource == null || datasource.getState() != Datasource.State.VALID || datasource.size() == 0
+                || !configuration.getConfig(DynamicColumnsConfig.class).getPrefetchReferences()
+                || isRemoteEvaluation()) {
+            return;
+        }
+        List<String> scripts = getDynamicColumns().stream()
+                .map(DynamicColumn::getGroovyScript)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (referencePrefetcher == null) {
+            referencePrefetcher = new ReferencePrefetcher();
+        }
+        prefetching = true;
+        try {
+            referencePrefetcher.prefetch(datasource, scripts);
+        } finally {
+            prefetching = false;
+        }
+    }
+
+    /**
+     * Compute the values of the given columns for all the rows loaded in the target datasource,
+     * in parallel, so that rendering the table only reads precomputed values.
+     *
+     * <p>
+     * Columns evaluated on the middleware are always computed, with a single service call, queued
+     * in background for the asynchronous columns. Compiled expressions translatable to JPQL are
+     * computed by the database, if enabled by configuration, also for few rows. The other columns
+     * are computed in parallel unless batch precomputation is disabled, or the datasource contains
+     * fewer rows than the configured threshold: they are evaluated when rendered instead.
+     * </p>
+     *
+     * @param generators  the generators of the columns to compute
+     */
+    @SuppressWarnings("unchecked")
+    protected void precompute(Collection<DynamicColumnGenerator> generators) {
+        CollectionDatasource datasource = getTarget().getDatasource();
+        if (generators.isEmpty() || datasource == null || datasource.getState() != Datasource.State.VALID) {
+            return;
+        }
+        List<RemoteColumnGenerator> remoteGenerators = generators.stream()
+                .filter(generator -> generator instanceof RemoteColumnGenerator)
+                .map(generator -> (RemoteColumnGenerator) generator)
+                .collect(Collectors.toList());
+        if (!remoteGenerators.isEmpty()) {
+            Map<Boolean, List<RemoteColumnGenerator>> byAsync = remoteGenerators.stream()
+                    .collect(Collectors.partitioningBy(GroovyColumnGenerator::isAsync));
+            if (!byAsync.get(false).isEmpty()) {
+                precomputeRemotely(new ArrayList<Entity>(datasource.getItems()), byAsync.get(false));
+            }
+            if (!byAsync.get(true).isEmpty()) {
+                submitRemotely(new ArrayList<Entity>(datasource.getItems()), byAsync.get(true));
+            }
+            generators = generators.stream()
+                    .filter(generator -> !(generator instanceof RemoteColumnGenerator))
+                    .collect(Collectors.toList());
+            if (generators.isEmpty()) {
+                return;
+            }
+        }
+        DynamicColumnsConfig config = configuration.getConfig(DynamicColumnsConfig.class);
+        List<Entity> rows = new ArrayList<>(datasource.getItems());
+        if (config.getJpqlExpressions()) {
+            List<ExpressionColumnGenerator> translatableGenerators = generators.stream()
+                    .filter(generator -> generator instanceof ExpressionColumnGenerator)
+                    .map(generator -> (ExpressionColumnGenerator) generator)
+                    .filter(generator -> !generator.isAsync() && generator.isTranslatable())
+                    .collect(Collectors.toList());
+            if (!translatableGenerators.isEmpty()) {
+                precomputeInDatabase(rows, translatableGenerators);
+            }
+        }
+        if (!config.getBatchEnabled() || rows.size() < config.getBatchMinRows()) {
+            return;
+        }
+        // the precomputation is a render of its own, not spending the budget of the cells
+        RenderBudget renderBudget = getRenderBudget();
+        if (renderBudget != null) {
+            renderBudget.beginRender();
+        }
+        try {
+            // the rows computed by the database are already memoized, and skipped
+            executor.precompute(rows, new ArrayList<>(generators));
+        } finally {
+            if (renderBudget != null) {
+                renderBudget.endRender();
+            }
+        }
+    }
+
+    /**
+     * Compute the given columns for the given rows in the database, with a query selecting the
+     * JPQL translations of their expressions. The rows that are not stored, or whose value is null,
+     * are left to the generators, as are all the rows if the query fails.
+     *
+     * @param rows        the table rows
+     * @param generators  the generators of the translatable columns to compute
+     */
+    protected void precomputeInDatabase(List<Entity> rows, List<ExpressionColumnGenerator> generators) {
+        Map<Object, Entity> storedRows = new LinkedHashMap<>();
+        for (Entity row : rows) {
+            if (generators.stream().allMatch(generator -> generator.isStored(row))) {
+                storedRows.put(row.getId(), row);
+            }
+        }
+        if (storedRows.isEmpty()) {
+            return;
+        }
+        JpqlTranslator translator = new JpqlTranslator(getTarget().getDatasource().getMetaClass(), metadataTools);
+        List<String> properties = new ArrayList<>();
+        for (ExpressionColumnGenerator generator : generators) {
+            properties.add(translator.add(generator.getExpression()));
+        }
+        DataManager dataManager = AppBeans.get(DataManager.NAME);
+        try {
+            getTimer("nxdcol.table.jpqlEvaluation").record(() -> {
+                for (List<Object> ids : Lists.partition(new ArrayList<>(storedRows.keySet()), MAX_IDS_PER_QUERY)) {
+                    ValueLoadContext context = ValueLoadContext.create()
+                            .setQuery(ValueLoadContext.createQuery(translator.getQuery()).setParameter("ids", ids))
+                            .setProperties(translator.getProperties());
+                    for (KeyValueEntity values : dataManager.loadValues(context)) {
+                        Entity row = storedRows.get(values.getValue(JpqlTranslator.ID_PROPERTY));
+                        if (row == null) {
+                            continue;
+                        }
+                        for (int i = 0; i < generators.size(); i++) {
+                            generators.get(i).setResult(row, values.getValue(properties.get(i)));
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.warn("Unable to compute the dynamic columns of table {} in the database, evaluating them locally",
+                    getTarget().getId(), e);
         }
     }
 
+    /**
+     * Evaluate the given columns for the given rows with a single call to the
+     * {@link DynamicColumnEvaluationService}. The rows that cannot be evaluated on the middleware
+     * are left to the generators, as are all the rows, evaluated locally, if the call fails.
+     *
+     * @param rows        the table rows
+     * @param generators  the generators of the columns to compute
+     */
+    protected void precomputeRemotely(List<Entity> rows, List<RemoteColumnGenerator> generators) {
+        List<Entity> remoteRows = rows.stream()
+                .filter(row -> generators.stream().allMatch(generator -> generator.isRemote(row)))
+                .collect(Collectors.toList());
+        if (remoteRows.isEmpty()) {
+            return;
+        }
+        List<Object> ids = remoteRows.stream()
+                .map(Entity::getId)
+                .collect(Collectors.toList());
+        List<UUID> columnIds = generators.stream()
+                .map(generator -> generator.getDynamicColumn().getId())
+                .collect(Collectors.toList());
+        DynamicColumnEvaluationService evaluationService = AppBeans.get(DynamicColumnEvaluationService.NAME);
+        Map<Object, Map<UUID, DynamicColumnResult>> results;
+        try {
+            results = getTimer("nxdcol.table.remoteEvaluation").record(() ->
+                    evaluationService.evaluate(getTarget().getDatasource().getMetaClass().getName(), ids,
+                            getSettingName(), columnIds));
+        } catch (RuntimeException e) {
+            log.warn("Unable to evaluate the dynamic columns of table {} on the middleware, evaluating them locally",
+                    getTarget().getId(), e);
+            results = Collections.emptyMap();
+        }
+        for (Entity row : remoteRows) {
+            Map<UUID, DynamicColumnResult> rowResults = results.get(row.getId());
+            for (RemoteColumnGenerator generator : generators) {
+                UUID columnId = generator.getDynamicColumn().getId();
+                // the rows not returned are evaluated locally
+                generator.setResult(row, rowResults != null ? rowResults.get(columnId) : null);
+            }
+        }
+    }
+
+    /**
+     * Evaluate the given asynchronous columns for the given rows with a single call to the
+     * {@link DynamicColumnEvaluationService}, queued in background. The rows rendered in the
+     * meantime show a placeholder, filled in when the results are delivered. If the call fails,
+     * the rows are evaluated locally, in background.
+     *
+     * @param rows        the table rows
+     * @param generators  the generators of the asynchronous columns to compute
+     */
+    protected void submitRemotely(List<Entity> rows, List<RemoteColumnGenerator> generators) {
+        List<Entity> remoteRows = rows.stream()
+                .filter(row -> generators.stream().allMatch(generator -> generator.isRemote(row)))
+                .collect(Collectors.toList());
+        if (remoteRows.isEmpty()) {
+            return;
+        }
+        List<Object> ids = remoteRows.stream()
+                .map(Entity::getId)
+                .collect(Collectors.toList());
+        List<UUID> columnIds = generators.stream()
+                .map(generator -> generator.getDynamicColumn().getId())
+                .collect(Collectors.toList());
+        String entityName = getTarget().getDatasource().getMetaClass().getName();
+        String settingName = getSettingName();
+        DynamicColumnEvaluationService evaluationService = AppBeans.get(DynamicColumnEvaluationService.NAME);
+        Timer timer = getTimer("nxdcol.table.remoteEvaluation");
+        generators.forEach(generator -> generator.setQueued(remoteRows));
+        boolean queued = getAsyncEvaluationQueue().submit(
+                () -> timer.record(() -> evaluationService.evaluate(entityName, ids, settingName, columnIds)),
+                results -> generators.forEach(generator -> generator.deliverResults(remoteRows, results)),
+                // no row returned: the placeholders are evaluated locally
+                error -> generators.forEach(generator -> generator.deliverResults(remoteRows, Collections.emptyMap())));
+        if (!queued) {
+            // the rows are evaluated when rendered
+            generators.forEach(generator -> generator.clearQueued(remoteRows));
+        }
+    }
+
+    @Override
+    @Nullable
+    public DynamicColumnGenerator getColumnGenerator(UUID columnId) {
+        return columnGeneratorsStore.get(columnId);
+    }
+
+    /**
+     * Make the dynamic columns sortable by clicking their header, unless disabled by
+     * configuration. Tables of grouped or hierarchical datasources are not supported, as their
+     * rows cannot be reordered. The listener is added only once.
+     */
+    protected void initSorting() {
+        if (sortListenerAdded) {
+            return;
+        }
+        sortListenerAdded = true;
+        CollectionDatasource datasource = getTarget().getDatasource();
+        if (!configuration.getConfig(DynamicColumnsConfig.class).getSortable() || datasource == null
+                || datasource instanceof GroupDatasource || datasource instanceof HierarchicalDatasource) {
+            return;
+        }
+        // generated columns are not sortable by the table container, the header clicks are
+        // handled here instead
+        Object component = getTarget().unwrap(Object.class);
+        if (component instanceof com.vaadin.v7.ui.Table) {
+            ((com.vaadin.v7.ui.Table) component).addHeaderClickListener(event ->
+                    onHeaderClick(event.getPropertyId()));
+        }
+    }
+
+    protected void onHeaderClick(Object propertyId) {
+        for (UUID columnId : columnGeneratorsStore.keySet()) {
+            if (columnId.toString().equals(propertyId)) {
+                // a click on the sorted column reverses the direction
+                sortByDynamicColumn(columnId, !columnId.equals(sortColumnId) || !sortAscending);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sort the rows of the target table by a dynamic column.
+     *
+     * <p>
+     * Columns whose script is a single persistent property path are sorted by the datasource,
+     * in the database if the rows are paged. The other columns are sorted by the values computed
+     * by the generators, kept in a {@link SortIndex}: only the rows not sorted before, or changed
+     * since, are evaluated. A reload of the rows restores the query order.
+     * </p>
+     *
+     * <p>
+     * The rows sorted in memory are only those loaded, so the columns not sortable by the
+     * datasource are not sorted if the datasource holds a page of the rows: the user is notified
+     * instead.
+     * </p>
+     *
+     * @param columnId   the dynamic column id
+     * @param ascending  the sort direction
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void sortByDynamicColumn(UUID columnId, boolean ascending) {
+        DynamicColumnGenerator generator = columnGeneratorsStore.get(columnId);
+        CollectionDatasource datasource = getTarget().getDatasource();
+        if (generator == null || datasource == null || datasource.getState() != Datasource.State.VALID) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            MetaPropertyPath propertyPath = getSortPropertyPath(generator);
+            if (propertyPath != null && datasource instanceof CollectionDatasource.Sortable) {
+                sortByProperty((CollectionDatasource.Sortable) datasource, propertyPath, ascending);
+            } else if (generator instanceof GroovyColumnGenerator) {
+                if (isPaged(datasource)) {
+                    showNotification("dynamicColumns.sortPaged");
+                    return;
+                }
+                sortByIndex(datasource, columnId, (GroovyColumnGenerator) generator, ascending);
+            } else {
+                return;
+            }
+            sortColumnId = columnId;
+            sortAscending = ascending;
+        } finally {
+            getTimer("nxdcol.table.sort").record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param generator  the column generator
+     * @return the property path of a column whose script is a single persistent property path,
+     * or null
+     */
+    protected MetaPropertyPath getSortPropertyPath(DynamicColumnGenerator generator) {
+        if (!(generator instanceof ExpressionColumnGenerator)) {
+            return null;
+        }
+        ExpressionColumnGenerator expressionGenerator = (ExpressionColumnGenerator) generator;
+        if (!expressionGenerator.isTranslatable()
+                || !(expressionGenerator.getExpression() instanceof Expression.PropertyPath)) {
+            return null;
+        }
+        List<MetaProperty> properties = ((Expression.PropertyPath) expressionGenerator.getExpression()).getProperties();
+        return new MetaPropertyPath(getTarget().getDatasource().getMetaClass(),
+                properties.toArray(new MetaProperty[0]));
+    }
+
+    /**
+     * @param datasource  the target datasource
+     * @return true if the datasource holds only a page of the rows of its query
+     */
+    protected boolean isPaged(CollectionDatasource datasource) {
+        if (!(datasource instanceof CollectionDatasource.SupportsPaging)) {
+            return false;
+        }
+        CollectionDatasource.SupportsPaging pagingDatasource = (CollectionDatasource.SupportsPaging) datasource;
+        return pagingDatasource.getMaxResults() > 0 && (pagingDatasource.getFirstResult() > 0
+                || pagingDatasource.size() >= pagingDatasource.getMaxResults());
+    }
+
+    protected void showNotification(String messageKey) {
+        Frame frame = getTarget().getFrame();
+        if (frame != null) {
+            Messages messages = AppBeans.get(Messages.NAME);
+            frame.showNotification(messages.getMainMessage(messageKey), Frame.NotificationType.HUMANIZED);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void sortByProperty(CollectionDatasource.Sortable datasource, MetaPropertyPath propertyPath,
+                                  boolean ascending) {
+        CollectionDatasource.Sortable.SortInfo<MetaPropertyPath> sortInfo = new CollectionDatasource.Sortable.SortInfo<>();
+        sortInfo.setPropertyPath(propertyPath);
+        sortInfo.setOrder(ascending ? CollectionDatasource.Sortable.Order.ASC : CollectionDatasource.Sortable.Order.DESC);
+        Set<Object> rows = Collections.newSetFromMap(new IdentityHashMap<>());
+        rows.addAll(datasource.getItems());
+        // the datasource notifies a refresh also when it sorts the loaded rows in memory
+        reordering = true;
+        try {
+            datasource.sort(new CollectionDatasource.Sortable.SortInfo[]{sortInfo});
+        } finally {
+            reordering = false;
+        }
+        if (datasource.size() != rows.size() || !rows.containsAll(datasource.getItems())) {
+            // the rows were loaded again from the database
+            onRowsReloaded();
+        }
+    }
+
+    protected void sortByIndex(CollectionDatasource datasource, UUID columnId, GroovyColumnGenerator generator,
+                               boolean ascending) {
+        SortIndex.ColumnIndex index = getSortIndex().getColumn(columnId);
+        if (generator instanceof RemoteColumnGenerator) {
+            // evaluate the rows not computed yet with a single call, as those of asynchronous columns
+            List<Entity> pendingRows = new ArrayList<>();
+            for (Object item : datasource.getItems()) {
+                Entity row = (Entity) item;
+                if (!index.contains(row.getId()) && generator.getMemoizedResult(row) == null) {
+                    pendingRows.add(row);
+                }
+            }
+            if (!pendingRows.isEmpty()) {
+                precomputeRemotely(pendingRows, Collections.singletonList((RemoteColumnGenerator) generator));
+            }
+        }
+        Map<Object, Entity> rows = new LinkedHashMap<>();
+        for (Object item : datasource.getItems()) {
+            Entity row = (Entity) item;
+            rows.put(row.getId(), row);
+            if (!index.contains(row.getId())) {
+                GroovyColumnGenerator.CellResult result = generator.getResult(row);
+                // failed rows, as those not evaluated for the render budget, are sorted last and
+                // evaluated again by the next sort
+                if (result.getError() == null) {
+                    index.put(row.getId(), sortIndex.createKey(result.getValue()));
+                }
+            }
+        }
+        List<Entity> sortedRows = new ArrayList<>(rows.size());
+        for (Object id : index.getSortedIds(ascending)) {
+            Entity row = rows.remove(id);
+            if (row != null) {
+                sortedRows.add(row);
+            }
+        }
+        sortedRows.addAll(rows.values());
+        reorder(datasource, sortedRows);
+    }
+
+    /**
+     * Replace the rows of a datasource with the same rows in a different order, keeping the
+     * current item and the table selection. The datasource listeners are disabled while the rows
+     * are replaced, and notified once with the last row, so that the table is refreshed once.
+     *
+     * @param datasource  the target datasource
+     * @param rows        the reordered rows
+     */
+    @SuppressWarnings("unchecked")
+    protected void reorder(CollectionDatasource datasource, List<Entity> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Entity item = datasource.getItem();
+        List<Entity> selected = new ArrayList<Entity>(getTarget().getSelected());
+        DatasourceImplementation<Entity> datasourceImpl = (DatasourceImplementation<Entity>) datasource;
+        reordering = true;
+        try {
+            boolean listenersEnabled = datasourceImpl.enableListeners(false);
+            try {
+                datasource.clear();
+                rows.subList(0, rows.size() - 1).forEach(datasource::includeItem);
+            } finally {
+                datasourceImpl.enableListeners(listenersEnabled);
+            }
+            datasource.includeItem(rows.get(rows.size() - 1));
+        } finally {
+            reordering = false;
+        }
+        if (item != null) {
+            datasource.setItem(item);
+        }
+        if (!selected.isEmpty()) {
+            getTarget().setSelected(selected);
+        }
+    }
+
+    /**
+     * Get the sort index of the target table, creating it on first access.
+     *
+     * @return the sort index
+     */
+    protected SortIndex getSortIndex() {
+        if (sortIndex == null) {
+            UserSessionSource userSessionSource = AppBeans.get(UserSessionSource.NAME);
+            sortIndex = new SortIndex(userSessionSource.getLocale());
+        }
+        return sortIndex;
+    }
+
+    protected void clearSortIndex() {
+        if (sortIndex != null) {
+            sortIndex.clear();
+        }
+        sortColumnId = null;
+    }
+
+    protected void removeSortColumn(UUID columnId) {
+        if (sortIndex != null) {
+            sortIndex.removeColumn(columnId);
+        }
+        if (columnId.equals(sortColumnId)) {
+            sortColumnId = null;
+        }
+    }
+
+    /**
+     * Show the aggregate of a dynamic column in the table footer, or remove it if the column has
+     * no aggregation. Aggregates require a datasource supporting aggregation, and a generator
+     * memoizing the row values.
+     *
+     * @param dynamicColumn  the dynamic column definition
+     * @param generator      the generator of the column
+     */
+    protected void initAggregation(DynamicColumn dynamicColumn, DynamicColumnGenerator generator) {
+        Table.Column column = getTarget().getColumn(dynamicColumn.getId().toString());
+        boolean aggregated = aggregates.remove(dynamicColumn.getId()) != null;
+        if (dynamicColumn.getAggregation() == null || !(generator instanceof GroovyColumnGenerator)
+                || !(getTarget().getDatasource() instanceof CollectionDatasource.Aggregatable)) {
+            if (aggregated) {
+                column.setAggregation(null);
+                updateAggregatable();
+            }
+            if (generator instanceof GroovyColumnGenerator) {
+                ((GroovyColumnGenerator) generator).setBackgroundResultListener(null);
+            }
+            return;
+        }
+        ColumnAggregate aggregate = new ColumnAggregate((GroovyColumnGenerator) generator,
+                dynamicColumn.getAggregation(), dynamicColumn.getResultType());
+        addRows(aggregate);
+        aggregates.put(dynamicColumn.getId(), aggregate);
+        // the footer is aggregated again with the results evaluated in background
+        ((GroovyColumnGenerator) generator).setBackgroundResultListener(getTarget()::repaint);
+        AggregationInfo aggregationInfo = new AggregationInfo();
+        aggregationInfo.setType(AggregationInfo.Type.CUSTOM);
+        aggregationInfo.setStrategy(aggregate);
+        column.setAggregation(aggregationInfo);
+        updateAggregatable();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void addRows(ColumnAggregate aggregate) {
+        CollectionDatasource datasource = getTarget().getDatasource();
+        if (datasource.getState() == Datasource.State.VALID) {
+            ((Collection<Entity>) datasource.getItems()).forEach(aggregate::add);
+        }
+    }
+
+    /**
+     * Show the table footer while some dynamic column has an aggregate, or if the table was
+     * already aggregatable.
+     */
+    protected void updateAggregatable() {
+        if (targetAggregatable == null) {
+            if (aggregates.isEmpty()) {
+                return;
+            }
+            targetAggregatable = getTarget().isAggregatable();
+        }
+        getTarget().setAggregatable(targetAggregatable || !aggregates.isEmpty());
+    }
+
     /**
      * Reset the dynamic columns configuration held by the instance, thus forcing a reload from
      * persistent storage the next time {@link #getDynamicColumns()} is invoked.<br><br>
@@ -198,61 +1062,99 @@ public void reset() {
         this.dynamicColumns = null;
     }
 
+    /**
+     * Get a timer of the target table, tagged with the ids of the screen and of the table.
+     *
+     * @param name  the meter name
+     * @return the timer
+     */
+    protected Timer getTimer(String name) {
+        return metricsRegistry.timer(name,
+                "screen", getTarget().getFrame().getId(), "table", getTarget().getId());
+    }
+
+    /**
+     * Load the dynamic columns from the user's setting, in the current JSON format or in the
+     * legacy XML format of {@link DynamicColumnsSettingsFormat}.
+     *
+     * @return the dynamic columns, or an empty list if the setting does not exist
+     */
     protected List<DynamicColumn> loadDynamicColumnsFromUserSetting() {
-        String setting = settings.loadSetting(getSettingName());
+        String setting = getTimer("nxdcol.settings.load").record(() -> settings.loadSetting(getSettingName()));
         if (StringUtils.isBlank(setting)) {
             return ImmutableList.of();
         }
-
-        Element root = Dom4j.readDocument(setting).getRootElement();
-        if (!root.getName().equals("nxdcol")) {
-            throw new IllegalStateException("Invalid settings detected");
-        }
-        Element columnsRoot = root.element("columns");
-        if (columnsRoot == null) {
-            columnsRoot = root.addElement("columns");
+        int version = settingsFormat.readVersion(setting);
+        if (version > DynamicColumnsSettingsFormat.VERSION) {
+            backupSetting(setting, version);
         }
+        return settingsFormat.read(setting);
+    }
 
-        List<DynamicColumn> columns = new ArrayList<>();
-
-        for (Element e : columnsRoot.elements("column")) {
-            DynamicColumn dc = deserializeDynamicColumnElement(e);
-            if (dc != null) {
-                columns.add(dc);
-            }
+    /**
+     * Keep a copy of a setting written by a newer version of the add-on, as saving the columns
+     * in the current format drops the fields it does not know. The copy is saved only once, with
+     * the version appended to the setting name, to be restored after upgrading again.
+     *
+     * @param setting  the setting value
+     * @param version  the format version of the setting
+     */
+    protected void backupSetting(String setting, int version) {
+        String backupName = getSettingName() + "_v" + version;
+        if (settings.loadSetting(backupName) == null) {
+            log.warn("Dynamic columns setting {} was written by a newer version of the add-on (format {}), "
+                    + "saving a copy as {}", getSettingName(), version, backupName);
+            settings.saveSetting(backupName, setting);
         }
+    }
 
-        return columns;
+    /**
+     * Save the dynamic columns to the user's setting, in the JSON format of
+     * {@link DynamicColumnsSettingsFormat}.
+     *
+     * @param columns  the dynamic columns
+     */
+    protected void saveDynamicColumnsToUserSetting(Collection<DynamicColumn> columns) {
+        String setting = settingsFormat.write(columns);
+        getTimer("nxdcol.settings.save").record(() -> {
+            settings.saveSetting(getSettingName(), setting);
+            return null;
+        });
     }
 
-    protected DynamicColumn deserializeDynamicColumnElement(Element element) {
-        if (StringUtils.isNotBlank(element.attributeValue("id"))) {
-            UUID uuid = UUID.fromString(element.attributeValue("id"));
-            String name = element.attributeValue("name");
-            String groovyScript = element.attributeValue("groovyScript");
-            DynamicColumn dc = (DynamicColumn) metadata.create("nxdcol$DynamicColumn");
-            dc.setId(uuid);
-            dc.setName(name);
-            dc.setGroovyScript(groovyScript);
-            return dc;
+    /**
+     * The state of a dynamic column added to the target table, compared with the column
+     * definitions of the next update.
+     */
+    protected static class ColumnSnapshot {
+        protected final String name;
+        protected final String groovyScript;
+        protected final boolean async;
+        protected final boolean compileStatic;
+        protected final DynamicColumnAggregation aggregation;
+        protected final DynamicColumnResultType resultType;
+
+        protected ColumnSnapshot(DynamicColumn dynamicColumn) {
+            this.name = dynamicColumn.getName();
+            this.groovyScript = dynamicColumn.getGroovyScript();
+            this.async = Boolean.TRUE.equals(dynamicColumn.getAsync());
+            this.compileStatic = Boolean.TRUE.equals(dynamicColumn.getCompileStatic());
+            this.aggregation = dynamicColumn.getAggregation();
+            this.resultType = dynamicColumn.getResultType();
         }
-        return null;
-    }
 
-    protected void saveDynamicColumnsToUserSetting(Collection<DynamicColumn> columns) {
-        Element root = DocumentHelper.createDocument().addElement("nxdcol");
-        Element columnsRoot = root.addElement("columns");
-        for (DynamicColumn dc : columns) {
-            serializeDynamicColumnElement(columnsRoot.addElement("column"), dc);
+        protected boolean hasSameAggregation(ColumnSnapshot other) {
+            return aggregation == other.aggregation && resultType == other.resultType;
         }
-        settings.saveSetting(getSettingName(), Dom4j.writeDocument(root.getDocument(), true));
-    }
 
-    protected Element serializeDynamicColumnElement(Element element, DynamicColumn dynamicColumn) {
-        return element
-                .addAttribute("id", dynamicColumn.getId().toString())
-                .addAttribute("name", dynamicColumn.getName())
-                .addAttribute("groovyScript", dynamicColumn.getGroovyScript());
+        /**
+         * @return true if the cells of the two columns are evaluated in the same way, so that the
+         * generator of one can be used for the other
+         */
+        protected boolean hasSameEvaluation(ColumnSnapshot other) {
+            return async == other.async
+                    && compileStatic == other.compileStatic
+                    && Objects.equals(groovyScript, other.groovyScript);
+        }
     }
 }
-
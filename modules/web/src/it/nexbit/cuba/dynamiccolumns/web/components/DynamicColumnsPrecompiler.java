@@ -0,0 +1,149 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.cuba.core.global.Configuration;
+import com.haulmont.cuba.core.global.Metadata;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.SecurityContext;
+import com.haulmont.cuba.security.global.UserSession;
+import com.haulmont.cuba.web.security.events.UserLoggedInEvent;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.expression.ExpressionCompiler;
+import it.nexbit.cuba.dynamiccolumns.metrics.MetricsRegistry;
+import it.nexbit.cuba.dynamiccolumns.scripting.CompiledScriptCache;
+import it.nexbit.cuba.dynamiccolumns.settings.DynamicColumnsSettingsFormat;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the dynamic column scripts of a user in background when the user logs in, so that the
+ * column generators of the first screens find them in the {@link CompiledScriptCache}.
+ *
+ * <p>
+ * Statically compiled scripts are compiled only if the table entity can be inferred from the
+ * setting name, i.e. the screen id starts with the entity name (as in {@code app_Order.browse}).
+ * Scripts evaluated as compiled expressions, and scripts that do not compile, are skipped: they
+ * are handled as usual when the column is added to the table.
+ * </p>
+ */
+@Component(DynamicColumnsPrecompiler.NAME)
+public class DynamicColumnsPrecompiler {
+    public static final String NAME = "nxdcol_DynamicColumnsPrecompiler";
+
+    private static final Logger log = LoggerFactory.getLogger(DynamicColumnsPrecompiler.class);
+
+    @Inject
+    protected Configuration configuration;
+
+    @Inject
+    protected Metadata metadata;
+
+    @Inject
+    protected DynamicColumnsSettings settings;
+
+    @Inject
+    protected DynamicColumnsExecutor executor;
+
+    @Inject
+    protected CompiledScriptCache compiledScriptCache;
+
+    @Inject
+    protected MetricsRegistry metricsRegistry;
+
+    @EventListener
+    public void onUserLoggedIn(UserLoggedInEvent event) {
+        if (configuration.getConfig(DynamicColumnsConfig.class).getPrecompileEnabled()) {
+            UserSession userSession = event.getSource().getSession();
+            executor.precompile(() -> AppContext.withSecurityContext(new SecurityContext(userSession), () ->
+                    precompile(userSession)));
+        }
+    }
+
+    /**
+     * Compile the dynamic column scripts of a user.
+     *
+     * @param userSession  the user session
+     */
+    public void precompile(UserSession userSession) {
+        long start = System.nanoTime();
+        int compiled = 0;
+        try {
+            boolean compiledExpressions = configuration.getConfig(DynamicColumnsConfig.class).getCompiledExpressions();
+            // shared columns are resolved through the SharedColumnLibrary
+            DynamicColumnsSettingsFormat settingsFormat = new DynamicColumnsSettingsFormat();
+            for (Map.Entry<String, String> setting : settings.getSettings(userSession).entrySet()) {
+                MetaClass metaClass = findMetaClass(setting.getKey());
+                for (DynamicColumn column : readColumns(settingsFormat, setting)) {
+                    String script = column.getGroovyScript();
+                    boolean compileStatic = Boolean.TRUE.equals(column.getCompileStatic());
+                    if (StringUtils.isBlank(script) || compileStatic && metaClass == null) {
+                        continue;
+                    }
+                    if (compiledExpressions && metaClass != null
+                            && ExpressionCompiler.compile(script, metaClass) != null) {
+                        continue;
+                    }
+                    try {
+                        compiledScriptCache.getScriptClass(script, compileStatic ? metaClass.getJavaClass() : null);
+                        compiled++;
+                    } catch (RuntimeException e) {
+                        // reported to the user when the column is added to the table
+                        log.debug("Skipping the script of setting {}: {}", setting.getKey(), e.toString());
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to precompile the dynamic column scripts of user {}",
+                    userSession.getUser().getLogin(), e);
+        } finally {
+            metricsRegistry.timer("nxdcol.script.precompile").record(System.nanoTime() - start);
+        }
+        log.debug("Precompiled {} dynamic column scripts of user {}", compiled, userSession.getUser().getLogin());
+    }
+
+    /**
+     * Read the columns of a setting, skipping the setting if it is not valid.
+     *
+     * @param settingsFormat  the settings format
+     * @param setting         the setting name and value
+     * @return the columns
+     */
+    protected List<DynamicColumn> readColumns(DynamicColumnsSettingsFormat settingsFormat,
+                                              Map.Entry<String, String> setting) {
+        if (StringUtils.isBlank(setting.getValue())) {
+            return Collections.emptyList();
+        }
+        try {
+            return settingsFormat.read(setting.getValue());
+        } catch (RuntimeException e) {
+            // reported to the user when the table is opened
+            log.debug("Skipping setting {}: {}", setting.getKey(), e.toString());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Infer the table entity from the name of a setting, written by
+     * {@link DynamicColumnsManager#getSettingName()}.
+     *
+     * @param settingName  the setting name
+     * @return the meta class of the entity, or null if not found
+     */
+    @Nullable
+    protected MetaClass findMetaClass(String settingName) {
+        String windowId = settingName.substring(DynamicColumnsSettings.SETTING_PREFIX.length());
+        MetaClass metaClass = metadata.getClass(StringUtils.substringBefore(windowId, "."));
+        // the table datasources use the extended entity, if any
+        return metaClass != null ? metadata.getExtendedEntities().getEffectiveMetaClass(metaClass) : null;
+    }
+}
@@ -0,0 +1,72 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.haulmont.cuba.security.global.UserSession;
+import it.nexbit.cuba.dynamiccolumns.settings.DynamicColumnsSettingsFormat;
+
+import java.util.Map;
+
+/**
+ * Session-level cache of the dynamic columns user settings.
+ *
+ * <p>
+ * The first access in a user session loads all the settings of the user whose name starts with
+ * {@value #SETTING_PREFIX} in a single query, so that opening screens does not require a
+ * middleware round trip for each table. Saved settings are written through to the
+ * {@link com.haulmont.cuba.security.app.UserSettingService}.
+ * </p>
+ */
+public interface DynamicColumnsSettings {
+    String NAME = "nxdcol_DynamicColumnsSettings";
+
+    /**
+     * The prefix of the names of the dynamic columns settings.
+     */
+    String SETTING_PREFIX = DynamicColumnsSettingsFormat.SETTING_PREFIX;
+
+    /**
+     * Get a setting of the current user.
+     *
+     * @param name  the setting name
+     * @return the setting value, or null if the setting does not exist
+     */
+    String loadSetting(String name);
+
+    /**
+     * Save a setting of the current user.
+     *
+     * @param name   the setting name
+     * @param value  the setting value
+     */
+    void saveSetting(String name, String value);
+
+    /**
+     * Check whether a setting of the current user was saved in write-behind mode and not written
+     * yet, so that the middleware would still read its previous value.
+     *
+     * @param name  the setting name
+     * @return true if the setting is waiting to be written
+     */
+    boolean isPending(String name);
+
+    /**
+     * Load the settings of a user session, if not already loaded.
+     *
+     * @param userSession  the user session
+     */
+    void preload(UserSession userSession);
+
+    /**
+     * Get all the settings of a user session, loading them if not already loaded.
+     *
+     * @param userSession  the user session
+     * @return the setting values by name, not including the settings loaded one by one if the
+     * bulk load failed
+     */
+    Map<String, String> getSettings(UserSession userSession);
+
+    /**
+     * Discard the settings cached for the current user session, so that they are loaded again on
+     * the next access.
+     */
+    void invalidate();
+}
@@ -0,0 +1,458 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.haulmont.cuba.core.global.ClientType;
+import com.haulmont.cuba.core.global.Configuration;
+import com.haulmont.cuba.core.global.DataManager;
+import com.haulmont.cuba.core.global.Messages;
+import com.haulmont.cuba.core.global.UserSessionSource;
+import com.haulmont.cuba.core.global.View;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.SecurityContext;
+import com.haulmont.cuba.gui.Notifications;
+import com.haulmont.cuba.gui.executors.BackgroundWorker;
+import com.haulmont.cuba.gui.executors.IllegalConcurrentAccessException;
+import com.haulmont.cuba.gui.executors.UIAccessor;
+import com.haulmont.cuba.security.app.TrustedClientService;
+import com.haulmont.cuba.security.app.UserSettingService;
+import com.haulmont.cuba.security.entity.User;
+import com.haulmont.cuba.security.entity.UserSetting;
+import com.haulmont.cuba.security.global.UserSession;
+import com.haulmont.cuba.web.AppUI;
+import com.haulmont.cuba.web.auth.WebAuthConfig;
+import com.haulmont.cuba.web.security.events.UserDisconnectedEvent;
+import com.haulmont.cuba.web.security.events.UserLoggedInEvent;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
+import it.nexbit.cuba.dynamiccolumns.metrics.MetricsRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@Component(DynamicColumnsSettings.NAME)
+public class DynamicColumnsSettingsImpl implements DynamicColumnsSettings {
+
+    private static final Logger log = LoggerFactory.getLogger(DynamicColumnsSettingsImpl.class);
+
+    /**
+     * The name of the user session local attribute holding the cached settings.
+     */
+    protected static final String SESSION_ATTRIBUTE = "nxdcol_settings";
+
+    /**
+     * The time waited at shutdown for the pending settings to be written.
+     */
+    protected static final int SHUTDOWN_TIMEOUT_SEC = 10;
+
+    @Inject
+    protected UserSessionSource userSessionSource;
+
+    @Inject
+    protected UserSettingService userSettingService;
+
+    @Inject
+    protected DataManager dataManager;
+
+    @Inject
+    protected Configuration configuration;
+
+    @Inject
+    protected BackgroundWorker backgroundWorker;
+
+    @Inject
+    protected Messages messages;
+
+    @Inject
+    protected MetricsRegistry metricsRegistry;
+
+    @Inject
+    protected TrustedClientService trustedClientService;
+
+    /**
+     * Runs the delayed writes of the settings, in write-behind mode.
+     */
+    protected ScheduledExecutorService writer;
+
+    /**
+     * The settings of the sessions with pending writes.
+     */
+    protected Set<SessionSettings> dirtySettings = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    protected void init() {
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("nxdcol-settings-writer-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Writes the pending settings of all the sessions before shutting down, after the writes
+     * already running. The sessions may be closed already, so the settings are written under the
+     * system session.
+     */
+    @PreDestroy
+    protected void shutdown() {
+        for (SessionSettings sessionSettings : new ArrayList<>(dirtySettings)) {
+            flushClosed(sessionSettings);
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                log.warn("Timed out writing the pending dynamic columns settings");
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String loadSetting(String name) {
+        SessionSettings sessionSettings = getSessionSettings(userSessionSource.getUserSession());
+        String value = sessionSettings.values.get(name);
+        if (value == null && !sessionSettings.complete) {
+            // the bulk load failed, load and cache the single setting
+            value = StringUtils.defaultString(userSettingService.loadSetting(name));
+            sessionSettings.values.put(name, value);
+        }
+        return StringUtils.isEmpty(value) ? null : value;
+    }
+
+    /**
+     * Save a setting of the current user.
+     *
+     * <p>
+     * In write-behind mode, enabled by a positive {@code nxdcol.settings.writeBehindDelayMs}, the
+     * cached value is updated at once, while the setting is written in background after the
+     * delay: further saves within the delay are coalesced into a single write. Failed writes are
+     * retried with an increasing delay, and a notification is shown to the user when the retries
+     * are exhausted. Pending writes are flushed when the user logs out.
+     * </p>
+     */
+    @Override
+    public void saveSetting(String name, String value) {
+        SessionSettings sessionSettings = getSessionSettings(userSessionSource.getUserSession());
+        int delay = configuration.getConfig(DynamicColumnsConfig.class).getSettingsWriteBehindDelayMs();
+        if (delay <= 0) {
+            userSettingService.saveSetting(name, value);
+            sessionSettings.values.put(name, StringUtils.defaultString(value));
+            return;
+        }
+        sessionSettings.values.put(name, StringUtils.defaultString(value));
+        UIAccessor uiAccessor = getUIAccessor();
+        synchronized (sessionSettings) {
+            sessionSettings.pending.put(name, StringUtils.defaultString(value));
+            sessionSettings.uiAccessor = uiAccessor;
+            sessionSettings.failures = 0;
+            scheduleFlush(sessionSettings, delay);
+        }
+    }
+
+    /**
+     * Writes the pending settings of a user that logged out, or whose session expired. The event
+     * is published after the session is closed on the middleware, so the settings are written
+     * under the system session.
+     */
+    @EventListener
+    public void onUserDisconnected(UserDisconnectedEvent event) {
+        SessionSettings sessionSettings = event.getLoggedOutSession().getLocalAttribute(SESSION_ATTRIBUTE);
+        // also when nothing is pending, so that a failing write running now is not retried
+        if (sessionSettings != null) {
+            flushClosed(sessionSettings);
+        }
+    }
+
+    /**
+     * Queue the last write of the pending settings of a closed session. As all the writes, it runs
+     * in the single writer thread, after the write of the session that may be running, and no
+     * more writes are scheduled for the session.
+     */
+    protected void flushClosed(SessionSettings sessionSettings) {
+        synchronized (sessionSettings) {
+            if (sessionSettings.closed) {
+                return;
+            }
+            sessionSettings.closed = true;
+            cancelFlush(sessionSettings);
+            try {
+                writer.execute(() -> flush(sessionSettings, false));
+            } catch (RejectedExecutionException e) {
+                log.warn("Unable to save the dynamic columns settings of user {}, the writer is stopped",
+                        sessionSettings.userSession.getUser().getLogin());
+            }
+        }
+    }
+
+    protected void scheduleFlush(SessionSettings sessionSettings, long delay) {
+        synchronized (sessionSettings) {
+            if (sessionSettings.closed) {
+                return;
+            }
+            cancelFlush(sessionSettings);
+            dirtySettings.add(sessionSettings);
+            sessionSettings.flushTask = writer.schedule(() -> flush(sessionSettings, true),
+                    delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    protected void cancelFlush(SessionSettings sessionSettings) {
+        synchronized (sessionSettings) {
+            if (sessionSettings.flushTask != null) {
+                sessionSettings.flushTask.cancel(false);
+                sessionSettings.flushTask = null;
+            }
+        }
+    }
+
+    /**
+     * Write the pending settings of a session. Runs in the writer thread only, so that the writes
+     * of a session never overlap.
+     *
+     * @param sessionSettings  the session settings
+     * @param sessionActive    whether the user session is still active: if so, the settings are
+     *                         written in the user session, and a failed write is retried;
+     *                         otherwise, they are written once under the system session
+     */
+    protected void flush(SessionSettings sessionSettings, boolean sessionActive) {
+        RuntimeException error = null;
+        SecurityContext securityContext = null;
+        for (Map.Entry<String, String> entry : new ArrayList<>(sessionSettings.pending.entrySet())) {
+            String value = StringUtils.defaultIfEmpty(entry.getValue(), null);
+            try {
+                if (sessionActive) {
+                    AppContext.withSecurityContext(new SecurityContext(sessionSettings.userSession), () ->
+                            userSettingService.saveSetting(entry.getKey(), value));
+                } else {
+                    if (securityContext == null) {
+                        securityContext = new SecurityContext(trustedClientService.getSystemSession(
+                                configuration.getConfig(WebAuthConfig.class).getTrustedClientPassword()));
+                    }
+                    AppContext.withSecurityContext(securityContext, () ->
+                            writeSetting(sessionSettings.userSession.getUser(), entry.getKey(), value));
+                }
+                // a newer value saved in the meantime stays pending
+                sessionSettings.pending.remove(entry.getKey(), entry.getValue());
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+        if (error == null) {
+            synchronized (sessionSettings) {
+                sessionSettings.failures = 0;
+                if (sessionSettings.pending.isEmpty()) {
+                    dirtySettings.remove(sessionSettings);
+                }
+            }
+            return;
+        }
+
+        metricsRegistry.counter("nxdcol.settings.writeErrors").increment();
+        int maxRetries = configuration.getConfig(DynamicColumnsConfig.class).getSettingsWriteBehindRetries();
+        UIAccessor uiAccessor;
+        synchronized (sessionSettings) {
+            if (sessionActive && !sessionSettings.closed && sessionSettings.failures < maxRetries) {
+                sessionSettings.failures++;
+                long delay = (long) configuration.getConfig(DynamicColumnsConfig.class).getSettingsWriteBehindDelayMs()
+                        << sessionSettings.failures;
+                log.warn("Unable to save the dynamic columns settings of user {}, retrying in {} ms",
+                        sessionSettings.userSession.getUser().getLogin(), delay, error);
+                scheduleFlush(sessionSettings, delay);
+                return;
+            }
+            uiAccessor = sessionSettings.uiAccessor;
+        }
+        // the settings stay pending, and are written with the next save or at logout
+        log.error("Unable to save the dynamic columns settings of user {}",
+                sessionSettings.userSession.getUser().getLogin(), error);
+        if (sessionActive) {
+            notifySaveFailed(uiAccessor);
+        }
+    }
+
+    /**
+     * Write a web client setting of a user, as done by {@link UserSettingService#saveSetting(String, String)}
+     * for the current user. Used when the user session is closed.
+     *
+     * @param user   the user
+     * @param name   the setting name
+     * @param value  the setting value
+     */
+    protected void writeSetting(User user, String name, String value) {
+        UserSetting userSetting = dataManager.load(UserSetting.class)
+                .query("select e from sec$UserSetting e where e.user.id = :userId " +
+                        "and e.clientType = :clientType and e.name = :name")
+                .parameter("userId", user.getId())
+                .parameter("clientType", ClientType.WEB.getId())
+                .parameter("name", name)
+                .view(View.LOCAL)
+                .optional()
+                .orElse(null);
+        if (userSetting == null) {
+            userSetting = dataManager.create(UserSetting.class);
+            userSetting.setUser(dataManager.getReference(User.class, user.getId()));
+            userSetting.setClientType(ClientType.WEB);
+            userSetting.setName(name);
+        }
+        userSetting.setValue(value);
+        dataManager.commit(userSetting);
+    }
+
+    protected void notifySaveFailed(@Nullable UIAccessor uiAccessor) {
+        if (uiAccessor != null) {
+            uiAccessor.access(() -> AppUI.getCurrent().getNotifications()
+                    .create(Notifications.NotificationType.ERROR)
+                    .withCaption(messages.getMainMessage("dynamicColumns.settingsSaveFailed"))
+                    .show());
+        }
+    }
+
+    /**
+     * @return the accessor of the current UI, or null if not invoked in a UI thread
+     */
+    protected UIAccessor getUIAccessor() {
+        try {
+            return backgroundWorker.getUIAccessor();
+        } catch (IllegalConcurrentAccessException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isPending(String name) {
+        SessionSettings sessionSettings = userSessionSource.getUserSession().getLocalAttribute(SESSION_ATTRIBUTE);
+        return sessionSettings != null && sessionSettings.pending.containsKey(name);
+    }
+
+    @Override
+    public void preload(UserSession userSession) {
+        getSessionSettings(userSession);
+    }
+
+    @Override
+    public Map<String, String> getSettings(UserSession userSession) {
+        SessionSettings sessionSettings = getSessionSettings(userSession);
+        if (!sessionSettings.complete) {
+            return Collections.emptyMap();
+        }
+        return sessionSettings.values.entrySet().stream()
+                .filter(entry -> !entry.getValue().isEmpty())
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    @Override
+    public void invalidate() {
+        userSessionSource.getUserSession().removeLocalAttribute(SESSION_ATTRIBUTE);
+    }
+
+    @EventListener
+    public void onUserLoggedIn(UserLoggedInEvent event) {
+        if (configuration.getConfig(DynamicColumnsConfig.class).getSettingsPreloadOnLogin()) {
+            preload(event.getSource().getSession());
+        }
+    }
+
+    /**
+     * Get the settings cached in a user session, loading them on first access.
+     */
+    protected SessionSettings getSessionSettings(UserSession userSession) {
+        SessionSettings sessionSettings = userSession.getLocalAttribute(SESSION_ATTRIBUTE);
+        if (sessionSettings == null) {
+            synchronized (userSession) {
+                sessionSettings = userSession.getLocalAttribute(SESSION_ATTRIBUTE);
+                if (sessionSettings == null) {
+                    sessionSettings = loadSessionSettings(userSession);
+                    userSession.setLocalAttribute(SESSION_ATTRIBUTE, sessionSettings);
+                }
+            }
+        }
+        return sessionSettings;
+    }
+
+    /**
+     * Load all the dynamic columns settings of the session user, for the web client, as done by
+     * {@link UserSettingService#loadSetting(String)} for a single setting.
+     */
+    protected SessionSettings loadSessionSettings(UserSession userSession) {
+        SessionSettings sessionSettings = new SessionSettings(userSession);
+        try {
+            List<UserSetting> userSettings = dataManager.load(UserSetting.class)
+                    .query("select e from sec$UserSetting e where e.user.id = :userId " +
+                            "and e.clientType = :clientType and e.name like :prefix")
+                    .parameter("userId", userSession.getUser().getId())
+                    .parameter("clientType", ClientType.WEB.getId())
+                    .parameter("prefix", SETTING_PREFIX + "%")
+                    .view(View.LOCAL)
+                    .list();
+            for (UserSetting userSetting : userSettings) {
+                // the underscore of the prefix is a wildcard in the like pattern
+                if (userSetting.getName().startsWith(SETTING_PREFIX)) {
+                    sessionSettings.values.put(userSetting.getName(), StringUtils.defaultString(userSetting.getValue()));
+                }
+            }
+            sessionSettings.complete = true;
+        } catch (RuntimeException e) {
+            log.warn("Unable to load the dynamic columns settings of user {}, they will be loaded one by one",
+                    userSession.getUser().getLogin(), e);
+        }
+        return sessionSettings;
+    }
+
+    /**
+     * The settings of a user session. An empty value marks a missing setting.
+     */
+    protected static class SessionSettings {
+        protected final UserSession userSession;
+
+        protected final Map<String, String> values = new ConcurrentHashMap<>();
+
+        /**
+         * The settings saved in write-behind mode and not written yet.
+         */
+        protected final Map<String, String> pending = new ConcurrentHashMap<>();
+
+        /*
+         * The fields below are guarded by the lock of the instance.
+         */
+
+        protected ScheduledFuture<?> flushTask;
+
+        protected int failures;
+
+        protected UIAccessor uiAccessor;
+
+        /**
+         * Whether the session is closed, so that its last write is queued and no more writes are
+         * scheduled.
+         */
+        protected boolean closed;
+
+        protected SessionSettings(UserSession userSession) {
+            this.userSession = userSession;
+        }
+
+        /**
+         * Whether all the settings of the user were loaded, so that a setting not in
+         * {@link #values} does not exist.
+         */
+        protected volatile boolean complete;
+    }
+}
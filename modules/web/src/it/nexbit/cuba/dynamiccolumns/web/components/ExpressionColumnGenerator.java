@@ -0,0 +1,104 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.MetadataTools;
+import com.haulmont.cuba.gui.components.Table;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.expression.Expression;
+import it.nexbit.cuba.dynamiccolumns.expression.ExpressionCompiler;
+import it.nexbit.cuba.dynamiccolumns.expression.JpqlTranslator;
+
+/**
+ * A column generator that evaluates the simple scripts supported by {@link ExpressionCompiler}
+ * through direct property accessors, without Groovy.
+ *
+ * <p>
+ * Scripts outside of the supported subset are compiled and evaluated by Groovy, exactly as
+ * {@link GroovyColumnGenerator} does.
+ * </p>
+ *
+ * <p>
+ * Expressions translatable by {@link JpqlTranslator} can be computed by the database for all the
+ * rows of the table datasource, by {@link DynamicColumnsManagerImpl}: the results are set with
+ * {@link #setResult(Entity, Object)}. Rows whose value is null, that are not committed, or that
+ * were changed in the datasource, are evaluated locally.
+ * </p>
+ */
+public class ExpressionColumnGenerator extends GroovyColumnGenerator {
+
+    protected MetadataTools metadataTools = AppBeans.get(MetadataTools.NAME);
+
+    protected MetaClass metaClass;
+
+    protected Expression expression;
+
+    protected boolean translatable;
+
+    public ExpressionColumnGenerator(DynamicColumn dynamicColumn) {
+        super(dynamicColumn);
+    }
+
+    @Override
+    public void setupDynamicColumn(Table table) {
+        if (table.getDatasource() != null) {
+            metaClass = table.getDatasource().getMetaClass();
+        }
+        super.setupDynamicColumn(table);
+    }
+
+    /**
+     * @return true if the column script is evaluated without Groovy
+     */
+    public boolean isCompiledExpression() {
+        return expression != null;
+    }
+
+    /**
+     * @return the compiled expression, or null if the script is evaluated by Groovy
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return true if the compiled expression can be computed by the database
+     */
+    public boolean isTranslatable() {
+        return translatable;
+    }
+
+    /**
+     * Memoize the value of a row computed by the database in batch. Null values are left to the
+     * local evaluation, as they may stand for a different Groovy result.
+     *
+     * @param entity  the row entity
+     * @param value   the database value
+     */
+    public void setResult(Entity entity, Object value) {
+        if (value != null) {
+            results.put(entity.getId(), CellResult.value(getRowStamp(entity), value));
+        }
+    }
+
+    @Override
+    protected void compileScript() {
+        expression = metaClass != null
+                ? ExpressionCompiler.compile(dynamicColumn.getGroovyScript(), metaClass)
+                : null;
+        translatable = expression != null && metadataTools.isPersistent(metaClass)
+                && JpqlTranslator.isTranslatable(expression, metaClass, metadataTools);
+        if (expression != null) {
+            scriptClass = null;
+            compilationError = null;
+        } else {
+            super.compileScript();
+        }
+    }
+
+    @Override
+    protected Object evaluate(Entity entity) {
+        return expression != null ? expression.evaluate(entity) : super.evaluate(entity);
+    }
+}
@@ -1,53 +1,602 @@
 package it.nexbit.cuba.dynamiccolumns.web.components;
 
 import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.Versioned;
 import com.haulmont.cuba.core.global.AppBeans;
-import com.haulmont.cuba.core.global.Scripting;
+import com.haulmont.cuba.core.global.Messages;
+import com.haulmont.cuba.core.global.PersistenceHelper;
 import com.haulmont.cuba.gui.UiComponents;
 import com.haulmont.cuba.gui.components.Label;
 import com.haulmont.cuba.gui.components.Table;
 import groovy.lang.Binding;
+import groovy.lang.Script;
 import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.metrics.Counter;
+import it.nexbit.cuba.dynamiccolumns.metrics.MetricsRegistry;
+import it.nexbit.cuba.dynamiccolumns.metrics.Timer;
+import it.nexbit.cuba.dynamiccolumns.scripting.CompiledScriptCache;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 
 public class GroovyColumnGenerator implements DynamicColumnsManager.DynamicColumnGenerator {
 
-    protected Scripting scripting = AppBeans.get(Scripting.NAME);
+    public static final String ENTITY_VARIABLE = CompiledScriptCache.ENTITY_VARIABLE;
+
+    protected static final String PLACEHOLDER_TEXT = "\u2026";
+
+    protected CompiledScriptCache compiledScriptCache = AppBeans.get(CompiledScriptCache.NAME);
     protected UiComponents componentsFactory = AppBeans.get(UiComponents.NAME);
+    protected Messages messages = AppBeans.get(Messages.NAME);
+    protected MetricsRegistry metricsRegistry = AppBeans.get(MetricsRegistry.NAME);
 
     protected DynamicColumn dynamicColumn;
 
+    protected volatile Class<? extends Script> scriptClass;
+
+    /**
+     * The row entity class, used for static compilation.
+     */
+    protected Class<?> entityClass;
+
+    protected RuntimeException compilationError;
+
+    /**
+     * Memoized evaluation results, keyed by row entity id.
+     */
+    protected Map<Object, CellResult> results = new ConcurrentHashMap<>();
+
+    /**
+     * Change counters of the rows whose entity is not {@link Versioned}, keyed by entity id.
+     */
+    protected Map<Object, Integer> changeCounters = new ConcurrentHashMap<>();
+
+    /**
+     * The ids of the rows changed in the datasource since loaded.
+     */
+    protected Set<Object> changedRows = ConcurrentHashMap.newKeySet();
+
+    protected AsyncEvaluationQueue asyncEvaluationQueue;
+
+    protected RenderBudget renderBudget;
+
+    /**
+     * Evaluation latency of the column, and of all the dynamic columns of the screen.
+     */
+    protected Timer columnTimer;
+    protected Timer screenTimer;
+
+    protected Counter errorCounter;
+
+    /**
+     * The placeholder cells of the rows being evaluated in background, keyed by entity id.
+     */
+    protected Map<Object, Label<String>> placeholders = new HashMap<>();
+
+    /**
+     * The evaluations queued in background, keyed by entity id. The result of an evaluation that
+     * is not the last one submitted for its row is stale, and discarded: the row stamp alone does
+     * not tell, as the version of a row changed in memory, or reloaded, may be the same.
+     */
+    protected Map<Object, PendingEvaluation> pendingEvaluations = new HashMap<>();
+
+    protected Runnable backgroundResultListener;
+
     public GroovyColumnGenerator(DynamicColumn dynamicColumn) {
         this.dynamicColumn = dynamicColumn;
     }
 
+    /**
+     * Compiles the column script and adds the generated column to the table.
+     *
+     * <p>
+     * The compiled script class is obtained only once here from the {@link CompiledScriptCache},
+     * so that {@link #generateCell(Entity)} has only to bind the row entity and run it. A
+     * compilation error does not prevent the column from being added: it is reported in every
+     * cell instead.
+     * </p>
+     *
+     * <p>
+     * If the column is configured for static compilation, the script is compiled against the
+     * entity class of the table datasource.
+     * </p>
+     *
+     * @param table  the table where the generated column is added
+     */
     @SuppressWarnings("unchecked")
     public void setupDynamicColumn(Table table) {
+        if (table.getDatasource() != null) {
+            entityClass = table.getDatasource().getMetaClass().getJavaClass();
+        }
+        initMeters(table);
+        compileScript();
         table.addGeneratedColumn(dynamicColumn.getId().toString(), this);
         table.getColumn(dynamicColumn.getId().toString()).setCaption(dynamicColumn.getName());
     }
 
+    /**
+     * Registers the meters of the column, tagged with the ids of the screen and of the table: the
+     * columns are user-defined, so they are not tagged individually.
+     *
+     * @param table  the table where the generated column is added
+     */
+    protected void initMeters(Table table) {
+        String screen = table.getFrame() != null ? table.getFrame().getId() : "";
+        columnTimer = metricsRegistry.timer("nxdcol.cell.evaluation", "screen", screen, "table", table.getId());
+        screenTimer = metricsRegistry.timer("nxdcol.screen.evaluation", "screen", screen);
+        errorCounter = metricsRegistry.counter("nxdcol.cell.errors", "screen", screen, "table", table.getId());
+    }
+
+    /**
+     * Clears the memoized results.
+     */
+    @Override
+    public void dispose() {
+        invalidateAll();
+    }
+
+    /**
+     * Evaluates a row ahead of rendering and memoizes the result. Asynchronous columns are not
+     * precomputed, since their scripts are expected to be slow.
+     *
+     * @param entity  the row entity
+     */
+    @Override
+    public void precompute(Entity entity) {
+        if (compilationError == null && !isAsync()) {
+            getResult(entity);
+        }
+    }
+
+    /**
+     * Set the queue used to evaluate the cells in background, when the column is configured for
+     * asynchronous evaluation.
+     *
+     * @param asyncEvaluationQueue  the queue of the table where the column is added
+     */
+    public void setAsyncEvaluationQueue(AsyncEvaluationQueue asyncEvaluationQueue) {
+        this.asyncEvaluationQueue = asyncEvaluationQueue;
+    }
+
+    /**
+     * Set the time budget of the table renders, that stops the column evaluation when exceeded.
+     *
+     * @param renderBudget  the budget of the table where the column is added
+     */
+    public void setRenderBudget(RenderBudget renderBudget) {
+        this.renderBudget = renderBudget;
+    }
+
+    /**
+     * Set the listener notified in the UI thread when a result evaluated in background is
+     * memoized, as the table footer has to be aggregated again.
+     *
+     * @param backgroundResultListener  the listener, or null
+     */
+    public void setBackgroundResultListener(@Nullable Runnable backgroundResultListener) {
+        this.backgroundResultListener = backgroundResultListener;
+    }
+
+    /**
+     * @return true if the cells of the column should be evaluated in background
+     */
+    public boolean isAsync() {
+        return Boolean.TRUE.equals(dynamicColumn.getAsync()) && asyncEvaluationQueue != null;
+    }
+
     /**
      * Called by {@link Table} when rendering a column for which the generator was created.
      *
+     * <p>
+     * The script is run only the first time a row is rendered, and again only after the row
+     * entity has changed: repaints of unchanged rows use the memoized result.
+     * </p>
+     *
+     * <p>
+     * For asynchronous columns, a row without a memoized result is rendered as a placeholder,
+     * that is filled in when the evaluation queued in background completes. If the table queue
+     * is full, the cell is evaluated synchronously instead.
+     * </p>
+     *
      * @param entity an entity instance represented by the current row
      * @return a component to be rendered inside of the cell
      */
     @Override
     public com.haulmont.cuba.gui.components.Component generateCell(Entity entity) {
+        if (compilationError != null) {
+            return createErrorCell(compilationError.getMessage());
+        }
+        if (renderBudget != null) {
+            renderBudget.beginRender();
+        }
+        if (isAsync() && getMemoizedResult(entity) == null) {
+            Label<String> placeholder = submitEvaluation(entity);
+            if (placeholder != null) {
+                return placeholder;
+            }
+        }
+        return createCell(getResult(entity));
+    }
+
+    protected com.haulmont.cuba.gui.components.Component createCell(CellResult result) {
+        if (result.getError() != null) {
+            return createErrorCell(result.getError());
+        }
+        return new Table.PlainTextCell(result.getText());
+    }
+
+    /**
+     * Get the result of the script for the given row entity, evaluating it only if there is no
+     * memoized result for the current entity state.
+     *
+     * <p>
+     * If the render budget of the table is exhausted, the row is not evaluated and an error
+     * result is returned, without memoizing it. A result that exceeded the per-cell budget is not
+     * memoized either, so that the row is evaluated again by the next render.
+     * </p>
+     *
+     * @param entity  the row entity
+     * @return the evaluation result
+     */
+    public CellResult getResult(Entity entity) {
+        Object stamp = getRowStamp(entity);
+        CellResult result = results.get(entity.getId());
+        if (result == null || !Objects.equals(result.getStamp(), stamp)) {
+            if (renderBudget != null && renderBudget.isStopped(dynamicColumn.getId())) {
+                return CellResult.error(stamp, messages.getMainMessage("dynamicColumns.renderBudgetExceeded"));
+            }
+            result = evaluateResult(entity, stamp);
+            if (!result.isTimedOut()) {
+                results.put(entity.getId(), result);
+            } else if (renderBudget != null) {
+                renderBudget.stop(dynamicColumn.getId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the memoized result for the current state of a row entity, without evaluating it.
+     *
+     * @param entity  the row entity
+     * @return the memoized result, or null if the row has to be evaluated
+     */
+    public CellResult getMemoizedResult(Entity entity) {
+        CellResult result = results.get(entity.getId());
+        if (result == null || !Objects.equals(result.getStamp(), getRowStamp(entity))) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate a row that is not shown by the table, as the rows of an export: the result is not
+     * memoized, and the render budget does not apply. May be invoked concurrently from background
+     * threads.
+     *
+     * @param entity  the row entity
+     * @return the evaluation result
+     */
+    public CellResult evaluateDetached(Entity entity) {
+        if (compilationError != null) {
+            return CellResult.error(null, compilationError.getMessage());
+        }
+        return evaluateResult(entity, null);
+    }
+
+    /**
+     * Queue the evaluation of a row in background.
+     *
+     * @param entity  the row entity
+     * @return the placeholder cell, or null if the table queue is full
+     */
+    protected Label<String> submitEvaluation(Entity entity) {
+        Object id = entity.getId();
+        Label<String> placeholder = createPlaceholderCell();
+        if (isPending(entity)) {
+            // already queued, the result will be delivered to the last rendered placeholder
+            placeholders.put(id, placeholder);
+            return placeholder;
+        }
+        return queueEvaluation(entity, placeholder) ? placeholder : null;
+    }
+
+    /**
+     * Queue the evaluation in background of a row that may not be rendered, like the rows
+     * aggregated in the table footer, unless already queued for the current state of the row.
+     * The {@link #setBackgroundResultListener(Runnable) listener} is notified when completed.
+     *
+     * @param entity  the row entity
+     * @return true if queued, false if the table queue is full
+     */
+    public boolean evaluateInBackground(Entity entity) {
+        if (isPending(entity)) {
+            return true;
+        }
+        return queueEvaluation(entity, null);
+    }
+
+    /**
+     * @param entity  the row entity
+     * @return true if an evaluation of the current state of the row is queued in background
+     */
+    protected boolean isPending(Entity entity) {
+        PendingEvaluation pending = pendingEvaluations.get(entity.getId());
+        return pending != null && Objects.equals(pending.stamp, getRowStamp(entity));
+    }
+
+    /**
+     * Queue the evaluation of a row in background, that fills the given placeholder cell when
+     * completed.
+     *
+     * @param entity       the row entity
+     * @param placeholder  the placeholder cell of the row, or null if not rendered
+     * @return true if queued, false if the table queue is full
+     */
+    protected boolean queueEvaluation(Entity entity, @Nullable Label<String> placeholder) {
+        Object id = entity.getId();
+        PendingEvaluation pending = new PendingEvaluation(getRowStamp(entity));
+        boolean queued = asyncEvaluationQueue.submit(() -> evaluateResult(entity, pending.stamp), result -> {
+            if (pendingEvaluations.get(id) != pending) {
+                // the row changed, or was evaluated again, since the evaluation was queued
+                return;
+            }
+            pendingEvaluations.remove(id);
+            Label<String> label = placeholders.remove(id);
+            if (label != null) {
+                fillPlaceholderCell(label, result);
+            }
+            // a timed out row is queued again when rendered or aggregated again, not at once
+            if (!result.isTimedOut()) {
+                results.put(id, result);
+                if (backgroundResultListener != null) {
+                    backgroundResultListener.run();
+                }
+            }
+        });
+        if (queued) {
+            pendingEvaluations.put(id, pending);
+            if (placeholder != null) {
+                placeholders.put(id, placeholder);
+            }
+        }
+        return queued;
+    }
+
+    protected Label<String> createPlaceholderCell() {
+        Label<String> label = componentsFactory.create(Label.NAME);
+        label.setValue(PLACEHOLDER_TEXT);
+        return label;
+    }
+
+    protected void fillPlaceholderCell(Label<String> label, CellResult result) {
+        if (result.getError() != null) {
+            label.setValue(result.getError());
+            label.setStyleName("failure");
+        } else {
+            label.setValue(result.getText());
+        }
+    }
+
+    protected CellResult evaluateResult(Entity entity, Object stamp) {
+        long start = System.nanoTime();
+        try {
+            return CellResult.value(stamp, evaluate(entity));
+        } catch (Exception | LinkageError e) {
+            if (errorCounter != null) {
+                errorCounter.increment();
+            }
+            // scripts may throw checked exceptions, like the TimeoutException of the cell budget
+            if (e instanceof TimeoutException) {
+                return CellResult.timeout(stamp, messages.getMainMessage("dynamicColumns.cellTimeout"));
+            }
+            return CellResult.error(stamp, e.getMessage() != null ? e.getMessage() : e.toString());
+        } finally {
+            if (columnTimer != null) {
+                long elapsed = System.nanoTime() - start;
+                columnTimer.record(elapsed);
+                screenTimer.record(elapsed);
+            }
+        }
+    }
+
+    /**
+     * Runs the compiled script against the given entity.
+     *
+     * @param entity  the row entity, bound to the {@link #ENTITY_VARIABLE} variable
+     * @return the script result
+     */
+    protected Object evaluate(Entity entity) {
+        Class<? extends Script> currentClass = scriptClass;
+        try {
+            return run(currentClass, entity);
+        } catch (LinkageError e) {
+            Class<? extends Script> recompiledClass = recompileStale(currentClass);
+            if (recompiledClass == null) {
+                throw e;
+            }
+            return run(recompiledClass, entity);
+        }
+    }
+
+    protected Object run(Class<? extends Script> scriptClass, Entity entity) {
         Binding binding = new Binding();
-        binding.setVariable("__entity__", entity);
+        binding.setVariable(ENTITY_VARIABLE, entity);
+        Script script = InvokerHelper.createScript(scriptClass, binding);
+        return script.run();
+    }
+
+    /**
+     * Compile again a script class loaded from disk that failed to link, because the classes it
+     * uses changed since it was compiled.
+     *
+     * @param staleClass  the script class that failed to link
+     * @return the recompiled class, or null if the class was not stale or cannot be recompiled
+     */
+    protected synchronized Class<? extends Script> recompileStale(Class<? extends Script> staleClass) {
+        if (scriptClass != staleClass) {
+            // already recompiled by another thread
+            return scriptClass;
+        }
+        if (!compiledScriptCache.invalidateStale(staleClass)) {
+            return null;
+        }
         try {
-            Object result = scripting.evaluateGroovy(parseScript(), binding);
-            return new Table.PlainTextCell(result == null ? "" : result.toString());
+            scriptClass = compiledScriptCache.getScriptClass(dynamicColumn.getGroovyScript(),
+                    Boolean.TRUE.equals(dynamicColumn.getCompileStatic()) ? entityClass : null);
+            return scriptClass;
         } catch (RuntimeException e) {
-            Label<String> errorLabel = componentsFactory.create(Label.NAME);
-            errorLabel.setValue(e.getMessage());
-            errorLabel.setStyleName("failure");
-            return errorLabel;
+            return null;
         }
     }
 
-    protected String parseScript() {
-        return dynamicColumn.getGroovyScript().replace("{E}", "__entity__");
+    /**
+     * Get the stamp identifying the current state of a row entity: its version if the entity is
+     * {@link Versioned}, otherwise the number of changes notified by the datasource.
+     */
+    protected Object getRowStamp(Entity entity) {
+        if (entity instanceof Versioned) {
+            Integer version = ((Versioned) entity).getVersion();
+            if (version != null) {
+                return version;
+            }
+        }
+        return changeCounters.getOrDefault(entity.getId(), 0);
+    }
+
+    /**
+     * @param entity  the row entity
+     * @return true if the row is committed and was not changed in the datasource, so that its state
+     * in the database is up to date, for the columns computed by the database or the middleware
+     */
+    public boolean isStored(Entity entity) {
+        return !PersistenceHelper.isNew(entity) && !changedRows.contains(entity.getId());
+    }
+
+    /**
+     * Discards the memoized result of a row, and the result of its evaluation queued in
+     * background, if any.
+     *
+     * @param entity  the changed row entity
+     */
+    @Override
+    public void invalidate(Entity entity) {
+        changeCounters.merge(entity.getId(), 1, Integer::sum);
+        changedRows.add(entity.getId());
+        results.remove(entity.getId());
+        pendingEvaluations.remove(entity.getId());
+        placeholders.remove(entity.getId());
+    }
+
+    /**
+     * Discards all the memoized results.
+     */
+    @Override
+    public void invalidateAll() {
+        changeCounters.clear();
+        changedRows.clear();
+        results.clear();
+        pendingEvaluations.clear();
+        placeholders.clear();
+    }
+
+    protected void compileScript() {
+        scriptClass = null;
+        compilationError = null;
+        try {
+            scriptClass = compiledScriptCache.getScriptClass(dynamicColumn.getGroovyScript(),
+                    Boolean.TRUE.equals(dynamicColumn.getCompileStatic()) ? entityClass : null);
+        } catch (RuntimeException e) {
+            // CompilationFailedException, or a missing script
+            compilationError = e;
+        }
+    }
+
+    protected com.haulmont.cuba.gui.components.Component createErrorCell(String message) {
+        Label<String> errorLabel = componentsFactory.create(Label.NAME);
+        errorLabel.setValue(message);
+        errorLabel.setStyleName("failure");
+        return errorLabel;
+    }
+
+    /**
+     * An evaluation queued in background, compared by identity.
+     */
+    protected static class PendingEvaluation {
+        protected final Object stamp;
+
+        protected PendingEvaluation(Object stamp) {
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * The memoized result of a script evaluation for a row.
+     */
+    public static class CellResult {
+        protected final Object stamp;
+        protected final Object value;
+        protected final String error;
+        protected final boolean timedOut;
+
+        protected CellResult(Object stamp, Object value, String error, boolean timedOut) {
+            this.stamp = stamp;
+            this.value = value;
+            this.error = error;
+            this.timedOut = timedOut;
+        }
+
+        public static CellResult value(Object stamp, Object value) {
+            return new CellResult(stamp, value, null, false);
+        }
+
+        public static CellResult error(Object stamp, String error) {
+            return new CellResult(stamp, null, error, false);
+        }
+
+        public static CellResult timeout(Object stamp, String error) {
+            return new CellResult(stamp, null, error, true);
+        }
+
+        /**
+         * @return the row entity state this result was computed for
+         */
+        public Object getStamp() {
+            return stamp;
+        }
+
+        /**
+         * @return the value returned by the script, or null if it failed
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * @return the error message if the script failed, otherwise null
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return true if the evaluation was interrupted for exceeding the per-cell budget
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @return the value as shown in the table cell
+         */
+        public String getText() {
+            return value == null ? "" : value.toString();
+        }
     }
 }
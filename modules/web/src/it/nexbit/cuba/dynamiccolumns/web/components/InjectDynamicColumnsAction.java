@@ -7,4 +7,6 @@
 @Documented
 public @interface InjectDynamicColumnsAction {
     boolean dynamicCaption() default true;
+
+    boolean exportActions() default false;
 }
@@ -0,0 +1,93 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.google.common.collect.ImmutableList;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * The fields annotated by {@link InjectDynamicColumnsAction} of the screen classes, including the
+ * fields declared by their superclasses.
+ *
+ * <p>
+ * A class is scanned once, the first time a screen of the class is opened: the following screens
+ * read the fields through the cached getters.
+ * </p>
+ */
+final class InjectedTableFields {
+
+    private static final ClassValue<List<InjectedTableField>> FIELDS = new ClassValue<List<InjectedTableField>>() {
+        @Override
+        protected List<InjectedTableField> computeValue(Class<?> type) {
+            return scan(type);
+        }
+    };
+
+    private InjectedTableFields() {
+    }
+
+    /**
+     * @param frameClass  the screen class
+     * @return the annotated fields of the class and its superclasses
+     */
+    static List<InjectedTableField> get(Class<?> frameClass) {
+        return FIELDS.get(frameClass);
+    }
+
+    private static List<InjectedTableField> scan(Class<?> frameClass) {
+        ImmutableList.Builder<InjectedTableField> fields = ImmutableList.builder();
+        for (Class<?> type = frameClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                InjectDynamicColumnsAction annotation = field.getAnnotation(InjectDynamicColumnsAction.class);
+                if (annotation == null) {
+                    continue;
+                }
+                MethodHandle getter;
+                try {
+                    field.setAccessible(true);
+                    getter = MethodHandles.lookup().unreflectGetter(field)
+                            .asType(MethodType.methodType(Object.class, Object.class));
+                } catch (IllegalAccessException | RuntimeException e) {
+                    throw new RuntimeException("Cannot access the value of " + field.getName() +
+                            " field annotated by the @InjectDynamicColumnsAction attribute", e);
+                }
+                fields.add(new InjectedTableField(field.getName(), getter, annotation));
+            }
+        }
+        return fields.build();
+    }
+
+    static final class InjectedTableField {
+        private final String name;
+        private final MethodHandle getter;
+        private final InjectDynamicColumnsAction annotation;
+
+        private InjectedTableField(String name, MethodHandle getter, InjectDynamicColumnsAction annotation) {
+            this.name = name;
+            this.getter = getter;
+            this.annotation = annotation;
+        }
+
+        InjectDynamicColumnsAction getAnnotation() {
+            return annotation;
+        }
+
+        /**
+         * @param frame  the screen
+         * @return the field value
+         */
+        Object getValue(Object frame) {
+            try {
+                return (Object) getter.invokeExact(frame);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException("Cannot access the value of " + name +
+                        " field annotated by the @InjectDynamicColumnsAction attribute", e);
+            }
+        }
+    }
+}
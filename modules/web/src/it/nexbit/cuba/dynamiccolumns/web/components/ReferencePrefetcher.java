@@ -0,0 +1,271 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.google.common.collect.Lists;
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.KeyValueEntity;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.DataManager;
+import com.haulmont.cuba.core.global.EntityStates;
+import com.haulmont.cuba.core.global.LoadContext;
+import com.haulmont.cuba.core.global.MetadataTools;
+import com.haulmont.cuba.core.global.ValueLoadContext;
+import com.haulmont.cuba.core.global.View;
+import com.haulmont.cuba.core.global.ViewRepository;
+import com.haulmont.cuba.gui.data.CollectionDatasource;
+import com.haulmont.cuba.gui.data.impl.DatasourceImplementation;
+import it.nexbit.cuba.dynamiccolumns.scripting.ScriptPropertyPaths;
+
+import java.util.*;
+
+/**
+ * Loads in batch the references read by dynamic column scripts that were not fetched with the
+ * table rows, and attaches them to the rows.
+ *
+ * <p>
+ * For each reference attribute of the row entity read by a script, the rows whose reference lacks
+ * some of the attributes read through it are collected. If the reference attribute itself was not
+ * fetched with the rows, as for references the scripts choose conditionally, the ids of the
+ * references are first loaded with a single query on the row ids. The distinct ids are then
+ * grouped by referenced entity, and loaded with a single {@code in} query per entity (split in
+ * chunks of {@link #CHUNK_SIZE} ids), with a view containing all the attributes read through
+ * the references to that entity.
+ * </p>
+ */
+public class ReferencePrefetcher {
+
+    protected static final int CHUNK_SIZE = 500;
+
+    protected DataManager dataManager = AppBeans.get(DataManager.NAME);
+    protected EntityStates entityStates = AppBeans.get(EntityStates.NAME);
+    protected MetadataTools metadataTools = AppBeans.get(MetadataTools.NAME);
+    protected ViewRepository viewRepository = AppBeans.get(ViewRepository.NAME);
+
+    /**
+     * Prefetch the references read by the given scripts for all the rows of a datasource.
+     *
+     * <p>
+     * Attaching the loaded references does not mark the rows as modified, but the datasource
+     * fires item property change events that the caller is expected to ignore.
+     * </p>
+     *
+     * @param datasource  the table datasource, already loaded
+     * @param scripts     the dynamic column scripts
+     */
+    @SuppressWarnings("unchecked")
+    public void prefetch(CollectionDatasource datasource, Collection<String> scripts) {
+        MetaClass metaClass = datasource.getMetaClass();
+        Map<MetaProperty, List<List<MetaProperty>>> nestedPaths = new LinkedHashMap<>();
+        for (String script : scripts) {
+            for (String path : ScriptPropertyPaths.find(script)) {
+                List<MetaProperty> properties = ScriptPropertyPaths.resolve(metaClass, path);
+                if (!properties.isEmpty() && isReference(properties.get(0))) {
+                    List<List<MetaProperty>> paths = nestedPaths.computeIfAbsent(properties.get(0),
+                            p -> new ArrayList<>());
+                    if (properties.size() > 1) {
+                        paths.add(properties.subList(1, properties.size()));
+                    }
+                }
+            }
+        }
+        if (nestedPaths.isEmpty()) {
+            return;
+        }
+
+        DatasourceImplementation<Entity> datasourceImpl = (DatasourceImplementation<Entity>) datasource;
+        boolean modified = datasource.isModified();
+        Set<Entity> itemsToUpdate = new HashSet<>(datasourceImpl.getItemsToUpdate());
+
+        Collection<Entity> rows = new ArrayList<>(datasource.getItems());
+        Map<MetaClass, ReferenceBatch> batches = new LinkedHashMap<>();
+        for (Map.Entry<MetaProperty, List<List<MetaProperty>>> entry : nestedPaths.entrySet()) {
+            MetaProperty reference = entry.getKey();
+            batches.computeIfAbsent(reference.getRange().asClass(), ReferenceBatch::new)
+                    .add(reference, entry.getValue(), rows);
+        }
+        for (ReferenceBatch batch : batches.values()) {
+            if (!batch.isEmpty()) {
+                batch.load();
+            }
+        }
+
+        // attaching references is not a user modification
+        datasourceImpl.getItemsToUpdate().retainAll(itemsToUpdate);
+        datasourceImpl.setModified(modified);
+    }
+
+    protected boolean isReference(MetaProperty property) {
+        return property.getRange().isClass() && !property.getRange().getCardinality().isMany();
+    }
+
+    /**
+     * @return true if all the given paths are loaded in the entity
+     */
+    protected boolean isFetched(Entity entity, List<List<MetaProperty>> paths) {
+        for (List<MetaProperty> path : paths) {
+            Entity current = entity;
+            for (MetaProperty property : path) {
+                if (current == null) {
+                    break;
+                }
+                if (!entityStates.isLoaded(current, property.getName())) {
+                    return false;
+                }
+                Object value = current.getValue(property.getName());
+                current = value instanceof Entity ? (Entity) value : null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Load the ids of a reference attribute not fetched with the rows. The rows whose reference is
+     * empty are set to null, so that the scripts can read the attribute.
+     *
+     * @param rows       the rows lacking the reference attribute
+     * @param reference  the reference attribute
+     * @return the reference ids by row
+     */
+    protected Map<Entity, Object> loadReferenceIds(Collection<Entity> rows, MetaProperty reference) {
+        MetaClass metaClass = reference.getDomain();
+        String query = String.format("select e.%s, r.%s from %s e left join e.%s r where e.%s in :ids",
+                metadataTools.getPrimaryKeyName(metaClass),
+                metadataTools.getPrimaryKeyName(reference.getRange().asClass()),
+                metaClass.getName(), reference.getName(), metadataTools.getPrimaryKeyName(metaClass));
+
+        Map<Object, Entity> rowsById = new LinkedHashMap<>();
+        for (Entity row : rows) {
+            rowsById.put(row.getId(), row);
+        }
+        Map<Entity, Object> referenceIds = new LinkedHashMap<>();
+        for (List<Object> ids : Lists.partition(new ArrayList<>(rowsById.keySet()), CHUNK_SIZE)) {
+            ValueLoadContext loadContext = ValueLoadContext.create()
+                    .setQuery(ValueLoadContext.createQuery(query).setParameter("ids", ids));
+            loadContext.addProperty("rowId").addProperty("referenceId");
+            for (KeyValueEntity values : dataManager.loadValues(loadContext)) {
+                Entity row = rowsById.get(values.getValue("rowId"));
+                Object referenceId = values.getValue("referenceId");
+                if (row == null) {
+                    continue;
+                }
+                if (referenceId != null) {
+                    referenceIds.put(row, referenceId);
+                } else {
+                    row.setValue(reference.getName(), null);
+                }
+            }
+        }
+        return referenceIds;
+    }
+
+    /**
+     * Creates a view containing the minimal view of the reference class, extended with the given
+     * property paths.
+     */
+    protected View createView(MetaClass metaClass, List<List<MetaProperty>> paths) {
+        View view = viewRepository.getView(metaClass, View.MINIMAL);
+        for (List<MetaProperty> path : paths) {
+            addPath(view, path.iterator());
+        }
+        return view;
+    }
+
+    protected void addPath(View view, Iterator<MetaProperty> path) {
+        MetaProperty property = path.next();
+        if (!property.getRange().isClass()) {
+            view.addProperty(property.getName());
+            return;
+        }
+        View nestedView = view.getProperty(property.getName()) != null
+                ? view.getProperty(property.getName()).getView() : null;
+        if (nestedView == null) {
+            nestedView = viewRepository.getView(property.getRange().asClass(), View.MINIMAL);
+            view.addProperty(property.getName(), nestedView);
+        }
+        if (path.hasNext()) {
+            addPath(nestedView, path);
+        }
+    }
+
+    /**
+     * The references to an entity to be loaded, with the rows and attributes they are attached to.
+     */
+    protected class ReferenceBatch {
+
+        protected final MetaClass referenceClass;
+
+        protected final List<List<MetaProperty>> paths = new ArrayList<>();
+
+        /**
+         * The attributes to set by reference id, then by row.
+         */
+        protected final Map<Object, Map<Entity, List<String>>> targets = new LinkedHashMap<>();
+
+        protected ReferenceBatch(MetaClass referenceClass) {
+            this.referenceClass = referenceClass;
+        }
+
+        /**
+         * Collect the references of an attribute lacking the attributes read by the scripts.
+         *
+         * @param reference  the reference attribute of the rows
+         * @param paths      the paths read through the reference
+         * @param rows       the rows
+         */
+        protected void add(MetaProperty reference, List<List<MetaProperty>> paths, Collection<Entity> rows) {
+            String name = reference.getName();
+            List<Entity> unloadedRows = new ArrayList<>();
+            boolean added = false;
+            for (Entity row : rows) {
+                if (!entityStates.isLoaded(row, name)) {
+                    unloadedRows.add(row);
+                    continue;
+                }
+                Entity value = row.getValue(name);
+                if (value != null && !isFetched(value, paths)) {
+                    addTarget(value.getId(), row, name);
+                    added = true;
+                }
+            }
+            if (!unloadedRows.isEmpty()) {
+                Map<Entity, Object> referenceIds = loadReferenceIds(unloadedRows, reference);
+                referenceIds.forEach((row, id) -> addTarget(id, row, name));
+                added |= !referenceIds.isEmpty();
+            }
+            if (added) {
+                this.paths.addAll(paths);
+            }
+        }
+
+        protected void addTarget(Object referenceId, Entity row, String attribute) {
+            targets.computeIfAbsent(referenceId, id -> new LinkedHashMap<>())
+                    .computeIfAbsent(row, r -> new ArrayList<>(1))
+                    .add(attribute);
+        }
+
+        protected boolean isEmpty() {
+            return targets.isEmpty();
+        }
+
+        /**
+         * Load the references and attach them to the rows.
+         */
+        protected void load() {
+            View view = createView(referenceClass, paths);
+            String query = String.format("select e from %s e where e.%s in :ids",
+                    referenceClass.getName(), metadataTools.getPrimaryKeyName(referenceClass));
+            for (List<Object> ids : Lists.partition(new ArrayList<>(targets.keySet()), CHUNK_SIZE)) {
+                LoadContext<Entity> loadContext = LoadContext.create(referenceClass.getJavaClass());
+                loadContext.setQuery(LoadContext.createQuery(query).setParameter("ids", ids))
+                        .setView(view);
+                for (Entity loaded : dataManager.loadList(loadContext)) {
+                    Map<Entity, List<String>> rowAttributes = targets.getOrDefault(loaded.getId(),
+                            Collections.emptyMap());
+                    rowAttributes.forEach((row, attributes) ->
+                            attributes.forEach(attribute -> row.setValue(attribute, loaded)));
+                }
+            }
+        }
+    }
+}
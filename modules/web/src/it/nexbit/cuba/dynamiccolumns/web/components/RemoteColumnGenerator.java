@@ -0,0 +1,286 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.gui.components.Label;
+import com.haulmont.cuba.gui.components.Table;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.service.DynamicColumnEvaluationService;
+import it.nexbit.cuba.dynamiccolumns.service.DynamicColumnResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A column generator that evaluates the script on the middleware, by the
+ * {@link DynamicColumnEvaluationService}.
+ *
+ * <p>
+ * The rows of the table datasource are evaluated in batch by
+ * {@link DynamicColumnsManagerImpl}, and the results are set with {@link #setResult(Entity, DynamicColumnResult)};
+ * for asynchronous columns, the batch is evaluated in background and delivered with
+ * {@link #deliverResults(Collection, Map)}. The rows that are not committed, that were changed in
+ * the datasource, or that the middleware did not return, are evaluated locally, as the middleware
+ * would read a different state. Rows missing from the batches, like the rows added to the
+ * datasource, are evaluated with a service call each.
+ * </p>
+ *
+ * <p>
+ * The middleware reads the script of the column from the setting of the user holding the columns
+ * of the table, so all the rows are evaluated locally while a change of the setting is waiting
+ * to be written.
+ * </p>
+ */
+public class RemoteColumnGenerator extends GroovyColumnGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(RemoteColumnGenerator.class);
+
+    protected DynamicColumnEvaluationService evaluationService = AppBeans.get(DynamicColumnEvaluationService.NAME);
+    protected DynamicColumnsSettings settings = AppBeans.get(DynamicColumnsSettings.NAME);
+
+    protected String entityName;
+
+    protected String settingName;
+
+    /**
+     * The ids of the rows not returned by the middleware, e.g. deleted or filtered by the
+     * constraints of the user.
+     */
+    protected Set<Object> localRows = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The ids of the rows whose batch evaluation is queued in background.
+     */
+    protected Set<Object> queuedRows = ConcurrentHashMap.newKeySet();
+
+    protected volatile boolean scriptCompiled;
+
+    public RemoteColumnGenerator(DynamicColumn dynamicColumn) {
+        super(dynamicColumn);
+    }
+
+    /**
+     * @return the column definition, whose id identifies the column on the middleware
+     */
+    public DynamicColumn getDynamicColumn() {
+        return dynamicColumn;
+    }
+
+    /**
+     * @return the name of the setting the middleware reads the column from
+     */
+    public String getSettingName() {
+        return settingName;
+    }
+
+    /**
+     * Set the name of the user setting holding the columns of the table, from which the
+     * middleware reads the definition of the column.
+     *
+     * @param settingName  the setting name
+     */
+    public void setSettingName(String settingName) {
+        this.settingName = settingName;
+    }
+
+    @Override
+    public void setupDynamicColumn(Table table) {
+        entityName = table.getDatasource().getMetaClass().getName();
+        super.setupDynamicColumn(table);
+    }
+
+    /**
+     * The script is compiled on the middleware, and locally only if a row has to be evaluated
+     * locally.
+     */
+    @Override
+    protected void compileScript() {
+        scriptClass = null;
+        compilationError = null;
+        scriptCompiled = false;
+    }
+
+    /**
+     * @param entity  the row entity
+     * @return true if the row can be evaluated on the middleware
+     */
+    public boolean isRemote(Entity entity) {
+        return isStored(entity) && !localRows.contains(entity.getId()) && !settings.isPending(settingName);
+    }
+
+    /**
+     * Memoize the result of a row evaluated on the middleware in batch.
+     *
+     * @param entity  the row entity
+     * @param result  the evaluation result, or null if the middleware did not return the row,
+     *                which is then evaluated locally; a timed out result is not memoized, and
+     *                the row is evaluated again when rendered
+     */
+    public void setResult(Entity entity, @Nullable DynamicColumnResult result) {
+        if (result == null) {
+            localRows.add(entity.getId());
+        } else if (isRemote(entity) && !result.isTimedOut()) {
+            results.put(entity.getId(), toCellResult(getRowStamp(entity), result));
+        }
+    }
+
+    /**
+     * Mark the rows whose batch evaluation has been queued in background, so that rendering them
+     * shows a placeholder instead of evaluating them one by one.
+     *
+     * @param rows  the rows of the batch
+     */
+    public void setQueued(Collection<Entity> rows) {
+        for (Entity row : rows) {
+            queuedRows.add(row.getId());
+        }
+    }
+
+    /**
+     * Memoize the results of a batch evaluated in background, filling the placeholder cells of
+     * the rows already rendered. Invoked in the UI thread; rows changed in the meantime are
+     * skipped.
+     *
+     * @param rows     the rows of the batch
+     * @param results  the results of the batch by row id, then by column id
+     */
+    public void deliverResults(Collection<Entity> rows, Map<Object, Map<UUID, DynamicColumnResult>> results) {
+        boolean delivered = false;
+        for (Entity row : rows) {
+            if (!queuedRows.remove(row.getId())) {
+                continue;
+            }
+            Map<UUID, DynamicColumnResult> rowResults = results.get(row.getId());
+            setResult(row, rowResults != null ? rowResults.get(dynamicColumn.getId()) : null);
+            delivered = true;
+            Label<String> placeholder = placeholders.remove(row.getId());
+            if (placeholder == null) {
+                continue;
+            }
+            CellResult result = getMemoizedResult(row);
+            if (result != null) {
+                fillPlaceholderCell(placeholder, result);
+            } else if (!queueEvaluation(row, placeholder)) {
+                fillPlaceholderCell(placeholder, getResult(row));
+            }
+        }
+        if (delivered && backgroundResultListener != null) {
+            backgroundResultListener.run();
+        }
+    }
+
+    /**
+     * Forget the rows of a batch whose evaluation could not be queued, or was cancelled.
+     *
+     * @param rows  the rows of the batch
+     */
+    public void clearQueued(Collection<Entity> rows) {
+        for (Entity row : rows) {
+            queuedRows.remove(row.getId());
+        }
+    }
+
+    @Override
+    protected Label<String> submitEvaluation(Entity entity) {
+        if (queuedRows.contains(entity.getId())) {
+            // the result will be delivered with the batch
+            Label<String> placeholder = createPlaceholderCell();
+            placeholders.put(entity.getId(), placeholder);
+            return placeholder;
+        }
+        return super.submitEvaluation(entity);
+    }
+
+    @Override
+    public boolean evaluateInBackground(Entity entity) {
+        // the rows of a queued batch are delivered with the batch
+        return queuedRows.contains(entity.getId()) || super.evaluateInBackground(entity);
+    }
+
+    /**
+     * Evaluate a row with a service call, or locally if the row cannot be evaluated on the
+     * middleware or the call fails.
+     */
+    @Override
+    protected CellResult evaluateResult(Entity entity, Object stamp) {
+        if (isRemote(entity)) {
+            try {
+                Map<Object, Map<UUID, DynamicColumnResult>> remoteResults = evaluationService.evaluate(entityName,
+                        Collections.singletonList(entity.getId()), settingName,
+                        Collections.singletonList(dynamicColumn.getId()));
+                Map<UUID, DynamicColumnResult> row = remoteResults.get(entity.getId());
+                if (row != null && row.get(dynamicColumn.getId()) != null) {
+                    return toCellResult(stamp, row.get(dynamicColumn.getId()));
+                }
+                localRows.add(entity.getId());
+            } catch (RuntimeException e) {
+                // the row is evaluated on the middleware again once changed or refreshed
+                log.warn("Unable to evaluate dynamic column {} on the middleware, evaluating it locally",
+                        dynamicColumn.getName(), e);
+            }
+        }
+        return evaluateLocally(entity, stamp);
+    }
+
+    /**
+     * Rows exported are evaluated on the middleware in batch by the {@link TableExport}, so this
+     * evaluates locally the rows it could not evaluate remotely.
+     */
+    @Override
+    public CellResult evaluateDetached(Entity entity) {
+        return evaluateLocally(entity, null);
+    }
+
+    /**
+     * Evaluate a row in the web client, compiling the script on first use. May be invoked
+     * concurrently from background threads.
+     *
+     * @param entity  the row entity
+     * @param stamp   the row stamp
+     * @return the evaluation result
+     */
+    protected CellResult evaluateLocally(Entity entity, Object stamp) {
+        if (!scriptCompiled) {
+            synchronized (this) {
+                if (!scriptCompiled) {
+                    super.compileScript();
+                    scriptCompiled = true;
+                }
+            }
+        }
+        if (compilationError != null) {
+            return CellResult.error(stamp, compilationError.getMessage());
+        }
+        return super.evaluateResult(entity, stamp);
+    }
+
+    protected CellResult toCellResult(Object stamp, DynamicColumnResult result) {
+        if (result.isTimedOut()) {
+            return CellResult.timeout(stamp, messages.getMainMessage("dynamicColumns.cellTimeout"));
+        }
+        if (result.getError() != null) {
+            return CellResult.error(stamp, result.getError());
+        }
+        return CellResult.value(stamp, result.getText());
+    }
+
+    @Override
+    public void invalidate(Entity entity) {
+        queuedRows.remove(entity.getId());
+        super.invalidate(entity);
+    }
+
+    @Override
+    public void invalidateAll() {
+        localRows.clear();
+        queuedRows.clear();
+        super.invalidateAll();
+    }
+}
@@ -0,0 +1,101 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.gui.executors.BackgroundWorker;
+import com.haulmont.cuba.gui.executors.UIAccessor;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time budget of a table render, shared by all its dynamic columns.
+ *
+ * <p>
+ * A render spans a single UI request: the budget starts with the first evaluation of the
+ * request, and is reset when the request completes. Once the wall-clock time elapsed since the
+ * start of the render exceeds the budget, all the columns stop evaluating until the end of the
+ * render; the time is not summed across the threads evaluating the cells in parallel. A single
+ * column also stops when one of its cells exceeds the per-cell budget.
+ * </p>
+ *
+ * <p>
+ * A render can be ended before the end of the request by {@link #endRender()}, so that the
+ * precomputation of the rows does not spend the budget of the cells rendered after it.
+ * </p>
+ *
+ * <p>
+ * Instances must be created in the UI thread.
+ * </p>
+ */
+public class RenderBudget {
+
+    protected final long limitNanos;
+
+    protected final Set<Object> stoppedColumns = ConcurrentHashMap.newKeySet();
+
+    protected volatile boolean started;
+
+    protected volatile long startNanos;
+
+    protected volatile boolean resetScheduled;
+
+    protected UIAccessor uiAccessor;
+
+    /**
+     * @param limitMillis  the budget of a render, in milliseconds
+     */
+    public RenderBudget(long limitMillis) {
+        this.limitNanos = TimeUnit.MILLISECONDS.toNanos(limitMillis);
+        BackgroundWorker backgroundWorker = AppBeans.get(BackgroundWorker.NAME);
+        this.uiAccessor = backgroundWorker.getUIAccessor();
+    }
+
+    /**
+     * Mark the start of a render, if not already started. Must be invoked in the UI thread.
+     */
+    public void beginRender() {
+        if (!started) {
+            startNanos = System.nanoTime();
+            started = true;
+        }
+        if (!resetScheduled) {
+            resetScheduled = true;
+            // runs when the current request releases the UI lock
+            uiAccessor.access(this::reset);
+        }
+    }
+
+    /**
+     * Mark the end of a render before the end of the current request, so that the next
+     * evaluations start a new render. Must be invoked in the UI thread.
+     */
+    public void endRender() {
+        started = false;
+        stoppedColumns.clear();
+    }
+
+    /**
+     * @param columnKey  the column identifier
+     * @return true if the column must not evaluate any more cells in the current render
+     */
+    public boolean isStopped(Object columnKey) {
+        return (started && System.nanoTime() - startNanos > limitNanos)
+                || stoppedColumns.contains(columnKey);
+    }
+
+    /**
+     * Stop a column until the end of the render, as one of its cells exceeded the per-cell
+     * budget.
+     *
+     * @param columnKey  the column identifier
+     */
+    public void stop(Object columnKey) {
+        stoppedColumns.add(columnKey);
+    }
+
+    protected void reset() {
+        endRender();
+        resetScheduled = false;
+    }
+}
@@ -0,0 +1,224 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import java.math.BigDecimal;
+import java.text.Collator;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * The values of the dynamic columns of a table, kept sorted to reorder the table rows without
+ * evaluating the scripts again.
+ *
+ * <p>
+ * Each column has its own index of typed keys: numbers, dates and strings (compared with the
+ * collation of the user locale). Rows are added when the table is first sorted by the column,
+ * and removed when they change, so that sorting again only evaluates the changed rows.
+ * </p>
+ *
+ * <p>
+ * Instances must be used in the UI thread.
+ * </p>
+ */
+public class SortIndex {
+
+    protected final Collator collator;
+
+    protected final Map<UUID, ColumnIndex> columns = new HashMap<>();
+
+    /**
+     * @param locale  the locale of the user, for the comparison of the strings
+     */
+    public SortIndex(Locale locale) {
+        this.collator = Collator.getInstance(locale);
+    }
+
+    /**
+     * Get the index of a column, creating it on first access.
+     *
+     * @param columnId  the dynamic column id
+     * @return the column index
+     */
+    public ColumnIndex getColumn(UUID columnId) {
+        return columns.computeIfAbsent(columnId, id -> new ColumnIndex());
+    }
+
+    /**
+     * Remove the index of a column, after the column has been removed or changed.
+     *
+     * @param columnId  the dynamic column id
+     */
+    public void removeColumn(UUID columnId) {
+        columns.remove(columnId);
+    }
+
+    /**
+     * Remove a changed row from all the column indexes.
+     *
+     * @param rowId  the row entity id
+     */
+    public void remove(Object rowId) {
+        for (ColumnIndex column : columns.values()) {
+            column.remove(rowId);
+        }
+    }
+
+    /**
+     * Remove all the rows, after the table rows were reloaded.
+     */
+    public void clear() {
+        columns.clear();
+    }
+
+    /**
+     * Create the sort key of a column value.
+     *
+     * @param value  the evaluated value, or null if the evaluation failed
+     * @return the sort key
+     */
+    public SortKey createKey(Object value) {
+        if (value == null) {
+            return SortKey.NULL;
+        }
+        if (value instanceof BigDecimal) {
+            return new SortKey(SortKey.NUMBER, (BigDecimal) value);
+        }
+        if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (Double.isFinite(number)) {
+                return new SortKey(SortKey.NUMBER, BigDecimal.valueOf(number));
+            }
+        } else if (value instanceof Number) {
+            return new SortKey(SortKey.NUMBER, new BigDecimal(value.toString()));
+        }
+        if (value instanceof Date) {
+            return new SortKey(SortKey.DATE, ((Date) value).getTime());
+        }
+        if (value instanceof LocalDate) {
+            return new SortKey(SortKey.DATE,
+                    ((LocalDate) value).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        if (value instanceof LocalDateTime) {
+            return new SortKey(SortKey.DATE,
+                    ((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        if (value instanceof OffsetDateTime) {
+            return new SortKey(SortKey.DATE, ((OffsetDateTime) value).toInstant().toEpochMilli());
+        }
+        return new SortKey(SortKey.STRING, collator.getCollationKey(value.toString()));
+    }
+
+    /**
+     * A typed sort key: keys of different types are ordered numbers first, then dates, then
+     * strings, and null keys come last in both directions.
+     */
+    public static class SortKey {
+        protected static final int NUMBER = 0;
+        protected static final int DATE = 1;
+        protected static final int STRING = 2;
+        protected static final int NONE = 3;
+
+        public static final SortKey NULL = new SortKey(NONE, null);
+
+        protected final int type;
+
+        protected final Comparable<Object> value;
+
+        @SuppressWarnings("unchecked")
+        protected SortKey(int type, Comparable<?> value) {
+            this.type = type;
+            this.value = (Comparable<Object>) value;
+        }
+
+        public boolean isNull() {
+            return type == NONE;
+        }
+
+        protected int compareTo(SortKey other) {
+            if (type != other.type) {
+                return Integer.compare(type, other.type);
+            }
+            return value == null ? 0 : value.compareTo(other.value);
+        }
+    }
+
+    /**
+     * The sorted keys of a column.
+     */
+    public static class ColumnIndex {
+
+        protected final Map<Object, Entry> entries = new HashMap<>();
+
+        protected final NavigableSet<Entry> sorted = new TreeSet<>();
+
+        /**
+         * The order of insertion, breaking the ties between equal keys.
+         */
+        protected long sequence;
+
+        /**
+         * @param rowId  the row entity id
+         * @return true if the key of the row is indexed
+         */
+        public boolean contains(Object rowId) {
+            return entries.containsKey(rowId);
+        }
+
+        /**
+         * Add or replace the key of a row.
+         *
+         * @param rowId  the row entity id
+         * @param key    the sort key
+         */
+        public void put(Object rowId, SortKey key) {
+            remove(rowId);
+            Entry entry = new Entry(rowId, key, sequence++);
+            entries.put(rowId, entry);
+            sorted.add(entry);
+        }
+
+        /**
+         * @param rowId  the row entity id
+         */
+        public void remove(Object rowId) {
+            Entry entry = entries.remove(rowId);
+            if (entry != null) {
+                sorted.remove(entry);
+            }
+        }
+
+        /**
+         * @param ascending  the sort direction
+         * @return the ids of the indexed rows, sorted by key, with the null keys last
+         */
+        public List<Object> getSortedIds(boolean ascending) {
+            List<Object> ids = new ArrayList<>(sorted.size());
+            List<Object> nullIds = new ArrayList<>();
+            for (Entry entry : ascending ? sorted : sorted.descendingSet()) {
+                (entry.key.isNull() ? nullIds : ids).add(entry.rowId);
+            }
+            ids.addAll(nullIds);
+            return ids;
+        }
+    }
+
+    protected static class Entry implements Comparable<Entry> {
+        protected final Object rowId;
+        protected final SortKey key;
+        protected final long sequence;
+
+        protected Entry(Object rowId, SortKey key, long sequence) {
+            this.rowId = rowId;
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = key.compareTo(other.key);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
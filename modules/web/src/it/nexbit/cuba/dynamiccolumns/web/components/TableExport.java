@@ -0,0 +1,452 @@
+package it.nexbit.cuba.dynamiccolumns.web.components;
+
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.chile.core.model.MetaProperty;
+import com.haulmont.chile.core.model.MetaPropertyPath;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.global.*;
+import com.haulmont.cuba.core.global.filter.ParameterInfo;
+import com.haulmont.cuba.core.global.filter.QueryFilter;
+import com.haulmont.cuba.gui.components.Filter;
+import com.haulmont.cuba.gui.components.Frame;
+import com.haulmont.cuba.gui.components.HasValue;
+import com.haulmont.cuba.gui.components.Table;
+import com.haulmont.cuba.gui.data.CollectionDatasource;
+import com.haulmont.cuba.gui.data.Datasource;
+import com.haulmont.cuba.gui.executors.TaskLifeCycle;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
+import it.nexbit.cuba.dynamiccolumns.metrics.MetricsRegistry;
+import it.nexbit.cuba.dynamiccolumns.metrics.Timer;
+import it.nexbit.cuba.dynamiccolumns.service.DynamicColumnEvaluationService;
+import it.nexbit.cuba.dynamiccolumns.service.DynamicColumnResult;
+import it.nexbit.cuba.dynamiccolumns.web.components.export.RowWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.temporal.Temporal;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * An export of the rows of a table managed by a {@link DynamicColumnsManager}, including the
+ * values of its dynamic columns.
+ *
+ * <p>
+ * The export is created in the UI thread, that captures the visible columns of the table and the
+ * query of its datasource with the current parameter values, and written in background. If the
+ * datasource is paged, all the rows of the query are loaded from the database a page at a time,
+ * so that the memory used does not depend on the number of rows, in the order the datasource is
+ * sorted by and then by primary key; otherwise the rows of the datasource are exported, in the
+ * table order. The dynamic columns of each page are evaluated in
+ * parallel by the {@link DynamicColumnsExecutor} (or with a single service call, if evaluated on
+ * the middleware), then the page is written and released.
+ * </p>
+ *
+ * <p>
+ * Generated columns other than the dynamic columns are not exported, as their cells are
+ * components. Queries using templates are not reloaded: the rows of the datasource are exported.
+ * </p>
+ */
+public class TableExport {
+
+    private static final Logger log = LoggerFactory.getLogger(TableExport.class);
+
+    /**
+     * The parameters of the datasource queries, with the optional case insensitive marker.
+     */
+    protected static final Pattern PARAMETER_PATTERN =
+            Pattern.compile(":(\\(\\?i\\))?((ds|custom|session|param|component)\\$[\\w$]+(?:\\.[\\w$]+)*)");
+
+    protected static final Pattern ORDER_BY_PATTERN = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+    protected DataManager dataManager = AppBeans.get(DataManager.NAME);
+    protected MetadataTools metadataTools = AppBeans.get(MetadataTools.NAME);
+    protected MessageTools messageTools = AppBeans.get(MessageTools.NAME);
+    protected UserSessionSource userSessionSource = AppBeans.get(UserSessionSource.NAME);
+    protected Configuration configuration = AppBeans.get(Configuration.NAME);
+    protected DynamicColumnsExecutor executor = AppBeans.get(DynamicColumnsExecutor.NAME);
+    protected MetricsRegistry metricsRegistry = AppBeans.get(MetricsRegistry.NAME);
+
+    protected final MetaClass metaClass;
+
+    protected final List<ExportColumn> columns = new ArrayList<>();
+
+    /**
+     * The context loading the pages of the datasource query, or null to export the rows of the
+     * datasource.
+     */
+    protected LoadContext<Entity> loadContext;
+
+    protected List<Entity> datasourceRows;
+
+    protected final int pageSize;
+
+    protected final Timer timer;
+
+    /**
+     * Prepare the export of a table. Must be invoked in the UI thread.
+     *
+     * @param manager  the manager of the table
+     */
+    @SuppressWarnings("unchecked")
+    public TableExport(DynamicColumnsManager manager) {
+        Table table = manager.getTarget();
+        CollectionDatasource datasource = table.getDatasource();
+        metaClass = datasource.getMetaClass();
+        pageSize = Math.max(1, configuration.getConfig(DynamicColumnsConfig.class).getExportPageSize());
+        initColumns(manager);
+        loadContext = createLoadContext(table);
+        if (loadContext == null) {
+            datasourceRows = new ArrayList<Entity>(datasource.getItems());
+        }
+        timer = metricsRegistry.timer("nxdcol.table.export",
+                "screen", table.getFrame().getId(), "table", table.getId());
+    }
+
+    protected void initColumns(DynamicColumnsManager manager) {
+        for (Object object : manager.getTarget().getColumns()) {
+            Table.Column column = (Table.Column) object;
+            if (column.isCollapsed()) {
+                continue;
+            }
+            if (column.getId() instanceof MetaPropertyPath) {
+                MetaPropertyPath propertyPath = (MetaPropertyPath) column.getId();
+                String caption = column.getCaption() != null
+                        ? column.getCaption()
+                        : messageTools.getPropertyCaption(propertyPath.getMetaProperty());
+                columns.add(new ExportColumn(caption, propertyPath, null));
+                continue;
+            }
+            DynamicColumnsManager.DynamicColumnGenerator generator = findGenerator(manager, column.getId().toString());
+            if (generator instanceof GroovyColumnGenerator) {
+                columns.add(new ExportColumn(column.getCaption(), null, (GroovyColumnGenerator) generator));
+            }
+        }
+    }
+
+    @Nullable
+    protected DynamicColumnsManager.DynamicColumnGenerator findGenerator(DynamicColumnsManager manager, String columnId) {
+        try {
+            return manager.getColumnGenerator(UUID.fromString(columnId));
+        } catch (IllegalArgumentException e) {
+            // a generated column of the screen
+            return null;
+        }
+    }
+
+    /**
+     * Create the context loading the rows of the datasource query, with the parameter values of
+     * the last refresh of the datasource, and the conditions of its filter.
+     *
+     * @param table  the exported table
+     * @return the load context, or null if the datasource is not paged, or its query cannot be
+     * reproduced
+     */
+    @Nullable
+    protected LoadContext<Entity> createLoadContext(Table table) {
+        CollectionDatasource datasource = table.getDatasource();
+        String query = datasource.getQuery();
+        if (datasource.getMaxResults() <= 0 || StringUtils.isBlank(query) || query.contains("${")
+                || !metadataTools.isPersistent(metaClass)) {
+            return null;
+        }
+        Map<String, Object> values = new HashMap<>();
+        QueryFilter queryFilter = datasource.getQueryFilter();
+        if (queryFilter != null) {
+            for (ParameterInfo parameter : queryFilter.getParameters()) {
+                values.put(parameter.getName(), resolveParameter(parameter.getName(), table));
+            }
+            query = queryFilter.processQuery(query, values);
+        }
+
+        // the parameter names are flattened, as their prefixes are only understood by the datasources
+        Map<String, Object> parameters = new HashMap<>();
+        List<String> caseInsensitiveParameters = new ArrayList<>();
+        Matcher matcher = PARAMETER_PATTERN.matcher(query);
+        StringBuffer flatQuery = new StringBuffer();
+        while (matcher.find()) {
+            String name = matcher.group(2);
+            String flatName = name.replaceAll("[$.]", "_");
+            Object value = values.containsKey(name) ? values.get(name) : resolveParameter(name, table);
+            if (matcher.group(1) != null) {
+                caseInsensitiveParameters.add(flatName);
+                value = value instanceof String ? ((String) value).toLowerCase() : value;
+            }
+            parameters.put(flatName, value);
+            matcher.appendReplacement(flatQuery, Matcher.quoteReplacement(":" + flatName));
+        }
+        matcher.appendTail(flatQuery);
+
+        QueryTransformer transformer = QueryTransformerFactory.createTransformer(flatQuery.toString());
+        for (String name : caseInsensitiveParameters) {
+            transformer.handleCaseInsensitiveParam(name);
+        }
+        // the primary key is always the last sort property, so that the pages are consistent
+        String pkName = metadataTools.getPrimaryKeyName(metaClass);
+        CollectionDatasource.Sortable.SortInfo sortInfo = getSortInfo(datasource);
+        boolean ordered = false;
+        if (sortInfo != null) {
+            transformer.replaceOrderBy(sortInfo.getOrder() == CollectionDatasource.Sortable.Order.DESC,
+                    ((MetaPropertyPath) sortInfo.getPropertyPath()).toPathString(), pkName);
+            ordered = true;
+        } else if (!ORDER_BY_PATTERN.matcher(query).find()) {
+            transformer.replaceOrderBy(false, pkName);
+            ordered = true;
+        }
+        String loadQuery = transformer.getResult();
+        if (!ordered) {
+            // the order by clause is the last one of the query
+            loadQuery = loadQuery + ", " + QueryTransformerFactory.createParser(loadQuery).getEntityAlias()
+                    + "." + pkName;
+        }
+        LoadContext<Entity> context = new LoadContext<>(metaClass);
+        context.setQuery(LoadContext.createQuery(loadQuery).setParameters(parameters))
+                .setView(datasource.getView())
+                .setSoftDeletion(datasource.isSoftDeletion())
+                .setLoadDynamicAttributes(datasource.getLoadDynamicAttributes());
+        return context;
+    }
+
+    /**
+     * Get the order the datasource was last sorted by, so that the export follows the order of
+     * the table.
+     *
+     * @param datasource  the datasource of the exported table
+     * @return the sort info, or null if the datasource is not sorted by a persistent datatype
+     * property
+     */
+    @Nullable
+    protected CollectionDatasource.Sortable.SortInfo getSortInfo(CollectionDatasource datasource) {
+        if (!(datasource instanceof CollectionDatasource.Sortable)) {
+            return null;
+        }
+        CollectionDatasource.Sortable.SortInfo[] sortInfos = ((CollectionDatasource.Sortable) datasource).getSortInfo();
+        if (sortInfos == null || sortInfos.length != 1
+                || !(sortInfos[0].getPropertyPath() instanceof MetaPropertyPath)) {
+            return null;
+        }
+        MetaPropertyPath propertyPath = (MetaPropertyPath) sortInfos[0].getPropertyPath();
+        if (!metadataTools.isPersistent(propertyPath) || propertyPath.getRange().isClass()) {
+            return null;
+        }
+        return sortInfos[0];
+    }
+
+    /**
+     * Resolve a parameter of the datasource query as the datasource does when refreshed.
+     *
+     * @param name   the parameter name, with its prefix
+     * @param table  the exported table
+     * @return the parameter value
+     */
+    @Nullable
+    protected Object resolveParameter(String name, Table table) {
+        CollectionDatasource datasource = table.getDatasource();
+        Map<String, Object> refreshParameters = datasource.getLastRefreshParameters() != null
+                ? datasource.getLastRefreshParameters()
+                : Collections.emptyMap();
+        Frame frame = table.getFrame();
+        String path = StringUtils.substringAfter(name, "$");
+        switch (StringUtils.substringBefore(name, "$")) {
+            case "custom":
+                return refreshParameters.get(path);
+            case "session":
+                return userSessionSource.getUserSession().getAttribute(path);
+            case "param":
+                return frame.getContext().getParams().get(path);
+            case "ds":
+                Datasource parameterDatasource = datasource.getDsContext().get(StringUtils.substringBefore(path, "."));
+                Entity item = parameterDatasource != null ? parameterDatasource.getItem() : null;
+                if (item == null || !path.contains(".")) {
+                    return item;
+                }
+                return item.getValueEx(StringUtils.substringAfter(path, "."));
+            case "component":
+                if (refreshParameters.containsKey(name)) {
+                    return refreshParameters.get(name);
+                }
+                com.haulmont.cuba.gui.components.Component component = frame.getComponent(path);
+                if (component instanceof HasValue) {
+                    return ((HasValue) component).getValue();
+                }
+                // a condition of a generic filter
+                component = frame.getComponent(StringUtils.substringBeforeLast(path, "."));
+                if (component instanceof Filter) {
+                    return ((Filter) component).getParamValue(StringUtils.substringAfterLast(path, "."));
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Count the exported rows, executing a count query if the datasource is paged.
+     *
+     * @return the number of rows
+     */
+    public long getRowCount() {
+        return loadContext != null ? dataManager.getCount(loadContext) : datasourceRows.size();
+    }
+
+    /**
+     * Write the header and the rows of the table. May be invoked in background, once.
+     *
+     * @param writer     the writer of the output format, not closed
+     * @param lifeCycle  the life cycle of the background task, receiving the number of rows
+     *                   written after each page, and checked for cancellation between pages
+     * @throws IOException           if the output cannot be written
+     * @throws InterruptedException  if the task was interrupted
+     */
+    public void write(RowWriter writer, TaskLifeCycle<Integer> lifeCycle) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try {
+            writer.writeHeader(columns.stream()
+                    .map(column -> StringUtils.defaultString(column.caption))
+                    .collect(Collectors.toList()));
+            int written = 0;
+            while (!lifeCycle.isCancelled()) {
+                List<Entity> page = loadPage(written);
+                Object[][] cells = evaluatePage(page, writer.isTyped());
+                for (Object[] row : cells) {
+                    writer.writeRow(Arrays.asList(row));
+                }
+                written += page.size();
+                lifeCycle.publish(written);
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+        } finally {
+            timer.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param firstResult  the index of the first row of the page
+     * @return the rows of the page
+     */
+    protected List<Entity> loadPage(int firstResult) {
+        if (loadContext == null) {
+            return datasourceRows.subList(Math.min(firstResult, datasourceRows.size()),
+                    Math.min(firstResult + pageSize, datasourceRows.size()));
+        }
+        loadContext.getQuery().setFirstResult(firstResult).setMaxResults(pageSize);
+        return dataManager.loadList(loadContext);
+    }
+
+    /**
+     * Compute the cells of a page, evaluating the rows in parallel.
+     *
+     * @param page   the rows of the page
+     * @param typed  true to keep numbers and dates typed, false to format them
+     * @return the cells by row and column
+     */
+    protected Object[][] evaluatePage(List<Entity> page, boolean typed) {
+        Map<Object, Map<UUID, DynamicColumnResult>> remoteResults = evaluateRemotely(page);
+        Object[][] cells = new Object[page.size()][columns.size()];
+        executor.forEachIndex(page.size(), i -> {
+            Entity row = page.get(i);
+            for (int j = 0; j < columns.size(); j++) {
+                ExportColumn column = columns.get(j);
+                if (column.propertyPath != null) {
+                    cells[i][j] = toCell(row.getValueEx(column.propertyPath.toPathString()),
+                            column.propertyPath.getMetaProperty(), typed);
+                } else {
+                    cells[i][j] = getDynamicCell(row, column.generator, remoteResults.get(row.getId()), typed);
+                }
+            }
+        });
+        return cells;
+    }
+
+    /**
+     * Evaluate the columns evaluated on the middleware for the stored rows of a page, with a
+     * single call to the {@link DynamicColumnEvaluationService}. If the call fails, the page is
+     * evaluated locally.
+     *
+     * @param page  the rows of the page
+     * @return the results by row id and column id
+     */
+    protected Map<Object, Map<UUID, DynamicColumnResult>> evaluateRemotely(List<Entity> page) {
+        List<RemoteColumnGenerator> remoteGenerators = columns.stream()
+                .filter(column -> column.generator instanceof RemoteColumnGenerator)
+                .map(column -> (RemoteColumnGenerator) column.generator)
+                .collect(Collectors.toList());
+        List<Object> ids = page.stream()
+                .filter(row -> !PersistenceHelper.isNew(row))
+                .map(Entity::getId)
+                .collect(Collectors.toList());
+        if (remoteGenerators.isEmpty() || ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<UUID> columnIds = remoteGenerators.stream()
+                .map(generator -> generator.getDynamicColumn().getId())
+                .collect(Collectors.toList());
+        DynamicColumnEvaluationService evaluationService = AppBeans.get(DynamicColumnEvaluationService.NAME);
+        try {
+            // all the columns of the table are read from the same setting
+            return evaluationService.evaluate(metaClass.getName(), ids,
+                    remoteGenerators.get(0).getSettingName(), columnIds);
+        } catch (RuntimeException e) {
+            log.warn("Unable to evaluate the dynamic columns of a page of {} on the middleware, evaluating them locally",
+                    metaClass.getName(), e);
+            return Collections.emptyMap();
+        }
+    }
+
+    @Nullable
+    protected Object getDynamicCell(Entity row, GroovyColumnGenerator generator,
+                                    @Nullable Map<UUID, DynamicColumnResult> remoteResults, boolean typed) {
+        GroovyColumnGenerator.CellResult result = null;
+        if (generator instanceof RemoteColumnGenerator && remoteResults != null) {
+            RemoteColumnGenerator remoteGenerator = (RemoteColumnGenerator) generator;
+            DynamicColumnResult remoteResult = remoteResults.get(remoteGenerator.getDynamicColumn().getId());
+            if (remoteResult != null && remoteGenerator.isRemote(row)) {
+                result = remoteGenerator.toCellResult(null, remoteResult);
+            }
+        }
+        if (result == null) {
+            result = generator.evaluateDetached(row);
+        }
+        return result.getError() != null ? result.getError() : toCell(result.getValue(), null, typed);
+    }
+
+    /**
+     * Convert a value to a cell: numbers and dates are kept for the typed formats, the other
+     * values are formatted as shown by the table, with the locale of the user.
+     *
+     * @param value     the value
+     * @param property  the property of the value, or null for the values of the dynamic columns
+     * @param typed     true to keep numbers and dates typed
+     * @return the cell
+     */
+    @Nullable
+    protected Object toCell(@Nullable Object value, @Nullable MetaProperty property, boolean typed) {
+        if (value == null) {
+            return null;
+        }
+        if (typed && (value instanceof Number || value instanceof Date || value instanceof Temporal)) {
+            return value;
+        }
+        return property != null ? metadataTools.format(value, property) : metadataTools.format(value);
+    }
+
+    protected static class ExportColumn {
+        protected final String caption;
+        protected final MetaPropertyPath propertyPath;
+        protected final GroovyColumnGenerator generator;
+
+        protected ExportColumn(String caption, @Nullable MetaPropertyPath propertyPath,
+                               @Nullable GroovyColumnGenerator generator) {
+            this.caption = caption;
+            this.propertyPath = propertyPath;
+            this.generator = generator;
+        }
+    }
+}
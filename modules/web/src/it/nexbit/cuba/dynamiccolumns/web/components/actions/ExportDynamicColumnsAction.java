@@ -0,0 +1,215 @@
+package it.nexbit.cuba.dynamiccolumns.web.components.actions;
+
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Configuration;
+import com.haulmont.cuba.core.global.GlobalConfig;
+import com.haulmont.cuba.core.global.Messages;
+import com.haulmont.cuba.core.global.Security;
+import com.haulmont.cuba.gui.AppConfig;
+import com.haulmont.cuba.gui.backgroundwork.BackgroundWorkProgressWindow;
+import com.haulmont.cuba.gui.components.*;
+import com.haulmont.cuba.gui.components.actions.ListAction;
+import com.haulmont.cuba.gui.data.CollectionDatasource;
+import com.haulmont.cuba.gui.executors.BackgroundTask;
+import com.haulmont.cuba.gui.executors.TaskLifeCycle;
+import com.haulmont.cuba.gui.export.ExportFormat;
+import com.haulmont.cuba.gui.export.FileDataProvider;
+import com.haulmont.cuba.gui.icons.CubaIcon;
+import com.haulmont.cuba.security.entity.EntityOp;
+import it.nexbit.cuba.dynamiccolumns.config.DynamicColumnsConfig;
+import it.nexbit.cuba.dynamiccolumns.web.components.DynamicColumnsManager;
+import it.nexbit.cuba.dynamiccolumns.web.components.TableExport;
+import it.nexbit.cuba.dynamiccolumns.web.components.export.CsvRowWriter;
+import it.nexbit.cuba.dynamiccolumns.web.components.export.RowWriter;
+import it.nexbit.cuba.dynamiccolumns.web.components.export.XlsxRowWriter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+
+import java.io.*;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the rows of a table, including its dynamic columns, to an Excel or CSV file downloaded
+ * by the user.
+ *
+ * <p>
+ * The export is written by a {@link TableExport} in background to a temporary file, showing its
+ * progress in a window where it can be cancelled. The temporary files are deleted after a day, by
+ * the next export.
+ * </p>
+ */
+@org.springframework.stereotype.Component("nxdcol_ExportDynamicColumnsAction")
+@Scope("prototype")
+public class ExportDynamicColumnsAction extends ListAction {
+
+    public static final String ACTION_ID = "exportDynamicColumns";
+    public static final CubaIcon ICON = CubaIcon.DOWNLOAD;
+
+    private static final Logger log = LoggerFactory.getLogger(ExportDynamicColumnsAction.class);
+
+    protected static final long TEMP_FILE_RETENTION_MS = TimeUnit.DAYS.toMillis(1);
+
+    protected DynamicColumnsManager dynamicColumnsManager;
+    protected ExportFormat format;
+
+    protected Security security = AppBeans.get(Security.NAME);
+    protected Configuration configuration = AppBeans.get(Configuration.NAME);
+
+    private Messages messages = AppBeans.get(Messages.NAME);
+
+    /**
+     * Creates an action with the default id of the format.
+     * @param manager  the DynamicColumnsManager linked to the target table
+     * @param format   the export format, {@link ExportFormat#XLSX} or {@link ExportFormat#CSV}
+     */
+    public static ExportDynamicColumnsAction create(DynamicColumnsManager manager, ExportFormat format) {
+        return AppBeans.getPrototype("nxdcol_ExportDynamicColumnsAction", manager, format);
+    }
+
+    /**
+     * Creates an action with the given id.
+     * @param manager  the DynamicColumnsManager linked to the target table
+     * @param format   the export format, {@link ExportFormat#XLSX} or {@link ExportFormat#CSV}
+     * @param id       action name
+     */
+    public static ExportDynamicColumnsAction create(DynamicColumnsManager manager, ExportFormat format, String id) {
+        return AppBeans.getPrototype("nxdcol_ExportDynamicColumnsAction", manager, format, id);
+    }
+
+    /**
+     * Constructor that uses the default action id of the format, as in {@code exportDynamicColumnsXlsx}.
+     * @param manager  the DynamicColumnsManager linked to the target table
+     * @param format   the export format, {@link ExportFormat#XLSX} or {@link ExportFormat#CSV}
+     */
+    public ExportDynamicColumnsAction(DynamicColumnsManager manager, ExportFormat format) {
+        this(manager, format, ACTION_ID + StringUtils.capitalize(format.getFileExt()));
+    }
+
+    /**
+     * Constructor that allows to specify action's name.
+     * @param manager  the DynamicColumnsManager linked to the target table
+     * @param format   the export format, {@link ExportFormat#XLSX} or {@link ExportFormat#CSV}
+     * @param id       action's identifier
+     */
+    public ExportDynamicColumnsAction(DynamicColumnsManager manager, ExportFormat format, String id) {
+        super(id);
+        if (format != ExportFormat.XLSX && format != ExportFormat.CSV) {
+            throw new IllegalArgumentException("Unsupported export format: " + format.getFileExt());
+        }
+        this.dynamicColumnsManager = manager;
+        this.target = manager.getTarget();
+        this.format = format;
+        this.caption = messages.formatMainMessage("actions.ExportDynamicColumns", format.getFileExt().toUpperCase());
+        this.setIconFromSet(ICON);
+    }
+
+    /**
+     * Check permissions for action (by default it is permitted only if user has READ permission
+     * on target's datasource entity, and target is an instance of Table)
+     */
+    @Override
+    protected boolean isPermitted() {
+        if (target == null || target.getDatasource() == null || !(target instanceof Table)) {
+            return false;
+        }
+
+        CollectionDatasource ownerDatasource = target.getDatasource();
+        boolean entityOpPermitted = security.isEntityOpPermitted(ownerDatasource.getMetaClass(), EntityOp.READ);
+        if (!entityOpPermitted) {
+            return false;
+        }
+
+        return super.isPermitted();
+    }
+
+    @Override
+    public void actionPerform(Component component) {
+        TableExport export = new TableExport(dynamicColumnsManager);
+        File file = createTempFile();
+        DynamicColumnsConfig config = configuration.getConfig(DynamicColumnsConfig.class);
+        BackgroundTask<Integer, File> task = new BackgroundTask<Integer, File>(
+                config.getExportTimeoutSec(), TimeUnit.SECONDS, target.getFrame()) {
+            @Override
+            public File run(TaskLifeCycle<Integer> taskLifeCycle) throws Exception {
+                try (RowWriter writer = createWriter(new FileOutputStream(file))) {
+                    export.write(writer, taskLifeCycle);
+                }
+                return file;
+            }
+
+            @Override
+            public void done(File result) {
+                AppConfig.createExportDisplay(target.getFrame()).show(new FileDataProvider(result.getAbsolutePath()),
+                        getFileName(), format);
+            }
+
+            @Override
+            public void canceled() {
+                FileUtils.deleteQuietly(file);
+            }
+
+            @Override
+            public boolean handleException(Exception ex) {
+                FileUtils.deleteQuietly(file);
+                log.warn("Unable to export table {}", target.getId(), ex);
+                target.getFrame().showNotification(messages.getMainMessage("dynamicColumns.exportFailed"),
+                        Frame.NotificationType.ERROR);
+                return true;
+            }
+
+            @Override
+            public boolean handleTimeoutException() {
+                FileUtils.deleteQuietly(file);
+                return super.handleTimeoutException();
+            }
+        };
+        BackgroundWorkProgressWindow.show(task, messages.getMainMessage("dynamicColumns.exportTitle"),
+                messages.getMainMessage("dynamicColumns.exportMessage"), export.getRowCount(), true, true);
+    }
+
+    protected RowWriter createWriter(OutputStream out) throws IOException {
+        return format == ExportFormat.XLSX ? new XlsxRowWriter(out) : new CsvRowWriter(out);
+    }
+
+    /**
+     * @return the name of the downloaded file, after the table caption if any
+     */
+    protected String getFileName() {
+        Table table = (Table) target;
+        String name = StringUtils.defaultIfBlank(table.getCaption(), table.getId());
+        return StringUtils.defaultIfBlank(name, "export").replaceAll("[\\\\/:*?\"<>|]", "_")
+                + "." + format.getFileExt();
+    }
+
+    /**
+     * Create the temporary file of an export, deleting the ones older than a day.
+     *
+     * @return the file
+     */
+    protected File createTempFile() {
+        File dir = new File(configuration.getConfig(GlobalConfig.class).getTempDir(), "nxdcol/exports");
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.lastModified() < System.currentTimeMillis() - TEMP_FILE_RETENTION_MS) {
+                    FileUtils.deleteQuietly(file);
+                }
+            }
+        } else if (!dir.mkdirs()) {
+            log.warn("Unable to create the exports directory {}", dir);
+        }
+        return new File(dir, UUID.randomUUID() + "." + format.getFileExt());
+    }
+
+    public DynamicColumnsManager getDynamicColumnsManager() {
+        return dynamicColumnsManager;
+    }
+
+    public ExportFormat getFormat() {
+        return format;
+    }
+}
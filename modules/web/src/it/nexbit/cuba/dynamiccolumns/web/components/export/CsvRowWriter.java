@@ -0,0 +1,70 @@
+package it.nexbit.cuba.dynamiccolumns.web.components.export;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes the rows as CSV, following RFC 4180: UTF-8 text starting with a byte order mark, for
+ * spreadsheets to detect the encoding, with comma separated cells and CRLF line endings. Cells
+ * containing separators, quotes or line breaks are quoted.
+ */
+public class CsvRowWriter implements RowWriter {
+
+    protected static final char SEPARATOR = ',';
+
+    protected final Writer writer;
+
+    /**
+     * @param out  the output stream, closed with the writer
+     * @throws IOException  if the output stream cannot be written
+     */
+    public CsvRowWriter(OutputStream out) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write('\uFEFF');
+    }
+
+    @Override
+    public boolean isTyped() {
+        return false;
+    }
+
+    @Override
+    public void writeHeader(List<String> captions) throws IOException {
+        writeRow(captions);
+    }
+
+    @Override
+    public void writeRow(List<?> cells) throws IOException {
+        for (int i = 0; i < cells.size(); i++) {
+            if (i > 0) {
+                writer.write(SEPARATOR);
+            }
+            Object cell = cells.get(i);
+            if (cell != null) {
+                writeCell(cell.toString());
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    protected void writeCell(String text) throws IOException {
+        boolean quoted = false;
+        for (int i = 0; i < text.length() && !quoted; i++) {
+            char c = text.charAt(i);
+            quoted = c == SEPARATOR || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quoted) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        writer.write(text.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
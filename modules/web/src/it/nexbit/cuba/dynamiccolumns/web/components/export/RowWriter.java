@@ -0,0 +1,40 @@
+package it.nexbit.cuba.dynamiccolumns.web.components.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the rows of a table export to an output stream as they are produced, without keeping
+ * them in memory.
+ */
+public interface RowWriter extends Closeable {
+
+    /**
+     * @return true if numbers and dates are written as typed cells, false if the cells must be
+     * formatted as text before being written
+     */
+    boolean isTyped();
+
+    /**
+     * @param captions  the column captions
+     * @throws IOException  if the output stream cannot be written
+     */
+    void writeHeader(List<String> captions) throws IOException;
+
+    /**
+     * @param cells  the cell values: strings, and numbers and dates ({@link java.util.Date},
+     *               {@code LocalDate}, {@code LocalDateTime} and {@code OffsetDateTime}) if the
+     *               writer is typed. Null values are written as empty cells
+     * @throws IOException  if the output stream cannot be written
+     */
+    void writeRow(List<?> cells) throws IOException;
+
+    /**
+     * Complete the output and close the stream.
+     *
+     * @throws IOException  if the output stream cannot be written
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,104 @@
+package it.nexbit.cuba.dynamiccolumns.web.jmx;
+
+import it.nexbit.cuba.dynamiccolumns.metrics.Counter;
+import it.nexbit.cuba.dynamiccolumns.metrics.Meter;
+import it.nexbit.cuba.dynamiccolumns.metrics.MetricsRegistry;
+import it.nexbit.cuba.dynamiccolumns.metrics.Timer;
+import it.nexbit.cuba.dynamiccolumns.scripting.CompiledScriptCache;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+@Component("nxdcol_DynamicColumnsMetricsMBean")
+public class DynamicColumnsMetrics implements DynamicColumnsMetricsMBean {
+
+    @Inject
+    protected MetricsRegistry metricsRegistry;
+
+    @Inject
+    protected CompiledScriptCache compiledScriptCache;
+
+    @Override
+    public long getScriptCacheSize() {
+        return compiledScriptCache.size();
+    }
+
+    @Override
+    public double getScriptCacheHitRate() {
+        return compiledScriptCache.getStatistics().hitRate();
+    }
+
+    @Override
+    public long getScriptCacheEvictionCount() {
+        return compiledScriptCache.getStatistics().evictionCount();
+    }
+
+    @Override
+    public long getEvaluationCount() {
+        return metricsRegistry.getMeters().stream()
+                .filter(meter -> meter instanceof Timer && meter.getName().equals("nxdcol.screen.evaluation"))
+                .mapToLong(meter -> ((Timer) meter).getCount())
+                .sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return metricsRegistry.getMeters().stream()
+                .filter(meter -> meter instanceof Counter && meter.getName().equals("nxdcol.cell.errors"))
+                .mapToLong(meter -> ((Counter) meter).getCount())
+                .sum();
+    }
+
+    @Override
+    public String printMeters() {
+        return print(meter -> true);
+    }
+
+    @Override
+    public String printScreenMeters(String screenId) {
+        return print(meter -> Objects.equals(meter.getTags().get("screen"), screenId));
+    }
+
+    @Override
+    public String resetMeters() {
+        metricsRegistry.reset();
+        return "Done";
+    }
+
+    protected String print(Predicate<Meter> filter) {
+        return metricsRegistry.getMeters().stream()
+                .filter(filter)
+                .sorted(Comparator.comparing(Meter::getName).thenComparing(meter -> meter.getTags().toString()))
+                .map(this::format)
+                .collect(Collectors.joining("\n"));
+    }
+
+    protected String format(Meter meter) {
+        String id = meter.getName() + meter.getTags().entrySet().stream()
+                .map(Map.Entry::toString)
+                .collect(Collectors.joining(",", "{", "}"));
+        if (meter instanceof Timer) {
+            Timer timer = (Timer) meter;
+            return String.format("%s count=%d mean=%.3fms p50=%.3fms p95=%.3fms p99=%.3fms max=%.3fms",
+                    id, timer.getCount(),
+                    timer.getCount() > 0 ? millis(timer.getTotalTimeNanos()) / timer.getCount() : 0.0,
+                    millis(timer.getPercentileNanos(0.5)),
+                    millis(timer.getPercentileNanos(0.95)),
+                    millis(timer.getPercentileNanos(0.99)),
+                    millis(timer.getMaxNanos()));
+        }
+        if (meter instanceof Counter) {
+            return String.format("%s count=%d", id, ((Counter) meter).getCount());
+        }
+        return id;
+    }
+
+    protected static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,48 @@
+package it.nexbit.cuba.dynamiccolumns.web.jmx;
+
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * JMX interface of the dynamic columns metrics.
+ */
+@ManagedResource(description = "Dynamic columns evaluation metrics")
+public interface DynamicColumnsMetricsMBean {
+
+    /**
+     * @return the number of compiled scripts in the script cache
+     */
+    long getScriptCacheSize();
+
+    /**
+     * @return the ratio of script cache lookups that found a compiled script
+     */
+    double getScriptCacheHitRate();
+
+    /**
+     * @return the number of compiled scripts evicted from the script cache
+     */
+    long getScriptCacheEvictionCount();
+
+    /**
+     * @return the total number of cell evaluations on this node
+     */
+    long getEvaluationCount();
+
+    /**
+     * @return the total number of failed cell evaluations on this node
+     */
+    long getErrorCount();
+
+    @ManagedOperation(description = "Print all the meters")
+    String printMeters();
+
+    @ManagedOperation(description = "Print the meters of a screen")
+    @ManagedOperationParameters({@ManagedOperationParameter(name = "screenId", description = "The screen id")})
+    String printScreenMeters(String screenId);
+
+    @ManagedOperation(description = "Reset all the meters")
+    String resetMeters();
+}
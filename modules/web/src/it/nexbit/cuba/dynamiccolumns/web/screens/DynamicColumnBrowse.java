@@ -7,11 +7,11 @@
 import com.haulmont.cuba.core.global.MessageTools;
 import com.haulmont.cuba.core.global.Metadata;
 import com.haulmont.cuba.core.global.MetadataTools;
-import com.haulmont.cuba.core.global.Scripting;
 import com.haulmont.cuba.core.sys.jpql.DomainModel;
 import com.haulmont.cuba.core.sys.jpql.model.EntityBuilder;
 import com.haulmont.cuba.core.sys.jpql.model.JpqlEntityModel;
 import com.haulmont.cuba.core.sys.jpql.model.JpqlEntityModelImpl;
+import com.haulmont.cuba.gui.WindowManager;
 import com.haulmont.cuba.gui.components.*;
 import com.haulmont.cuba.gui.components.actions.CreateAction;
 import com.haulmont.cuba.gui.components.actions.EditAction;
@@ -24,7 +24,12 @@
 import com.haulmont.cuba.gui.data.CollectionDatasource;
 import com.haulmont.cuba.gui.data.Datasource;
 import com.haulmont.cuba.security.entity.EntityOp;
+import groovy.lang.Binding;
 import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumnAggregation;
+import it.nexbit.cuba.dynamiccolumns.entity.DynamicColumnResultType;
+import it.nexbit.cuba.dynamiccolumns.entity.SharedDynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.scripting.CompiledScriptCache;
 import it.nexbit.cuba.dynamiccolumns.web.components.DynamicColumnsManager;
 import it.nexbit.cuba.dynamiccolumns.web.components.actions.EditDynamicColumnsAction;
 import org.apache.commons.lang3.StringUtils;
@@ -61,7 +66,7 @@ public class DynamicColumnBrowse extends AbstractLookup implements EditDynamicCo
     protected MessageTools messageTools;
 
     @Inject
-    protected Scripting scripting;
+    protected CompiledScriptCache compiledScriptCache;
 
     @Inject
     protected VBoxLayout lookupBox;
@@ -72,6 +77,14 @@ public class DynamicColumnBrowse extends AbstractLookup implements EditDynamicCo
     @Inject
     protected SourceCodeEditor groovyScriptField;
     @Inject
+    protected CheckBox asyncField;
+    @Inject
+    protected CheckBox compileStaticField;
+    @Inject
+    protected LookupField<DynamicColumnAggregation> aggregationField;
+    @Inject
+    protected LookupField<DynamicColumnResultType> resultTypeField;
+    @Inject
     protected VBoxLayout editBox;
     @Inject
     protected HBoxLayout actionsPane;
@@ -247,8 +260,16 @@ protected void disableEditControls() {
      *                if false - vice versa
      */
     protected void initEditComponents(boolean enabled) {
-        nameField.setEditable(enabled);
-        groovyScriptField.setEditable(enabled);
+        // the columns of the shared library are edited in the library only
+        DynamicColumn item = dynamicColumnDs.getItem();
+        boolean editable = enabled && (item == null || item.getSharedColumnId() == null);
+        nameField.setEditable(editable);
+        groovyScriptField.setEditable(editable);
+        asyncField.setEditable(editable);
+        compileStaticField.setEditable(editable);
+        // the aggregation is chosen by the user also for the shared columns
+        aggregationField.setEditable(enabled);
+        resultTypeField.setEditable(enabled);
         actionsPane.setEnabled(enabled);
         dialogActionsPane.setEnabled(!enabled);
         lookupBox.setEnabled(!enabled);
@@ -264,7 +285,7 @@ public void save() {
         List<Validatable> components = new ArrayList<>();
         components.add(nameField);
         components.add(groovyScriptField);
-        if (!validate(components)) {
+        if (!validate(components) || !checkStaticScript()) {
             return;
         }
 
@@ -294,6 +315,40 @@ public void cancel() {
         disableEditControls();
     }
 
+    /**
+     * Method that is invoked by clicking Add From Library button, adds the selected columns of
+     * the shared library.
+     */
+    public void addShared() {
+        Map<String, Object> params = new HashMap<>();
+        if (dynamicColumnsManager != null) {
+            params.put("entityName", dynamicColumnsManager.getTarget().getDatasource().getMetaClass().getName());
+        }
+        openLookup(SharedDynamicColumn.class, items -> {
+            for (Object item : items) {
+                DynamicColumn dc = createSharedColumn((SharedDynamicColumn) item);
+                dynamicColumnsDs.includeItem(dc);
+                dynamicColumnsStore.put(dc.getId(), dc);
+            }
+        }, WindowManager.OpenType.DIALOG, params);
+    }
+
+    /**
+     * Create a dynamic column referencing a column of the shared library.
+     *
+     * @param sharedColumn  the shared column
+     * @return a new dynamic column, with a copy of the shared definition
+     */
+    protected DynamicColumn createSharedColumn(SharedDynamicColumn sharedColumn) {
+        DynamicColumn dc = metadata.create(DynamicColumn.class);
+        dc.setSharedColumnId(sharedColumn.getId());
+        dc.setName(sharedColumn.getName());
+        dc.setGroovyScript(sharedColumn.getGroovyScript());
+        dc.setAsync(sharedColumn.getAsync());
+        dc.setCompileStatic(sharedColumn.getCompileStatic());
+        return dc;
+    }
+
     public void applyDialog() {
         getDsContext().commit();
         close(Window.COMMIT_ACTION_ID);
@@ -306,20 +361,14 @@ public void closeDialog() {
     public void testScript() {
         if (validateAll() && dynamicColumnsManager != null) {
             if (StringUtils.isNotBlank(groovyScriptField.getValue())) {
-                Map<String, Object> context = new HashMap<>();
-                context.put("__entity__",
-                        metadata.create(dynamicColumnsManager.getTarget().getDatasource().getMetaClass()));
+                MetaClass metaClass = dynamicColumnsManager.getTarget().getDatasource().getMetaClass();
+                Binding binding = new Binding();
+                binding.setVariable(CompiledScriptCache.ENTITY_VARIABLE, metadata.create(metaClass));
                 try {
-                    scripting.evaluateGroovy(
-                            groovyScriptField.getValue().replace("{E}", "__entity__"),
-                            context
-                    );
+                    compiledScriptCache.createScript(groovyScriptField.getValue(),
+                            getStaticEntityClass(), binding).run();
                 } catch (CompilationFailedException e) {
-                    showMessageDialog(
-                            getMessage("editDynamicColumsDialog.error"),
-                            formatMessage("editDynamicColumsDialog.scriptCompilationError", e.toString()),
-                            MessageType.WARNING_HTML
-                    );
+                    showCompilationError(e);
                     return;
                 } catch (Exception e) {
                     // ignore
@@ -331,6 +380,44 @@ public void testScript() {
         }
     }
 
+    /**
+     * Compiles the edited script if it is statically compiled, so that type errors are reported
+     * before saving.
+     *
+     * @return true if the script is dynamic, or compiles successfully
+     */
+    protected boolean checkStaticScript() {
+        Class<?> entityClass = getStaticEntityClass();
+        if (entityClass == null || StringUtils.isBlank(groovyScriptField.getValue())) {
+            return true;
+        }
+        try {
+            compiledScriptCache.getScriptClass(groovyScriptField.getValue(), entityClass);
+            return true;
+        } catch (CompilationFailedException e) {
+            showCompilationError(e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the target entity class if the edited column is statically compiled, otherwise null
+     */
+    protected Class<?> getStaticEntityClass() {
+        if (!Boolean.TRUE.equals(compileStaticField.getValue()) || dynamicColumnsManager == null) {
+            return null;
+        }
+        return dynamicColumnsManager.getTarget().getDatasource().getMetaClass().getJavaClass();
+    }
+
+    protected void showCompilationError(CompilationFailedException e) {
+        showMessageDialog(
+                getMessage("editDynamicColumsDialog.error"),
+                formatMessage("editDynamicColumsDialog.scriptCompilationError", e.toString()),
+                MessageType.WARNING_HTML
+        );
+    }
+
     @Override
     public Collection<DynamicColumn> getDynamicColumns() {
         return dynamicColumnsDs.getItems();
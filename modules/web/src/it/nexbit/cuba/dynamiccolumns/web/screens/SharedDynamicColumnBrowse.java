@@ -0,0 +1,35 @@
+package it.nexbit.cuba.dynamiccolumns.web.screens;
+
+import com.haulmont.cuba.gui.components.AbstractLookup;
+import com.haulmont.cuba.gui.components.GroupTable;
+import com.haulmont.cuba.gui.components.actions.RemoveAction;
+import it.nexbit.cuba.dynamiccolumns.entity.SharedDynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.library.SharedColumnLibrary;
+
+import javax.inject.Inject;
+import java.util.Map;
+
+/**
+ * Browser of the shared dynamic column library.
+ *
+ * <p>
+ * When opened as a lookup with the {@code entityName} parameter, only the columns usable with that
+ * entity are listed.
+ * </p>
+ */
+public class SharedDynamicColumnBrowse extends AbstractLookup {
+
+    @Inject
+    protected SharedColumnLibrary sharedColumnLibrary;
+
+    @Inject
+    protected GroupTable<SharedDynamicColumn> sharedDynamicColumnsTable;
+
+    @Override
+    public void init(Map<String, Object> params) {
+        RemoveAction removeAction = (RemoveAction) sharedDynamicColumnsTable.getAction(RemoveAction.ACTION_ID);
+        if (removeAction != null) {
+            removeAction.setAfterRemoveHandler(removedItems -> sharedColumnLibrary.refresh());
+        }
+    }
+}
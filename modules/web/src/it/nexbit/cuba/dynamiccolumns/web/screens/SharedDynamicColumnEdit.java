@@ -0,0 +1,89 @@
+package it.nexbit.cuba.dynamiccolumns.web.screens;
+
+import com.haulmont.chile.core.model.MetaClass;
+import com.haulmont.cuba.core.global.Metadata;
+import com.haulmont.cuba.core.global.MetadataTools;
+import com.haulmont.cuba.gui.UiComponents;
+import com.haulmont.cuba.gui.components.AbstractEditor;
+import com.haulmont.cuba.gui.components.FieldGroup;
+import com.haulmont.cuba.gui.components.LookupField;
+import com.haulmont.cuba.gui.data.Datasource;
+import it.nexbit.cuba.dynamiccolumns.entity.SharedDynamicColumn;
+import it.nexbit.cuba.dynamiccolumns.library.SharedColumnLibrary;
+import it.nexbit.cuba.dynamiccolumns.scripting.CompiledScriptCache;
+import org.codehaus.groovy.control.CompilationFailedException;
+
+import javax.inject.Inject;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Editor of a shared dynamic column definition.
+ *
+ * <p>
+ * The script is compiled before committing, statically if requested and the entity is set, and
+ * the library is refreshed after committing so that the new definition is used right away.
+ * </p>
+ */
+public class SharedDynamicColumnEdit extends AbstractEditor<SharedDynamicColumn> {
+
+    @Inject
+    protected Metadata metadata;
+
+    @Inject
+    protected MetadataTools metadataTools;
+
+    @Inject
+    protected UiComponents uiComponents;
+
+    @Inject
+    protected CompiledScriptCache compiledScriptCache;
+
+    @Inject
+    protected SharedColumnLibrary sharedColumnLibrary;
+
+    @Inject
+    protected FieldGroup fieldGroup;
+
+    @Inject
+    protected Datasource<SharedDynamicColumn> sharedDynamicColumnDs;
+
+    @Override
+    public void init(Map<String, Object> params) {
+        LookupField<String> entityNameField = uiComponents.create(LookupField.NAME);
+        entityNameField.setOptionsList(metadataTools.getAllPersistentMetaClasses().stream()
+                .map(MetaClass::getName)
+                .sorted()
+                .collect(Collectors.toList()));
+        entityNameField.setDatasource(sharedDynamicColumnDs, "entityName");
+        fieldGroup.getFieldNN("entityNameField").setComponent(entityNameField);
+    }
+
+    @Override
+    protected boolean preCommit() {
+        SharedDynamicColumn item = getItem();
+        Class<?> entityClass = null;
+        if (Boolean.TRUE.equals(item.getCompileStatic()) && item.getEntityName() != null) {
+            entityClass = metadata.getClassNN(item.getEntityName()).getJavaClass();
+        }
+        try {
+            compiledScriptCache.getScriptClass(item.getGroovyScript(), entityClass);
+        } catch (CompilationFailedException e) {
+            showMessageDialog(
+                    getMessage("editDynamicColumsDialog.error"),
+                    formatMessage("editDynamicColumsDialog.scriptCompilationError", e.toString()),
+                    MessageType.WARNING_HTML
+            );
+            return false;
+        }
+        return super.preCommit();
+    }
+
+    @Override
+    protected boolean postCommit(boolean committed, boolean close) {
+        if (committed) {
+            sharedColumnLibrary.refresh();
+        }
+        return super.postCommit(committed, close);
+    }
+}